@@ -36,8 +36,10 @@ public class Directory implements Comparable {
 
     //private boolean useCache = false;
     private FileSystemWatcher FileSystemWatcher;
+    private java.io.File indexFile;
     private File.FileAttributes attr;
     private long lastAttrUpdate = 0;
+    private long attrTTL = 0;
 
     public static final String PathSeparator = System.getProperty("file.separator");
     protected static final boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
@@ -91,6 +93,15 @@ public class Directory implements Comparable {
         init(p);
 
 
+      //If the java.io.File came from a directory listing, use the attributes
+      //that were read with the listing (see setAttributeTTL)
+        if (File instanceof javaxt.io.File.Entry){
+            attr = ((javaxt.io.File.Entry) File).getFileAttributes();
+            if (attr!=null) lastAttrUpdate = ((javaxt.io.File.Entry) File).getTimestamp();
+            return;
+        }
+
+
         if (p.equals(toString())){
             this.file = File;
         }
@@ -311,75 +322,233 @@ public class Directory implements Comparable {
   //** Delete Directory
   //**************************************************************************
   /** Used to delete the directory. Returns true if the directory was
-   *  successfully deleted.
+   *  successfully deleted. Files and folders are deleted in parallel using
+   *  one thread per processor. See delete(int, DeleteCallback) for more info.
    */
     public boolean delete(){
+        if (!getFile().exists()) return false;
+        return delete(Runtime.getRuntime().availableProcessors(), null).length==0;
+    }
 
 
-      //Delete files and generate an ordered list of subfolders
-        TreeMap<Integer, HashSet<java.io.File>> paths = new TreeMap<>();
-        List files = getChildren(true, null, false);
-        Object obj;
-        while (true){
-            synchronized (files) {
-                while (files.isEmpty()) {
-                    try {
-                        files.wait();
-                    }
-                    catch (InterruptedException e) {
-                        break;
-                    }
-                }
-                obj = files.remove(0);
-                files.notifyAll();
+  //**************************************************************************
+  //** Delete Directory
+  //**************************************************************************
+  /** Used to delete the directory and everything in it. The directory tree
+   *  is traversed using a work-stealing thread pool. Files are deleted
+   *  concurrently and directories are deleted once all their children have
+   *  been removed. Symbolic links are deleted but never followed. Returns a
+   *  list of files and folders that could not be deleted. Folders that
+   *  could not be deleted because one of their children could not be
+   *  deleted are not included in the list.
+   *
+   *  @param numThreads Maximum number of threads used to delete files.
+   *
+   *  @param callback Optional callback used to track progress. Called after
+   *  each file or folder is deleted or fails to delete. Note that the
+   *  callback is called from one of the worker threads.
+   */
+    public String[] delete(int numThreads, DeleteCallback callback){
+
+        DeleteTask task = new DeleteTask(getFile().toPath(), new DeleteStatus(callback));
+        getDeletePool(numThreads).invoke(task);
+
+        attr = null;
+        java.util.Queue<String> failures = task.status.failures;
+        return failures.toArray(new String[failures.size()]);
+    }
+
+
+  //**************************************************************************
+  //** getDeletePool
+  //**************************************************************************
+  /** Returns a shared thread pool used to delete directories. Pools are
+   *  created once for each thread count and reused by subsequent calls.
+   */
+    private static java.util.concurrent.ForkJoinPool getDeletePool(int numThreads){
+        numThreads = Math.max(1, numThreads);
+        synchronized(deletePools){
+            java.util.concurrent.ForkJoinPool pool = deletePools.get(numThreads);
+            if (pool==null){
+                pool = new java.util.concurrent.ForkJoinPool(numThreads);
+                deletePools.put(numThreads, pool);
             }
+            return pool;
+        }
+    }
 
+    private static final HashMap<Integer, java.util.concurrent.ForkJoinPool> deletePools =
+        new HashMap<Integer, java.util.concurrent.ForkJoinPool>();
 
-            if (obj==null){ //file search is complete
-                break;
+
+  //**************************************************************************
+  //** DeleteCallback Interface
+  //**************************************************************************
+  /** Implementations of this class are used to track the progress of the
+   *  delete(int, DeleteCallback) method.
+   */
+    public static interface DeleteCallback {
+
+      /** @param path Path to the file or folder. Paths to folders end with
+       *  a path separator.
+       *  @param success True if the file or folder was deleted
+       *  @param numDeleted Total number of files and folders deleted so far
+       *  @param numFailed Total number of files and folders that could not
+       *  be deleted so far
+       */
+        public void call(String path, boolean success, long numDeleted, long numFailed);
+    }
+
+
+  //**************************************************************************
+  //** DeleteStatus Class
+  //**************************************************************************
+  /** Used to track the number of files and folders deleted by a DeleteTask.
+   */
+    private static class DeleteStatus {
+        private final DeleteCallback callback;
+        private final java.util.concurrent.atomic.AtomicLong numDeleted = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.concurrent.atomic.AtomicLong numFailed = new java.util.concurrent.atomic.AtomicLong();
+        private final java.util.Queue<String> failures = new java.util.concurrent.ConcurrentLinkedQueue<>();
+
+        public DeleteStatus(DeleteCallback callback){
+            this.callback = callback;
+        }
+
+        public boolean delete(Path path, boolean isDirectory){
+            boolean success;
+            try{
+                Files.delete(path);
+                success = true;
+            }
+            catch(IOException e){
+                success = false;
+            }
+
+            String str = path.toString();
+            if (isDirectory && !str.endsWith(PathSeparator)) str += PathSeparator;
+            long deleted, failed;
+            if (success){
+                deleted = numDeleted.incrementAndGet();
+                failed = numFailed.get();
             }
             else{
-                if (obj instanceof javaxt.io.File){
-                    javaxt.io.File f = (javaxt.io.File) obj;
-                    f.delete();
-                }
-                else{
-                    javaxt.io.Directory dir = (javaxt.io.Directory) obj;
+                failures.add(str);
+                deleted = numDeleted.get();
+                failed = numFailed.incrementAndGet();
+            }
+            if (callback!=null) callback.call(str, success, deleted, failed);
+            return success;
+        }
+    }
 
-                    int numFolders = 0;
-                    javaxt.io.Directory d = dir.clone();
-                    while (!d.equals(this)){
-                        d = d.getParentDirectory();
-                        numFolders++;
-                    }
 
+  //**************************************************************************
+  //** DeleteTask Class
+  //**************************************************************************
+  /** Used to delete a directory. Subdirectories and large groups of files
+   *  are processed in parallel via the ForkJoinPool. Returns true if the
+   *  directory was deleted.
+   */
+    private static class DeleteTask extends java.util.concurrent.RecursiveTask<Boolean> {
+
+        private static final long serialVersionUID = 1;
+        private static final int BATCH_SIZE = 256;
+        private final Path dir;
+        private final DeleteStatus status;
+
+        public DeleteTask(Path dir, DeleteStatus status){
+            this.dir = dir;
+            this.status = status;
+        }
+
+        protected Boolean compute(){
+
+          //List files and folders. Note that symbolic links to directories
+          //are treated like files so we don't delete anything outside of the
+          //directory.
+            ArrayList<Path> files = new ArrayList<>();
+            ArrayList<DeleteTask> tasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+                for (Path p : stream){
+                    boolean isDirectory;
+                    try{
+                        isDirectory = Files.readAttributes(p, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS).isDirectory();
+                    }
+                    catch(IOException e){
+                        isDirectory = false;
+                    }
 
-                    HashSet<java.io.File> set = paths.get(numFolders);
-                    if (set==null){
-                        set = new HashSet<>();
-                        paths.put(numFolders, set);
+                    if (isDirectory){
+                        DeleteTask task = new DeleteTask(p, status);
+                        task.fork();
+                        tasks.add(task);
+                    }
+                    else{
+                        files.add(p);
                     }
-                    set.add(dir.toFile());
                 }
             }
-        }
+            catch(IOException | RuntimeException e){
+                if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) return true;
+                status.delete(dir, true);
+                return false;
+            }
+
+
+          //Delete files
+            boolean success = new DeleteFiles(files, 0, files.size(), status).invoke();
 
 
-      //Delete subfolders
-        for (Integer numFolders : paths.descendingKeySet()){
-            for (java.io.File d : paths.get(numFolders)){
-                d.delete();
+          //Wait for subdirectories to be deleted
+            for (DeleteTask task : tasks){
+                if (!task.join()) success = false;
             }
+
+
+          //Delete the directory
+            if (!success) return false;
+            return status.delete(dir, true);
         }
+    }
 
 
+  //**************************************************************************
+  //** DeleteFiles Class
+  //**************************************************************************
+  /** Used to delete a list of files. Large lists are split and deleted in
+   *  parallel.
+   */
+    private static class DeleteFiles extends java.util.concurrent.RecursiveTask<Boolean> {
+
+        private static final long serialVersionUID = 1;
+        private final List<Path> files;
+        private final int start;
+        private final int end;
+        private final DeleteStatus status;
+
+        public DeleteFiles(List<Path> files, int start, int end, DeleteStatus status){
+            this.files = files;
+            this.start = start;
+            this.end = end;
+            this.status = status;
+        }
+
+        protected Boolean compute(){
+            if (end-start>DeleteTask.BATCH_SIZE){
+                int mid = (start+end)>>>1;
+                DeleteFiles left = new DeleteFiles(files, start, mid, status);
+                left.fork();
+                boolean success = new DeleteFiles(files, mid, end, status).compute();
+                return left.join() && success;
+            }
 
-        if (getFile().delete()){
-            attr = null;
-            return true;
-        }
-        else{
-            return false;
+            boolean success = true;
+            for (int i=start; i<end; i++){
+                if (!status.delete(files.get(i), false)) success = false;
+            }
+            return success;
         }
     }
 
@@ -412,16 +581,72 @@ public class Directory implements Comparable {
    *  @param Overwrite If true, overwrites any existing files/directories
    */
     public String[] copyTo(Directory Destination, Object filter, boolean Overwrite){
+        return copyTo(Destination, filter, Overwrite, new CopyOptions());
+    }
 
-        int source = toString().length();
-        String destination = Destination.toString();
-        java.util.ArrayList<String> failures = new java.util.ArrayList<String>();
+
+  //**************************************************************************
+  //** Copy To
+  //**************************************************************************
+  /** Used to copy a directory to another directory. Files are copied
+   *  concurrently using a bounded pool of threads as they are found by the
+   *  recursive directory search. Preserves the last modified date associated
+   *  with the source files. Returns a list of any files that failed to copy.
+   *
+   *  @param filter A file filter. You can pass in a java.io.FileFilter, a
+   *  String (e.g. "*.txt"), or an array of Strings (e.g. String[]{"*.txt", "*.doc"}).
+   *  Wildcard filters are supported. Note that the filter is only applied to
+   *  files, not directories.
+   *
+   *  @param Overwrite If true, overwrites any existing files/directories
+   *
+   *  @param options Used to specify the number of threads, an optional
+   *  bandwidth limit, and an optional progress callback.
+   */
+    public String[] copyTo(Directory Destination, Object filter, boolean Overwrite, CopyOptions options){
+
+        if (options==null) options = new CopyOptions();
+        final int source = toString().length();
+        final String destination = Destination.toString();
+        final java.util.List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        final File.Throttle throttle = options.getMaxBytesPerSecond()>0 ?
+            new File.Throttle(options.getMaxBytesPerSecond()) : null;
+        final CopyOptions.Callback callback = options.getCallback();
+        final boolean overwrite = Overwrite;
+        final long[] totals = new long[2]; //files, bytes
 
 
       //Create new folder
         if (!Destination.exists()) Destination.create();
 
 
+      //Create thread pool used to copy files. The pool size is capped so the
+      //directory search doesn't get too far ahead of the copy.
+        int numThreads = options.getNumThreads();
+        javaxt.utils.ThreadPool pool = new javaxt.utils.ThreadPool(numThreads, numThreads*10){
+            public void process(Object obj){
+                javaxt.io.File file = (javaxt.io.File) obj;
+                String FilePath = file.toString();
+                File out = new File(destination + FilePath.substring(source));
+
+                boolean success = file.copyTo(out, overwrite, throttle);
+                if (!success) failures.add(FilePath);
+
+                if (callback!=null){
+                    long numFiles, numBytes;
+                    synchronized(totals){
+                        if (success){
+                            totals[0]++;
+                            totals[1]+=out.getSize();
+                        }
+                        numFiles = totals[0];
+                        numBytes = totals[1];
+                    }
+                    callback.call(file, out, success, numFiles, numBytes);
+                }
+            }
+        }.start();
+
 
       //Initiate search
         java.util.List results = this.getChildren(true, filter, false);
@@ -430,7 +655,6 @@ public class Directory implements Comparable {
             Object item;
             synchronized (results) {
 
-
               //Wait for files/directories to be added to the list
                 while (results.isEmpty()) {
                     try {
@@ -441,40 +665,336 @@ public class Directory implements Comparable {
                     }
                 }
 
-              //Grab the next available file/directory from the list. Note that
-              //we are INSIDE the synchronized block! This forces the directory
-              //search to insert only one record at a time. The primary motivation
-              //for this is to ensure that we don't run out of memory when
-              //copying a large number of files/directories.
-                item = results.get(0);
-                if (item!=null){
+                item = results.isEmpty() ? null : results.remove(0);
+                results.notifyAll();
+            }
+
+            if (item==null) break;
+
+            if (item instanceof javaxt.io.File){
+                pool.add(item);
+            }
+            else{
+                javaxt.io.Directory dir = (javaxt.io.Directory) item;
+                new Directory(destination + dir.toString().substring(source)).create();
+            }
+        }
+
 
-                    if (item instanceof javaxt.io.File){
+      //Wait for the copy to complete
+        pool.done();
+        try{
+            pool.join();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
 
-                        javaxt.io.File file = (javaxt.io.File) item;
-                        String FilePath = file.toString();
-                        File out = new File(destination + FilePath.substring(source));
 
-                        boolean success = file.copyTo(out, Overwrite);
-                        if (!success) failures.add(FilePath);
+      //Return list of failed copies
+        return failures.toArray(new String[failures.size()]);
+    }
+
+
+  //**************************************************************************
+  //** Sync To
+  //**************************************************************************
+  /** Used to mirror this directory to another directory. Unlike the copyTo()
+   *  method, only files that are missing or have changed are copied. Files
+   *  are compared by size and last modified date (to the nearest second).
+   *  Checksums can also be compared (see SyncOptions). Changed files are
+   *  copied concurrently and their last modified dates are preserved. Files
+   *  are copied to a temp file and renamed so an interrupted sync won't
+   *  leave partial files behind. Optionally, files and folders in the
+   *  destination that are not found in the source can be deleted. Returns a
+   *  report with the number of files and bytes transferred. Example:
+   <pre>
+    Directory.SyncOptions options = new Directory.SyncOptions();
+    options.setDelete(true);
+    Directory.SyncReport report = source.syncTo(destination, options);
+    System.out.println(report);
+   </pre>
+   *  @param options Used to specify a file filter, whether to delete
+   *  extraneous files, whether to compare checksums, and any of the copy
+   *  options (number of threads, bandwidth limit, progress callback). The
+   *  callback is called for every file that is copied or unchanged.
+   *  Optional.
+   */
+    public SyncReport syncTo(Directory Destination, SyncOptions options){
+
+        if (options==null) options = new SyncOptions();
+        final SyncReport report = new SyncReport();
+        final FileFilter filter = new FileFilter(options.getFilter());
+        filter.setRoot(this);
+        final boolean delete = options.getDelete();
+        final boolean checksum = options.getChecksum();
+        final File.Throttle throttle = options.getMaxBytesPerSecond()>0 ?
+            new File.Throttle(options.getMaxBytesPerSecond()) : null;
+        final CopyOptions.Callback callback = options.getCallback();
+        long startTime = System.currentTimeMillis();
+
+
+      //Create thread pool used to copy files
+        int numThreads = options.getNumThreads();
+        javaxt.utils.ThreadPool pool = new javaxt.utils.ThreadPool(numThreads, numThreads*10){
+            public void process(Object obj){
+                Object[] arr = (Object[]) obj;
+                File file = (File) arr[0];
+                File out = (File) arr[1];
+                boolean compareChecksums = (Boolean) arr[2];
+
+
+              //If the files are the same size, compare checksums before
+              //copying. Update the date of the destination file so we
+              //don't have to compare checksums next time.
+                if (compareChecksums){
+                    try{
+                        if (file.getHashes("MD5").equals(out.getHashes("MD5"))){
+                            out.toFile().setLastModified(file.getDate().getTime());
+                            long[] totals = report.skip(file.getSize());
+                            if (callback!=null){
+                                callback.call(file, out, true, totals[0], totals[1]);
+                            }
+                            return;
+                        }
                     }
-                    else{
-                        javaxt.io.Directory dir = (javaxt.io.Directory) item;
-                        new Directory(destination + dir.toString().substring(source)).create();
+                    catch(Exception e){
                     }
+                }
 
+
+              //Copy file
+                long size = file.getSize();
+                boolean success = copyFile(file, out, throttle);
+                long[] totals = success ? report.copy(size) : report.fail(file.toString());
+                if (callback!=null){
+                    callback.call(file, out, success, totals[0], totals[1]);
+                }
+            }
+        }.start();
+
+
+      //Walk the source and destination directories. Directories are
+      //processed depth-first so we can update the directory dates in the
+      //destination after all the files have been copied.
+        ArrayList<Path[]> dirs = new ArrayList<>();
+        LinkedList<Path[]> stack = new LinkedList<>();
+        stack.add(new Path[]{getFile().toPath(), Destination.toFile().toPath()});
+        while (!stack.isEmpty()){
+            Path[] pair = stack.removeLast();
+            Path src = pair[0];
+            Path dst = pair[1];
+            dirs.add(pair);
+
+
+          //List files and folders in the source and destination
+            TreeMap<String, BasicFileAttributes> srcItems = list(src);
+            TreeMap<String, BasicFileAttributes> dstItems = list(dst);
+            if (srcItems==null){
+                report.fail(src.toString());
+                continue;
+            }
+            if (dstItems==null){
+                try{
+                    Files.createDirectories(dst);
+                    report.create();
+                    dstItems = new TreeMap<>();
+                }
+                catch(Exception e){
+                    report.fail(dst.toString());
+                    continue;
+                }
+            }
+
+
+          //Compare entries
+            for (Map.Entry<String, BasicFileAttributes> entry : srcItems.entrySet()){
+                String name = entry.getKey();
+                BasicFileAttributes attrs = entry.getValue();
+                BasicFileAttributes dstAttrs = dstItems.remove(name);
+                Path srcPath = src.resolve(name);
+                Path dstPath = dst.resolve(name);
+
+                if (attrs.isDirectory()){
+                    if (!filter.accept(srcPath.toString() + "/")){
+                        if (dstAttrs!=null) dstItems.put(name, dstAttrs); //don't delete
+                        continue;
+                    }
+                    if (dstAttrs!=null && !dstAttrs.isDirectory()){
+                        if (!delete || !deletePath(dstPath, false, report)){
+                            report.fail(srcPath.toString());
+                            continue;
+                        }
+                    }
+                    stack.add(new Path[]{srcPath, dstPath});
                 }
                 else{
-                    break;
+
+                    if (!filter.accept(srcPath.toString())){
+                        if (dstAttrs!=null) dstItems.put(name, dstAttrs); //don't delete
+                        continue;
+                    }
+
+                    if (dstAttrs!=null && dstAttrs.isDirectory()){
+                        if (!delete || !deletePath(dstPath, true, report)){
+                            report.fail(srcPath.toString());
+                            continue;
+                        }
+                        dstAttrs = null;
+                    }
+
+                    boolean compareChecksums = false;
+                    if (dstAttrs!=null && dstAttrs.size()==attrs.size()){
+                        if (checksum){
+                            compareChecksums = true;
+                        }
+                        else if (dstAttrs.lastModifiedTime().toMillis()/1000 ==
+                                 attrs.lastModifiedTime().toMillis()/1000){
+                            long[] totals = report.skip(attrs.size());
+                            if (callback!=null){
+                                callback.call(new File(new File.Entry(srcPath, attrs)),
+                                new File(dstPath.toString()), true, totals[0], totals[1]);
+                            }
+                            continue;
+                        }
+                    }
+
+                    pool.add(new Object[]{
+                        new File(new File.Entry(srcPath, attrs)),
+                        new File(dstPath.toString()),
+                        compareChecksums
+                    });
                 }
+            }
 
-                results.remove(0);
-                results.notifyAll();
+
+          //Delete extraneous files and folders in the destination. Note that
+          //files that are excluded by the filter are not deleted.
+            if (delete){
+                for (Map.Entry<String, BasicFileAttributes> entry : dstItems.entrySet()){
+                    String name = entry.getKey();
+                    boolean isDirectory = entry.getValue().isDirectory();
+                    String srcPath = src.resolve(name).toString();
+                    if (!filter.accept(isDirectory ? srcPath + "/" : srcPath)) continue;
+                    deletePath(dst.resolve(name), isDirectory, report);
+                }
             }
         }
 
-      //Return list of failed copies
-        return failures.toArray(new String[failures.size()]);
+
+      //Wait for the copy to complete
+        pool.done();
+        try{
+            pool.join();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+
+      //Update dates of the directories in the destination, starting with the
+      //deepest folders
+        for (int i=dirs.size()-1; i>-1; i--){
+            Path[] pair = dirs.get(i);
+            try{
+                Files.setLastModifiedTime(pair[1], Files.getLastModifiedTime(pair[0]));
+            }
+            catch(Exception e){
+            }
+        }
+
+        Destination.attr = null;
+        report.elapsedTime = System.currentTimeMillis()-startTime;
+        return report;
+    }
+
+
+  //**************************************************************************
+  //** copyFile
+  //**************************************************************************
+  /** Used by the syncTo() method to copy a file. The file is copied to a
+   *  temp file in the destination folder first and then renamed so an
+   *  interrupted sync never leaves a truncated file in the destination.
+   */
+    private static boolean copyFile(File file, File out, File.Throttle throttle){
+        java.io.File dst = out.toFile();
+        java.io.File tmp = null;
+        try{
+            dst.getParentFile().mkdirs();
+            tmp = java.io.File.createTempFile("." + dst.getName() + "-", ".tmp", dst.getParentFile());
+            if (!file.copyTo(new File(tmp), true, throttle)){
+                tmp.delete();
+                return false;
+            }
+            try{
+                Files.move(tmp.toPath(), dst.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch(IOException e){
+                Files.move(tmp.toPath(), dst.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        }
+        catch(Exception e){
+            if (tmp!=null) tmp.delete();
+            return false;
+        }
+    }
+
+
+  //**************************************************************************
+  //** list
+  //**************************************************************************
+  /** Returns a sorted list of files and folders in a directory, along with
+   *  their attributes. Symbolic links to files are resolved. Links to
+   *  directories are skipped. Returns null if the directory does not exist.
+   */
+    private static TreeMap<String, BasicFileAttributes> list(Path dir){
+        TreeMap<String, BasicFileAttributes> items = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+            for (Path p : stream){
+                try{
+                    BasicFileAttributes attrs = Files.readAttributes(p,
+                    BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isSymbolicLink()){
+                        attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                        if (attrs.isDirectory()) continue;
+                    }
+                    items.put(p.getFileName().toString(), attrs);
+                }
+                catch(IOException e){
+                  //file was deleted or is a broken link
+                }
+            }
+        }
+        catch(Exception e){
+            return null;
+        }
+        return items;
+    }
+
+
+  //**************************************************************************
+  //** deletePath
+  //**************************************************************************
+  /** Used by the syncTo() method to delete a file or folder.
+   */
+    private static boolean deletePath(Path path, boolean isDirectory, SyncReport report){
+        boolean deleted;
+        if (isDirectory){
+            deleted = new Directory(path.toFile()).delete();
+        }
+        else{
+            try{
+                Files.delete(path);
+                deleted = true;
+            }
+            catch(Exception e){
+                deleted = false;
+            }
+        }
+        if (deleted) report.delete();
+        else report.fail(path.toString());
+        return deleted;
     }
 
 
@@ -612,52 +1132,473 @@ public class Directory implements Comparable {
   //**************************************************************************
   //** getSize
   //**************************************************************************
-  /** Returns the total size of all the files and folders found in this
-   *  directory, in bytes.
+  /** Returns the total size of all the files found in this directory and
+   *  any subdirectories, in bytes. The directory tree is walked in parallel
+   *  and file sizes are taken from the attributes returned with each
+   *  directory listing. Note that symbolic links to directories are not
+   *  followed.
    */
     public long getSize(){
+        return getSize(false);
+    }
 
-        long size = 0L;
 
-      //Initiate search
-        java.util.List results = getChildren(true, null, false);
+  //**************************************************************************
+  //** getSize
+  //**************************************************************************
+  /** Returns the total size of all the files found in this directory and
+   *  any subdirectories, in bytes.
+   *  @param useCache If true, will cache the size of each subdirectory. On
+   *  subsequent calls, only directories whose last modified date has changed
+   *  are listed again. Directories that haven't changed are still checked
+   *  (one stat per directory) but their files are not. Note that updating
+   *  the contents of an existing file does not change the last modified date
+   *  of the parent directory so changes in file size may be missed until a
+   *  file is added, removed, or renamed in the same directory. Call
+   *  getSize(false) to force a full scan and refresh the cache. The cache
+   *  is shared by all instances of this class and is limited to a total of
+   *  100,000 directories. When the limit is reached, the least recently used
+   *  directory trees are removed. See clearSizeCache().
+   */
+    public long getSize(boolean useCache){
+        if (!exists()) return 0L;
+
+        String key = toString();
+        SizeNode node;
+        synchronized(sizeCache){
+            node = sizeCache.get(key);
+        }
+        node = getSizePool().invoke(new SizeTask(getFile().toPath(), node, useCache));
+        synchronized(sizeCache){
+            SizeNode prev = sizeCache.remove(key);
+            if (prev!=null) sizeCacheCount-=prev.count;
+            if ((useCache || prev!=null) && node.count<=MAX_SIZE_CACHE){
+                sizeCache.put(key, node);
+                sizeCacheCount+=node.count;
+
+              //Remove least recently used directory trees
+                Iterator<SizeNode> it = sizeCache.values().iterator();
+                while (sizeCacheCount>MAX_SIZE_CACHE && it.hasNext()){
+                    sizeCacheCount-=it.next().count;
+                    it.remove();
+                }
+            }
+        }
+        return node.total;
+    }
 
-        while (true){
-            Object item;
-            synchronized (results) {
-                while (results.isEmpty()) {
-                  try {
-                      results.wait();
-                  }
-                  catch (InterruptedException e) {
-                      break;
-                  }
+
+  //**************************************************************************
+  //** clearSizeCache
+  //**************************************************************************
+  /** Used to remove all the directory sizes cached by getSize(true).
+   */
+    public static void clearSizeCache(){
+        synchronized(sizeCache){
+            sizeCache.clear();
+            sizeCacheCount = 0;
+        }
+    }
+
+    private static final int MAX_SIZE_CACHE = 100000; //max number of directories
+    private static final LinkedHashMap<String, SizeNode> sizeCache =
+        new LinkedHashMap<String, SizeNode>(16, 0.75f, true); //access order
+    private static long sizeCacheCount = 0;
+    private static java.util.concurrent.ForkJoinPool sizePool;
+
+    private static synchronized java.util.concurrent.ForkJoinPool getSizePool(){
+        if (sizePool==null){
+            sizePool = new java.util.concurrent.ForkJoinPool(
+                Math.max(4, Runtime.getRuntime().availableProcessors()*2));
+        }
+        return sizePool;
+    }
+
+
+  //**************************************************************************
+  //** SizeNode Class
+  //**************************************************************************
+  /** Used to cache the size of a directory. Records the last modified date
+   *  of the directory, the total size of the files found directly in the
+   *  directory, the number of directories in the tree, and a node for each
+   *  subdirectory.
+   */
+    private static class SizeNode {
+        private long lastModified;
+        private long fileSize;
+        private long total;
+        private long count = 1;
+        private HashMap<String, SizeNode> children = new HashMap<>();
+    }
+
+
+  //**************************************************************************
+  //** SizeTask Class
+  //**************************************************************************
+  /** Used to compute the size of a directory. Subdirectories are processed
+   *  in parallel via the ForkJoinPool.
+   */
+    private static class SizeTask extends java.util.concurrent.RecursiveTask<SizeNode> {
+
+        private static final long serialVersionUID = 1;
+        private final Path dir;
+        private final SizeNode cache;
+        private final boolean useCache;
+
+        public SizeTask(Path dir, SizeNode cache, boolean useCache){
+            this.dir = dir;
+            this.cache = cache;
+            this.useCache = useCache;
+        }
+
+        protected SizeNode compute(){
+
+            SizeNode node = new SizeNode();
+            HashMap<String, Path> subdirs = new HashMap<>();
+
+            try{
+
+              //Get the last modified date of the directory. Note that we do
+              //this before listing the directory so that any changes made
+              //during the listing will be picked up on the next call.
+                node.lastModified = Files.readAttributes(dir, BasicFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS).lastModifiedTime().toMillis();
+
+                if (useCache && cache!=null && cache.lastModified==node.lastModified){
+
+                  //Directory hasn't changed. Reuse the file sizes and list of
+                  //subdirectories from the cache.
+                    node.fileSize = cache.fileSize;
+                    for (String name : cache.children.keySet()){
+                        subdirs.put(name, dir.resolve(name));
+                    }
                 }
-                item = results.remove(0);
-                results.notifyAll();
+                else{
+
+                  //List the directory and sum up file sizes
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+                        for (Path p : stream){
+                            try{
+                                BasicFileAttributes attrs = Files.readAttributes(p,
+                                BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                                if (attrs.isDirectory()){
+                                    subdirs.put(p.getFileName().toString(), p);
+                                }
+                                else{
+                                    if (attrs.isSymbolicLink()){
+                                        attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                                        if (attrs.isDirectory()) continue;
+                                    }
+                                    node.fileSize += attrs.size();
+                                }
+                            }
+                            catch(IOException e){
+                              //file was deleted or is a broken link
+                            }
+                        }
+                    }
+                }
+            }
+            catch(Exception e){
+              //directory was deleted or is not readable
+                return node;
+            }
+
+
+          //Process subdirectories
+            ArrayList<SizeTask> tasks = new ArrayList<>();
+            ArrayList<String> names = new ArrayList<>();
+            for (Map.Entry<String, Path> entry : subdirs.entrySet()){
+                String name = entry.getKey();
+                SizeNode child = cache==null ? null : cache.children.get(name);
+                SizeTask task = new SizeTask(entry.getValue(), child, useCache);
+                task.fork();
+                tasks.add(task);
+                names.add(name);
+            }
+
+            node.total = node.fileSize;
+            for (int i=0; i<tasks.size(); i++){
+                SizeNode child = tasks.get(i).join();
+                node.children.put(names.get(i), child);
+                node.total += child.total;
+                node.count += child.count;
+            }
+
+            return node;
+        }
+    }
+
+
+  //**************************************************************************
+  //** IndexNode Class
+  //**************************************************************************
+  /** Used to represent a directory in an index used by the FileSystemWatcher.
+   *  Entries are sorted by name. The children array contains an IndexNode for
+   *  each subdirectory and null for files.
+   */
+    private static class IndexNode {
+        private long lastModified;
+        private String[] names = new String[0];
+        private long[] sizes = new long[0];
+        private long[] dates = new long[0];
+        private IndexNode[] children = new IndexNode[0];
+
+        private int size(){
+            return names.length;
+        }
+
+        private boolean isDirectory(int i){
+            return children[i]!=null;
+        }
+
+
+      //************************************************************************
+      //** write
+      //************************************************************************
+      /** Used to write the node and all of its subdirectories to a stream.
+       *  Nodes are written depth-first in sorted order.
+       */
+        private void write(java.io.DataOutputStream out) throws IOException {
+            out.writeLong(lastModified);
+            out.writeInt(names.length);
+            for (int i=0; i<names.length; i++){
+                out.writeUTF(names[i]);
+                out.writeBoolean(children[i]!=null);
+                out.writeLong(sizes[i]);
+                out.writeLong(dates[i]);
             }
+            for (IndexNode child : children){
+                if (child!=null) child.write(out);
+            }
+        }
+
+
+      //************************************************************************
+      //** read
+      //************************************************************************
+        private static IndexNode read(java.io.DataInputStream in) throws IOException {
+            IndexNode node = new IndexNode();
+            node.lastModified = in.readLong();
+            int n = in.readInt();
+            node.names = new String[n];
+            node.sizes = new long[n];
+            node.dates = new long[n];
+            node.children = new IndexNode[n];
+            boolean[] isDir = new boolean[n];
+            for (int i=0; i<n; i++){
+                node.names[i] = in.readUTF();
+                isDir[i] = in.readBoolean();
+                node.sizes[i] = in.readLong();
+                node.dates[i] = in.readLong();
+            }
+            for (int i=0; i<n; i++){
+                if (isDir[i]) node.children[i] = read(in);
+            }
+            return node;
+        }
+
+
+      //************************************************************************
+      //** addEvents
+      //************************************************************************
+      /** Used to generate events for every item in the node.
+       */
+        private void addEvents(String action, Path dir, java.util.Queue<Event> events){
+            for (int i=0; i<names.length; i++){
+                Path p = dir.resolve(names[i]);
+                if (children[i]!=null){
+                    if (action.equals("Delete")){
+                        children[i].addEvents(action, p, events);
+                        events.add(new Event(action, p.toString()));
+                    }
+                    else{
+                        events.add(new Event(action, p.toString()));
+                        children[i].addEvents(action, p, events);
+                    }
+                }
+                else{
+                    events.add(new Event(action, p.toString()));
+                }
+            }
+        }
+    }
+
+
+  //**************************************************************************
+  //** IndexTask Class
+  //**************************************************************************
+  /** Used to scan a directory and compare it to a previous index. Generates
+   *  Create, Delete, and Modify events for any changes. Subdirectories are
+   *  processed in parallel via the ForkJoinPool. If the last modified date of
+   *  a directory hasn't changed, the directory is not listed and the entries
+   *  from the previous index are reused. When checkFiles is true, the size
+   *  and date of every file is checked, even in unchanged directories.
+   */
+    private static class IndexTask extends java.util.concurrent.RecursiveTask<IndexNode> {
+
+        private static final long serialVersionUID = 1;
+        private final Path dir;
+        private final IndexNode org;
+        private final boolean checkFiles;
+        private final java.util.Queue<Event> events;
+
+        public IndexTask(Path dir, IndexNode org, boolean checkFiles, java.util.Queue<Event> events){
+            this.dir = dir;
+            this.org = org;
+            this.checkFiles = checkFiles;
+            this.events = events;
+        }
+
+        protected IndexNode compute(){
+
+            IndexNode node = new IndexNode();
+            try{
+                node.lastModified = Files.readAttributes(dir, BasicFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS).lastModifiedTime().toMillis();
+            }
+            catch(Exception e){
+              //directory was deleted or is not readable
+                node.lastModified = Long.MIN_VALUE;
+                return node;
+            }
+
+
+            boolean[] isDir;
+            IndexNode[] orgChildren;
+            if (org!=null && org.lastModified==node.lastModified){
+
+              //Directory hasn't changed. Reuse entries from the previous index.
+                int n = org.size();
+                node.names = org.names;
+                node.sizes = org.sizes.clone();
+                node.dates = org.dates.clone();
+                node.children = new IndexNode[n];
+                isDir = new boolean[n];
+                orgChildren = org.children;
+                for (int i=0; i<n; i++){
+                    isDir[i] = org.isDirectory(i);
+                    if (isDir[i] || !checkFiles) continue;
+                    Path p = dir.resolve(node.names[i]);
+                    try{
+                        BasicFileAttributes attrs = Files.readAttributes(p,
+                        BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        long size = attrs.size();
+                        long date = attrs.lastModifiedTime().toMillis();
+                        if (size!=node.sizes[i] || date!=node.dates[i]){
+                            node.sizes[i] = size;
+                            node.dates[i] = date;
+                            addEvent("Modify", p);
+                        }
+                    }
+                    catch(IOException e){
+                      //file was deleted after the directory was checked
+                    }
+                }
+            }
+            else{
 
-            if (item!=null){ //Do something with the item.
+              //List the directory
+                TreeMap<String, BasicFileAttributes> entries = new TreeMap<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+                    for (Path p : stream){
+                        try{
+                            entries.put(p.getFileName().toString(), Files.readAttributes(p,
+                            BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+                        }
+                        catch(IOException e){
+                          //file was deleted or is not readable
+                        }
+                    }
+                }
+                catch(Exception e){
+                  //directory was deleted or is not readable
+                    node.lastModified = Long.MIN_VALUE;
+                }
 
-                if (item instanceof javaxt.io.File){
-                    javaxt.io.File file = (javaxt.io.File) item;
-                    size += file.getSize();
+                int n = entries.size();
+                node.names = new String[n];
+                node.sizes = new long[n];
+                node.dates = new long[n];
+                node.children = new IndexNode[n];
+                isDir = new boolean[n];
+                orgChildren = new IndexNode[n];
+                int i = 0;
+                for (Map.Entry<String, BasicFileAttributes> entry : entries.entrySet()){
+                    BasicFileAttributes attrs = entry.getValue();
+                    node.names[i] = entry.getKey();
+                    node.sizes[i] = attrs.size();
+                    node.dates[i] = attrs.lastModifiedTime().toMillis();
+                    isDir[i] = attrs.isDirectory();
+                    i++;
                 }
-                else{
-                    javaxt.io.Directory dir = (javaxt.io.Directory) item;
-                    try{
-                        //size += dir.getFileAttributes().getSize();
+
+
+              //Compare entries to the previous index. Both lists are sorted so
+              //we can simply walk through them.
+                int x = 0, y = 0;
+                int m = org==null ? 0 : org.size();
+                while (x<n || y<m){
+                    int c;
+                    if (x>=n) c = 1;
+                    else if (y>=m) c = -1;
+                    else c = node.names[x].compareTo(org.names[y]);
+
+                    if (c<0){
+                        addEvent("Create", dir.resolve(node.names[x]));
+                        x++;
                     }
-                    catch(Exception e){
+                    else if (c>0){
+                        addDeleteEvents(org, y);
+                        y++;
+                    }
+                    else{
+                        if (isDir[x]!=org.isDirectory(y)){
+                            addDeleteEvents(org, y);
+                            addEvent("Create", dir.resolve(node.names[x]));
+                        }
+                        else if (isDir[x]){
+                            orgChildren[x] = org.children[y];
+                        }
+                        else if (node.sizes[x]!=org.sizes[y] || node.dates[x]!=org.dates[y]){
+                            addEvent("Modify", dir.resolve(node.names[x]));
+                        }
+                        x++;
+                        y++;
                     }
                 }
             }
-            else{ //item is null. This is our queue that the search is done!
-                return size;
+
+
+          //Process subdirectories. New directories are scanned without a
+          //previous index so that a Create event is generated for every item.
+            ArrayList<IndexTask> tasks = new ArrayList<>();
+            ArrayList<Integer> idx = new ArrayList<>();
+            for (int i=0; i<node.size(); i++){
+                if (!isDir[i]) continue;
+                IndexTask task = new IndexTask(dir.resolve(node.names[i]), orgChildren[i], checkFiles, events);
+                task.fork();
+                tasks.add(task);
+                idx.add(i);
+            }
+            for (int i=0; i<tasks.size(); i++){
+                node.children[idx.get(i)] = tasks.get(i).join();
             }
+
+            return node;
         }
-    }
 
+        private void addEvent(String action, Path path){
+            if (events!=null) events.add(new Event(action, path.toString()));
+        }
+
+        private void addDeleteEvents(IndexNode org, int i){
+            if (events==null) return;
+            Path p = dir.resolve(org.names[i]);
+            if (org.isDirectory(i)) org.children[i].addEvents("Delete", p, events);
+            events.add(new Event("Delete", p.toString()));
+        }
+    }
 
 
   //**************************************************************************
@@ -775,18 +1716,17 @@ public class Directory implements Comparable {
   //** getFileAttributes
   //**************************************************************************
   /** Returns file attributes such as when the file was first created and when
-   *  it was last accessed. File attributes are cached for up to one second.
-   *  This provides users the ability to retrieve multiple attributes at once.
-   *  Without caching, we would have to ping the file system every time we call
-   *  getLastAccessTime(), getLastAccessTime(), getLastWriteTime(), etc. The
-   *  cached attributes are automatically updated when the file is updated or
-   *  deleted by this class.
+   *  it was last accessed. By default, the attributes are read every time
+   *  this method is called. Use setAttributeTTL to cache the attributes so
+   *  we don't have to ping the file system every time we call
+   *  getLastAccessTime(), getLastWriteTime(), etc. The cached attributes are
+   *  automatically updated when the file is updated or deleted by this class.
    */
     public File.FileAttributes getFileAttributes() throws java.io.FileNotFoundException {
 
         if (attr==null) lastAttrUpdate = 0;
 
-        if (attr==null || (new java.util.Date().getTime()-lastAttrUpdate)>1000){
+        if (attr==null || (attrTTL>=0 && (System.currentTimeMillis()-lastAttrUpdate)>=attrTTL)){
             try{
               //Get directory attributes
                 String pathToFile = toString();
@@ -794,7 +1734,7 @@ public class Directory implements Comparable {
                 if (!attr.isDirectory()) throw new java.io.FileNotFoundException(pathToFile);
 
               //Set lastUpdate (used to cache file attributes)
-                lastAttrUpdate = new java.util.Date().getTime();
+                lastAttrUpdate = System.currentTimeMillis();
             }
             catch(java.io.FileNotFoundException e){
                 attr = null;
@@ -809,6 +1749,19 @@ public class Directory implements Comparable {
     }
 
 
+  //**************************************************************************
+  //** setAttributeTTL
+  //**************************************************************************
+  /** Used to specify how long directory attributes are cached.
+   *  @param milliseconds Number of milliseconds to cache attributes. Default
+   *  is 0 (no caching). A negative value will cache the attributes until the
+   *  directory is updated by this class.
+   */
+    public void setAttributeTTL(long milliseconds){
+        attrTTL = milliseconds;
+    }
+
+
   //**************************************************************************
   //** getParentDirectory
   //**************************************************************************
@@ -1201,8 +2154,10 @@ public class Directory implements Comparable {
                 List items = new LinkedList();
 
 
-              //Create a file filter
+              //Create a file filter. Note that the filter is used to prune
+              //directories that can't contain any matches.
                 FileFilter fileFilter = new FileFilter(filter);
+                fileFilter.setRoot(this);
 
 
               //Spawn threads used to crawl through the file system
@@ -1433,6 +2388,7 @@ public class Directory implements Comparable {
         FileFilter fileFilter;
         if (filter instanceof FileFilter) fileFilter = (FileFilter) filter;
         else fileFilter = new FileFilter(filter);
+        if (!fileFilter.hasRoot()) fileFilter.setRoot(this);
 
 
         String path = this.path + name;
@@ -1496,12 +2452,14 @@ public class Directory implements Comparable {
 
         }
         else { //UNIX
-            java.io.File dir = getFile();
-            java.io.File[] list = dir.listFiles();
-            if (list!=null){
 
-                for (int i=0; i<list.length; i++){
-                    java.io.File file = list[i];
+          //Use a DirectoryStream to list files and read the file attributes
+          //for each entry as we go. The attributes are cached in the entries
+          //so we don't have to hit the file system again to check whether an
+          //entry is a directory, get the file size, etc.
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(getFile().toPath())){
+                for (Path p : stream){
+                    java.io.File file = new File.Entry(p, null);
                     if (fileFilter==null){
                         files.add(file);
                     }
@@ -1512,6 +2470,10 @@ public class Directory implements Comparable {
                     }
                 }
             }
+            catch(IOException e){
+            }
+            catch(RuntimeException e){ //e.g. DirectoryIteratorException
+            }
 
         }
 
@@ -1902,6 +2864,155 @@ public class Directory implements Comparable {
     }
 
 
+  //**************************************************************************
+  //** getEvents
+  //**************************************************************************
+  /** Used to start monitoring changes made to the directory. Unlike the
+   *  getEvents() method which appends every raw event to an unbounded list,
+   *  this method buffers events in memory and delivers them to a listener in
+   *  batches. Multiple events for the same path that occur within the
+   *  debounce window are coalesced into a single event (e.g. a Create
+   *  followed by several Modify events is delivered as a single Create).
+   *  The number of pending events is capped. When the buffer is full, events
+   *  in the affected directory are replaced with a single "Overflow" event
+   *  for that directory. Callers should rescan the directory when an
+   *  Overflow event is received. Example:
+   <pre>
+    directory.getEvents(new Directory.EventListener(){
+        public void onEvents(java.util.List&lt;Directory.Event&gt; events){
+            for (Directory.Event event : events){
+                if (event.getAction().equals("Overflow")){
+                    //rescan event.getFile()
+                }
+                else{
+                    System.out.println(event);
+                }
+            }
+        }
+    }, 500, 10000);
+   </pre>
+   *  Use the stop() method to stop monitoring events.
+   *
+   *  @param listener Called with a batch of events. Batches are delivered
+   *  from a single background thread, one batch at a time.
+   *  @param debounce Number of milliseconds to wait for additional events
+   *  for a given path before delivering the event. Events for paths that
+   *  change continuously are delivered after 10x the debounce window.
+   *  @param maxEvents Maximum number of pending events held in memory.
+   */
+    public void getEvents(EventListener listener, long debounce, int maxEvents) throws Exception {
+        if (listener==null) throw new IllegalArgumentException("Listener is required");
+        if (FileSystemWatcher!=null) throw new IllegalStateException("Directory is already being monitored");
+        FileSystemWatcher = new FileSystemWatcher(this);
+        FileSystemWatcher.setListener(listener, debounce, maxEvents);
+        new Thread(FileSystemWatcher).start();
+    }
+
+
+  //**************************************************************************
+  //** setIndexFile
+  //**************************************************************************
+  /** Used to persist an index of the files and folders found in this
+   *  directory. The index is used to report changes that were made while the
+   *  application was not running. It must be set before calling getEvents().
+   *  When the event monitor starts, the index is loaded and compared with
+   *  the current state of the directory. Any differences are reported as
+   *  Create, Delete, and Modify events. Once the scan is complete, the index
+   *  is saved. The index is saved again when the stop() method is called.
+   *  <p/>
+   *  The scan is done in parallel. Only directories whose last modified
+   *  date has changed are listed, which makes restarts much faster for large
+   *  directory trees. Note that most file systems don't update a
+   *  directory's date when a file in it is modified in place. As a result,
+   *  these changes are not reported at startup.
+   *  </p>
+   *  @param file Path to the index file. The file is created if it doesn't
+   *  exist. If the file is invalid or was created for a different directory,
+   *  it is ignored and replaced with a new index.
+   */
+    public void setIndexFile(java.io.File file){
+        this.indexFile = file;
+    }
+
+
+  //**************************************************************************
+  //** readIndex
+  //**************************************************************************
+  /** Returns an index from a file or null if the file doesn't exist or is
+   *  invalid.
+   */
+    private IndexNode readIndex(java.io.File file){
+        if (file==null || !file.isFile()) return null;
+        try (java.io.DataInputStream in = new java.io.DataInputStream(
+            new java.io.BufferedInputStream(new java.io.FileInputStream(file), 65536))){
+            if (in.readInt()!=INDEX_MAGIC) return null;
+            if (in.readInt()!=INDEX_VERSION) return null;
+            if (!in.readUTF().equals(toString())) return null;
+            return IndexNode.read(in);
+        }
+        catch(Exception e){
+            return null;
+        }
+    }
+
+
+  //**************************************************************************
+  //** writeIndex
+  //**************************************************************************
+  /** Used to save an index to a file. The index is written to a temp file
+   *  first and then moved into place.
+   */
+    private void writeIndex(IndexNode index, java.io.File file) throws IOException {
+        java.io.File tmp = new java.io.File(file.getPath() + ".tmp");
+        java.io.File dir = tmp.getAbsoluteFile().getParentFile();
+        if (dir!=null && !dir.exists()) dir.mkdirs();
+        try (java.io.DataOutputStream out = new java.io.DataOutputStream(
+            new java.io.BufferedOutputStream(new java.io.FileOutputStream(tmp), 65536))){
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeUTF(toString());
+            index.write(out);
+        }
+        try{
+            Files.move(tmp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(AtomicMoveNotSupportedException e){
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static final int INDEX_MAGIC = 0x4A584958; //JXIX
+    private static final int INDEX_VERSION = 1;
+
+
+  //**************************************************************************
+  //** updateIndex
+  //**************************************************************************
+  /** Used to scan the directory and compare it to a previous index.
+   *  @param index Previous index. If null, the directory is scanned without
+   *  generating any events.
+   *  @param checkFiles If true, checks the size and date of every file. If
+   *  false, only directories whose last modified date has changed are listed.
+   *  @param events Used to collect Create, Delete, and Modify events. Optional.
+   */
+    private IndexNode updateIndex(IndexNode index, boolean checkFiles, java.util.Queue<Event> events){
+        return getSizePool().invoke(new IndexTask(getFile().toPath(), index,
+        checkFiles, index==null ? null : events));
+    }
+
+
+  //**************************************************************************
+  //** EventListener Interface
+  //**************************************************************************
+  /** Implementations of this class are used to receive batches of events.
+   *  See getEvents(EventListener, long, int) for more info.
+   */
+    public static interface EventListener {
+        public void onEvents(java.util.List<Event> events);
+    }
+
+
   //**************************************************************************
   //** Stop
   //**************************************************************************
@@ -1948,6 +3059,7 @@ public class Directory implements Comparable {
         public static final int CREATE = 1;
         public static final int RENAME = 2;
         public static final int MODIFY = 3;
+        public static final int OVERFLOW = 4;
 
       //************************************************************************
       //** Constructor
@@ -2055,6 +3167,7 @@ public class Directory implements Comparable {
             if (action.equalsIgnoreCase("delete")) return this.DELETE;
             if (action.equalsIgnoreCase("modify")) return this.MODIFY;
             if (action.equalsIgnoreCase("rename")) return this.RENAME;
+            if (action.equalsIgnoreCase("overflow")) return Event.OVERFLOW;
             return -1;
         }
 
@@ -2095,6 +3208,194 @@ public class Directory implements Comparable {
     } //End Event Class
 
 
+  //**************************************************************************
+  //** CopyOptions Class
+  //**************************************************************************
+  /** Used to define options for the copyTo() method (e.g. number of threads,
+   *  bandwidth limit, progress callback).
+   */
+    public static class CopyOptions {
+
+        private int numThreads = 4;
+        private long maxBytesPerSecond = 0;
+        private Callback callback;
+
+      /** Used to set the number of threads used to copy files. Default is 4. */
+        public void setNumThreads(int numThreads){
+            this.numThreads = Math.max(1, numThreads);
+        }
+
+        public int getNumThreads(){
+            return numThreads;
+        }
+
+      /** Used to limit the total number of bytes copied per second, across
+       *  all threads. A value of 0 or less (default) disables the limit.
+       */
+        public void setMaxBytesPerSecond(long maxBytesPerSecond){
+            this.maxBytesPerSecond = maxBytesPerSecond;
+        }
+
+        public long getMaxBytesPerSecond(){
+            return maxBytesPerSecond;
+        }
+
+      /** Used to set a callback that is called after each file is copied.
+       *  Note that the callback is called from one of the copy threads.
+       */
+        public void setCallback(Callback callback){
+            this.callback = callback;
+        }
+
+        public Callback getCallback(){
+            return callback;
+        }
+
+      /** Implementations of this class are used to track progress. */
+        public static interface Callback {
+
+          /** @param source Source file
+           *  @param destination Destination file
+           *  @param success True if the file was copied successfully
+           *  @param numFiles Total number of files copied so far
+           *  @param numBytes Total number of bytes copied so far
+           */
+            public void call(File source, File destination, boolean success, long numFiles, long numBytes);
+        }
+    }
+
+
+  //**************************************************************************
+  //** SyncOptions Class
+  //**************************************************************************
+  /** Used to define options for the syncTo() method. Includes all the
+   *  options in the CopyOptions class.
+   */
+    public static class SyncOptions extends CopyOptions {
+
+        private Object filter;
+        private boolean delete = false;
+        private boolean checksum = false;
+
+      /** Used to specify which files to sync. You can pass in a
+       *  java.io.FileFilter, a String (e.g. "*.txt"), or an array of Strings
+       *  (e.g. String[]{"*.txt", "*.doc"}). Glob patterns and exclusions
+       *  (e.g. "logs/**&#47;*.gz", "!*.tmp", "!cache/") are also supported.
+       *  Files and folders that are excluded by the filter are never deleted
+       *  from the destination.
+       */
+        public void setFilter(Object filter){
+            this.filter = filter;
+        }
+
+        public Object getFilter(){
+            return filter;
+        }
+
+      /** If true, files and folders in the destination that are not found in
+       *  the source will be deleted. Default is false.
+       */
+        public void setDelete(boolean delete){
+            this.delete = delete;
+        }
+
+        public boolean getDelete(){
+            return delete;
+        }
+
+      /** If true, files that are the same size are compared using an MD5
+       *  checksum instead of the last modified date. This is much slower
+       *  since every file has to be read. Default is false.
+       */
+        public void setChecksum(boolean checksum){
+            this.checksum = checksum;
+        }
+
+        public boolean getChecksum(){
+            return checksum;
+        }
+    }
+
+
+  //**************************************************************************
+  //** SyncReport Class
+  //**************************************************************************
+  /** Used to summarize the results of the syncTo() method.
+   */
+    public static class SyncReport {
+
+        private long filesCopied = 0;
+        private long bytesCopied = 0;
+        private long filesSkipped = 0;
+        private long bytesSkipped = 0;
+        private long filesDeleted = 0;
+        private long directoriesCreated = 0;
+        private long elapsedTime = 0;
+        private final ArrayList<String> failures = new ArrayList<>();
+
+        private synchronized long[] copy(long size){
+            filesCopied++;
+            bytesCopied+=size;
+            return new long[]{filesCopied, bytesCopied};
+        }
+
+        private synchronized long[] skip(long size){
+            filesSkipped++;
+            bytesSkipped+=size;
+            return new long[]{filesCopied, bytesCopied};
+        }
+
+        private synchronized void delete(){
+            filesDeleted++;
+        }
+
+        private synchronized void create(){
+            directoriesCreated++;
+        }
+
+        private synchronized long[] fail(String path){
+            failures.add(path);
+            return new long[]{filesCopied, bytesCopied};
+        }
+
+      /** Returns the number of files that were copied. */
+        public synchronized long getFilesCopied(){ return filesCopied; }
+
+      /** Returns the number of bytes that were copied. */
+        public synchronized long getBytesCopied(){ return bytesCopied; }
+
+      /** Returns the number of files that were unchanged. */
+        public synchronized long getFilesSkipped(){ return filesSkipped; }
+
+      /** Returns the total size of the files that were unchanged. */
+        public synchronized long getBytesSkipped(){ return bytesSkipped; }
+
+      /** Returns the number of files and folders that were deleted from the
+       *  destination.
+       */
+        public synchronized long getFilesDeleted(){ return filesDeleted; }
+
+      /** Returns the number of folders that were created in the destination. */
+        public synchronized long getDirectoriesCreated(){ return directoriesCreated; }
+
+      /** Returns the number of milliseconds it took to sync the directories. */
+        public synchronized long getElapsedTime(){ return elapsedTime; }
+
+      /** Returns a list of files and folders that could not be copied or
+       *  deleted.
+       */
+        public synchronized String[] getFailures(){
+            return failures.toArray(new String[failures.size()]);
+        }
+
+        public synchronized String toString(){
+            return "Copied " + filesCopied + " files (" + bytesCopied + " bytes), " +
+            "skipped " + filesSkipped + " files, deleted " + filesDeleted + " items, " +
+            failures.size() + " failures in " + elapsedTime + "ms";
+        }
+    }
+
+
 
   //**************************************************************************
   //** sort
@@ -2178,15 +3479,34 @@ public class Directory implements Comparable {
 //**  FileFilter
 //******************************************************************************
 /**
- *   Used to filter files and file names using regular expressions or java.io
- *   FileFilters. Note that directories are always returned.
+ *   Used to filter files and file names using wildcards, glob patterns, or
+ *   java.io FileFilters. Patterns are compiled once when the filter is
+ *   created. Supported patterns include:
+ *   <ul>
+ *   <li>File name wildcards (e.g. "*.txt"). Matched against the file name.
+ *   Simple patterns like "*.txt" are matched without using regular
+ *   expressions.</li>
+ *   <li>Path globs (e.g. "logs/**&#47;2024-*.gz"). Any pattern with a "/" is
+ *   matched against the path relative to the root directory. A "**" matches
+ *   zero or more directories. Directories that cannot contain a match are
+ *   skipped during a recursive search.</li>
+ *   <li>Exclusions (e.g. "!*.tmp" or "!node_modules/"). Patterns that start
+ *   with a "!" exclude files. Exclusions that end with a "/" exclude
+ *   directories. Excluded directories are not searched.</li>
+ *   </ul>
+ *   Note that unless a path glob or directory exclusion is used, directories
+ *   are always returned.
  *
  ******************************************************************************/
 
 private class FileFilter {
 
     private java.io.FileFilter fileFilter = null;
-    private List<java.util.regex.Pattern> regex = null;
+    private ArrayList<NamePattern> names = null;
+    private ArrayList<Glob[]> paths = new ArrayList<>();
+    private ArrayList<Glob[]> fileExclusions = new ArrayList<>();
+    private ArrayList<Glob[]> dirExclusions = new ArrayList<>();
+    private String root;
 
 
     public FileFilter(Object filter){
@@ -2199,70 +3519,315 @@ private class FileFilter {
             fileFilter = (java.io.FileFilter) filter;
         }
 
-        if (filter instanceof String){
-            filter = new String[]{(String) filter};
-        }
+        if (filter instanceof String){
+            filter = new String[]{(String) filter};
+        }
+
+        if (filter instanceof String[]){
+            names = new ArrayList<>();
+            for (String str : (String[]) filter){
+                if (str==null) continue;
+                str = str.trim().replace("\\", "/");
+                if (str.isEmpty()) continue;
+
+                if (str.startsWith("!")){
+                    str = str.substring(1);
+                    if (str.endsWith("/")){
+                        dirExclusions.add(compile(str.substring(0, str.length()-1)));
+                    }
+                    else{
+                        fileExclusions.add(compile(str));
+                    }
+                }
+                else if (str.contains("/")){
+                    paths.add(compile(str));
+                }
+                else{
+                    names.add(new NamePattern(str));
+                }
+            }
+            if (names.isEmpty() && paths.isEmpty()) names.add(new NamePattern("*"));
+        }
+    }
+
+
+  //**************************************************************************
+  //** setRoot
+  //**************************************************************************
+  /** Used to set the directory used to resolve relative paths for glob
+   *  patterns (e.g. "logs/**&#47;*.gz").
+   */
+    public void setRoot(Directory dir){
+        root = dir==null ? null : dir.toString().replace("\\", "/");
+    }
+
+    public boolean hasRoot(){
+        return root!=null;
+    }
+
+
+    public boolean accept(String file){
+        if (fileFilter!=null){
+            return accept(new java.io.File(file));
+        }
+        else{
+            file = file.replace("\\", "/");
+            if (file.endsWith("/")){ //then we're dealing with a directory
+                return acceptDirectory(file.substring(0, file.length()-1));
+            }
+            return acceptFile(file);
+        }
+    }
+
+    public boolean accept(java.io.File file){
+        if (file.isDirectory()) {
+            if (fileFilter!=null) return true;
+            return acceptDirectory(file.getPath().replace("\\", "/"));
+        }
+        else{
+            if (fileFilter!=null){
+                return (fileFilter.accept(file));
+            }
+            else{
+                return acceptFile(file.getPath().replace("\\", "/"));
+            }
+        }
+    }
+
+
+  //**************************************************************************
+  //** acceptFile
+  //**************************************************************************
+  /** Returns true if a file matches the filter.
+   *  @param file Path to a file, using "/" as the path separator. If the
+   *  path is relative, it is relative to the root directory.
+   */
+    private boolean acceptFile(String file){
+        String name = file.substring(file.lastIndexOf("/")+1);
+
+        if (!fileExclusions.isEmpty()){
+            String[] segments = split(file);
+            for (Glob[] pattern : fileExclusions){
+                if (matches(segments, pattern)) return false;
+            }
+        }
+
+        for (NamePattern pattern : names){
+            if (pattern.matches(name)) return true;
+        }
+
+        if (!paths.isEmpty()){
+            String[] segments = split(file);
+            for (Glob[] pattern : paths){
+                if (match(segments, 0, pattern, 0, false)) return true;
+            }
+        }
+
+        return false;
+    }
+
+
+  //**************************************************************************
+  //** acceptDirectory
+  //**************************************************************************
+  /** Returns true if a directory is not excluded and may contain files that
+   *  match the filter.
+   */
+    private boolean acceptDirectory(String dir){
+        if (dirExclusions.isEmpty() && (paths.isEmpty() || !names.isEmpty())){
+            return true;
+        }
+
+        String[] segments = split(dir);
+        for (Glob[] pattern : dirExclusions){
+            if (matches(segments, pattern)) return false;
+        }
+
+        if (!names.isEmpty()) return true;
+        for (Glob[] pattern : paths){
+            if (match(segments, 0, pattern, 0, true)) return true;
+        }
+        return false;
+    }
+
+
+  //**************************************************************************
+  //** usesIOFilter
+  //**************************************************************************
+  /**  Used to indicate whether this filter relies on a java.io.FileFilter
+   */
+    public boolean usesIOFilter(){
+        return (fileFilter!=null);
+    }
+
+
+  //**************************************************************************
+  //** split
+  //**************************************************************************
+  /** Returns path segments relative to the root directory.
+   */
+    private String[] split(String path){
+        int n = root==null ? 0 : root.length()-1;
+        if (root!=null && path.length()>=n && path.regionMatches(true, 0, root, 0, n) &&
+            (path.length()==n || path.charAt(n)=='/')){
+            path = path.length()>root.length() ? path.substring(root.length()) : "";
+        }
+        while (path.startsWith("/")) path = path.substring(1);
+        if (path.isEmpty()) return new String[0];
+        return path.split("/");
+    }
+
 
-        if (filter instanceof String[]){
-            regex = new ArrayList<java.util.regex.Pattern>();
-            String[] filters = (String[]) filter;
-
-            for (int i=0; i<filters.length; i++){
-                regex.add(
-                        java.util.regex.Pattern.compile(
-                            getRegEx(filters[i]),
-                            java.util.regex.Pattern.CASE_INSENSITIVE
-                        )
-                );
-            }
+  //**************************************************************************
+  //** matches
+  //**************************************************************************
+  /** Used to match a path against an exclusion pattern. Patterns without a
+   *  "/" are matched against the last segment of the path (e.g. "!*.tmp").
+   */
+    private boolean matches(String[] segments, Glob[] pattern){
+        if (segments.length==0) return false;
+        if (pattern.length==1 && !pattern[0].isDoubleStar){
+            return pattern[0].matches(segments[segments.length-1]);
         }
+        return match(segments, 0, pattern, 0, false);
     }
 
 
-    public boolean accept(String file){
-        if (fileFilter!=null){
-            return accept(new java.io.File(file));
-        }
-        else{
-            file = file.replace("\\", "/");
-            if (file.endsWith("/")){ //then we're dealing with a directory
+  //**************************************************************************
+  //** match
+  //**************************************************************************
+  /** Used to match path segments against a glob pattern.
+   *  @param prefix If true, returns true if the path is a directory that
+   *  may contain a match.
+   */
+    private boolean match(String[] path, int i, Glob[] pattern, int j, boolean prefix){
+        while (true){
+            if (j==pattern.length) return !prefix && i==path.length;
+            if (i==path.length){
+                if (prefix) return true;
+                for (int k=j; k<pattern.length; k++){
+                    if (!pattern[k].isDoubleStar) return false;
+                }
                 return true;
             }
-            else{
-                file = file.substring(file.lastIndexOf("/")+1);
-            }
-
-            for (int i=0; i<regex.size(); i++){
-                java.util.regex.Matcher matcher = regex.get(i).matcher(file);
-                if (matcher.find()){
-                    return true;
+            if (pattern[j].isDoubleStar){
+                for (int k=i; k<=path.length; k++){
+                    if (match(path, k, pattern, j+1, prefix)) return true;
                 }
+                return false;
             }
+            if (!pattern[j].matches(path[i])) return false;
+            i++;
+            j++;
         }
-        return false;
     }
 
-    public boolean accept(java.io.File file){
-        if (file.isDirectory()) {
-            return true;
-        }
-        else{
-            if (fileFilter!=null){
-                return (fileFilter.accept(file));
+
+  //**************************************************************************
+  //** compile
+  //**************************************************************************
+  /** Used to compile a glob pattern (e.g. "logs/**&#47;*.gz").
+   */
+    private Glob[] compile(String pattern){
+        while (pattern.startsWith("/")) pattern = pattern.substring(1);
+        ArrayList<Glob> globs = new ArrayList<>();
+        for (String segment : pattern.split("/")){
+            if (segment.isEmpty()) continue;
+            Glob glob = new Glob(segment);
+            if (glob.isDoubleStar && !globs.isEmpty() && globs.get(globs.size()-1).isDoubleStar) continue;
+            globs.add(glob);
+        }
+        return globs.toArray(new Glob[globs.size()]);
+    }
+
+
+  //**************************************************************************
+  //** Glob Class
+  //**************************************************************************
+  /** Used to match a single path segment (e.g. "2024-*.gz"). Supports "*"
+   *  and "?" wildcards. Matches are case insensitive.
+   */
+    private class Glob {
+        private boolean isDoubleStar = false;
+        private String literal;
+        private java.util.regex.Pattern regex;
+
+        public Glob(String segment){
+            if (segment.equals("**")){
+                isDoubleStar = true;
+            }
+            else if (segment.indexOf('*')<0 && segment.indexOf('?')<0){
+                literal = segment;
             }
             else{
-                return accept(file.toString());
+                StringBuilder str = new StringBuilder();
+                int start = 0;
+                for (int i=0; i<segment.length(); i++){
+                    char c = segment.charAt(i);
+                    if (c=='*' || c=='?'){
+                        if (i>start) str.append(java.util.regex.Pattern.quote(segment.substring(start, i)));
+                        str.append(c=='*' ? ".*" : ".");
+                        start = i+1;
+                    }
+                }
+                if (start<segment.length()) str.append(java.util.regex.Pattern.quote(segment.substring(start)));
+                regex = java.util.regex.Pattern.compile(str.toString(),
+                java.util.regex.Pattern.CASE_INSENSITIVE | java.util.regex.Pattern.DOTALL);
             }
         }
+
+        public boolean matches(String name){
+            if (isDoubleStar) return true;
+            if (literal!=null) return literal.equalsIgnoreCase(name);
+            return regex.matcher(name).matches();
+        }
     }
 
+
   //**************************************************************************
-  //** usesIOFilter
+  //** NamePattern Class
   //**************************************************************************
-  /**  Used to indicate whether this filter relies on a java.io.FileFilter
+  /** Used to match file names using a wildcard (e.g. "*.txt"). Simple
+   *  patterns are matched using string comparisons. Other patterns are
+   *  converted into a regular expression.
    */
-    public boolean usesIOFilter(){
-        return (fileFilter!=null);
+    private class NamePattern {
+        private boolean matchAll = false;
+        private String suffix;
+        private java.util.regex.Pattern regex;
+
+        public NamePattern(String wildcard){
+            wildcard = wildcard.trim();
+            if (wildcard.equals("*")){
+                matchAll = true;
+            }
+            else{
+                String str = wildcard.startsWith("*") ? wildcard.substring(1) : wildcard;
+                boolean isLiteral = true;
+                for (int i=0; i<str.length(); i++){
+                    if ("*?[](){}|^$+\\".indexOf(str.charAt(i))>-1){
+                        isLiteral = false;
+                        break;
+                    }
+                }
+                if (isLiteral && !str.isEmpty()){
+                    suffix = str;
+                }
+                else{
+                    regex = java.util.regex.Pattern.compile(getRegEx(wildcard),
+                    java.util.regex.Pattern.CASE_INSENSITIVE);
+                }
+            }
+        }
+
+        public boolean matches(String name){
+            if (matchAll) return true;
+            if (suffix!=null){
+                int offset = name.length()-suffix.length();
+                return offset>=0 && name.regionMatches(true, offset, suffix, 0, suffix.length());
+            }
+            return regex.matcher(name).find();
+        }
     }
 
 
@@ -2917,6 +4482,9 @@ private class FileSystemWatcher implements Runnable {
 
     private List events = new LinkedList();
     private Directory.Event LastEvent = null;
+    private EventBuffer buffer;
+    private IndexNode index;
+    private boolean polling = false;
 
   //**************************************************************************
   //** Constructors
@@ -2934,6 +4502,16 @@ private class FileSystemWatcher implements Runnable {
   //**************************************************************************
     public final void run(){
 
+      //Report any changes made since the index was last saved
+        if (directory.indexFile!=null){
+            synchronized(this){
+                java.util.Queue<Directory.Event> queue = new java.util.concurrent.ConcurrentLinkedQueue<>();
+                index = directory.updateIndex(directory.readIndex(directory.indexFile), false, queue);
+                for (Directory.Event event : queue) dispatch(event);
+                saveIndex();
+            }
+        }
+
         if (File.loadDLL()){
             try {
                 long osWaitHandle = FileSystemWatcherNative.FindFirstChangeNotification(directory.getPath(), includeSubdirectories, -1);
@@ -3001,12 +4579,26 @@ private class FileSystemWatcher implements Runnable {
     }
 
 
+  //**************************************************************************
+  //** saveIndex
+  //**************************************************************************
+    private void saveIndex(){
+        if (directory.indexFile==null || index==null) return;
+        try{
+            directory.writeIndex(index, directory.indexFile);
+        }
+        catch(Exception e){
+        }
+    }
+
+
   //**************************************************************************
   //** startPolling
   //**************************************************************************
   /** Fallback event monitor.
    */
     private void startPolling(){
+        this.polling = true;
         this.timer = new Timer();
         timer.schedule( new EventMonitor(), new java.util.Date(), 1000 );
     }
@@ -3093,15 +4685,41 @@ private class FileSystemWatcher implements Runnable {
 
       //Update events list, as needed
         if (updateEvents){
+            dispatch(event);
+        }
+    }
+
+
+  //**************************************************************************
+  //** dispatch
+  //**************************************************************************
+  /** Used to add an event to the events list or, if a listener has been
+   *  assigned, to the event buffer.
+   */
+    private void dispatch(Directory.Event event){
+        if (buffer!=null){
+            buffer.add(event);
+        }
+        else{
             synchronized(events){
                 events.add(event);
                 events.notifyAll();
-                //System.out.println(events.size());
             }
         }
     }
 
 
+  //**************************************************************************
+  //** setListener
+  //**************************************************************************
+  /** Used to deliver events to a listener instead of the events list. Must
+   *  be called before the watcher is started.
+   */
+    public void setListener(EventListener listener, long debounce, int maxEvents){
+        buffer = new EventBuffer(listener, debounce, maxEvents);
+    }
+
+
   //**************************************************************************
   //** getEvents
   //**************************************************************************
@@ -3122,10 +4740,23 @@ private class FileSystemWatcher implements Runnable {
             timer = null;
         }
 
+        if (buffer!=null){
+            buffer.stop();
+        }
+
         if (iNotify!=null){
             iNotify.stop();
             iNotify = null;
         }
+
+      //Update and save the index. Note that the polling monitor keeps the
+      //index up to date so there is no need to rescan.
+        if (directory.indexFile!=null){
+            synchronized(this){
+                if (!polling) index = directory.updateIndex(index, false, null);
+                saveIndex();
+            }
+        }
     }
 
 
@@ -3136,156 +4767,34 @@ private class FileSystemWatcher implements Runnable {
    */
     private class EventMonitor extends TimerTask {
 
-        private List index = null;
         private long lastUpdate = 0;
         private long interval = 0;
 
         public EventMonitor(){
-            this.index = createIndex();
+            synchronized(FileSystemWatcher.this){
+                if (index==null) index = directory.updateIndex(null, true, null);
+            }
         }
 
         public final void run() {
-            //System.out.println((lastEvent-lastUpdate) + " vs " + interval);
             long startTime = java.util.Calendar.getInstance().getTimeInMillis();
             if (interval==0) interval = 100;
             if ((startTime-lastUpdate)>(interval*2)){
-                //System.out.println((startTime-lastUpdate) + " vs " + (interval));
-
-                List orgIndex = index;
-                List newIndex = createIndex();
-
-                for (int i=0; i<newIndex.size(); i++){
-                    Item item = (Item) newIndex.get(i);
-                    if (orgIndex.contains(item)){
-                        int x = orgIndex.indexOf(item);
-                        Item orgItem = (Item) orgIndex.get(x);
-                        orgIndex.remove(x);
-                        if (item.isDirectory()==false){
-                            if (item.getSize()!=orgItem.getSize() ||
-                                item.getDate()!=orgItem.getDate())
-                            {
-                                addEvent("Modify",item.getPath());
-                            }
-                        }
-                    }
-                    else{
-                        addEvent("Create",item.getPath());
-                    }
-                }
-                if (orgIndex.size()>0){
-                    for (int i=0; i<orgIndex.size(); i++){
-                        Item item = (Item) orgIndex.get(i);
-                        addEvent("Delete",item.getPath());
-                    }
-                    orgIndex.clear();
+
+                java.util.Queue<Directory.Event> queue = new java.util.concurrent.ConcurrentLinkedQueue<>();
+                synchronized(FileSystemWatcher.this){
+                    if (terminationRequested) return;
+                    index = directory.updateIndex(index, true, queue);
                 }
+                for (Directory.Event event : queue) dispatch(event);
 
-                index = newIndex;
                 long endTime = java.util.Calendar.getInstance().getTimeInMillis();
                 interval = endTime-startTime;
-                //System.out.println(interval);
                 lastUpdate = endTime;
 
-
             }// end if
         }// end run
 
-
-        private void addEvent(String action, String file){
-            Directory.Event event = new Directory.Event(action,file);
-            synchronized (events) {
-                events.add(event);
-                events.notifyAll();
-            }
-        }
-
-
-      //************************************************************************
-      //** createIndex
-      //************************************************************************
-      /** Used to create an array of files and folders found in a directory.
-       *   Also used to update the interval variable used by the EventMonitor.
-       */
-        private List createIndex(){
-            List index = new LinkedList();
-            java.util.List files = directory.getChildren(true, null, false);
-            Object obj;
-            while (true){
-                synchronized (files) {
-                    while (files.isEmpty()) {
-                      try {
-                          files.wait();
-                      }
-                      catch (InterruptedException e) {
-                          break;
-                      }
-                    }
-                    obj = files.remove(0);
-                    files.notifyAll();
-                }
-
-                if (obj==null){
-                    break;
-                }
-                else{
-                    index.add( new Item(obj) );
-                }
-            }
-            return index;
-        }
-
-
-
-      //************************************************************************
-      //** Item Class
-      //************************************************************************
-      /**  Used to represent a single file or folder. Records the size and date
-       *   of the file/folder at the time this object is instantiated. This
-       *   information is used to determine which items have changed state
-       *   within the EventMonitor class.
-       */
-        private class Item {
-
-            private String path;
-            private long size;
-            private long date;
-            private boolean isDirectory;
-
-            public Item(Object obj){
-
-                java.io.File file = null;
-
-                if (obj instanceof File) file=((File) obj).toFile();
-                else if (obj instanceof Directory) file=((Directory) obj).toFile();
-                else if (obj instanceof java.io.File) file=(java.io.File) obj;
-
-                if (file!=null){
-                    this.path = file.getPath();
-                    this.size = file.length();
-                    this.date = file.lastModified();
-                    this.isDirectory = file.isDirectory();
-                }
-            }
-
-            public String getPath() { return path; }
-            public long getSize() {  return size; }
-            public long getDate() { return date; }
-            public boolean isDirectory() { return isDirectory; }
-            public String toString(){ return path; }
-
-            public boolean equals(Object obj){
-
-                if (obj instanceof Item){
-                    Item item = (Item) obj;
-                    return item.getPath().equals(this.getPath());
-                }
-                else{
-                    return false;
-                }
-            }
-
-        } // End Item
-
     } //End EventMonitor Class
 
 
@@ -3459,6 +4968,26 @@ private class FileSystemWatcher implements Runnable {
             }
         }
 
+      /** Used to register watches for any directories that were created
+       *  under the given directory but were missed (e.g. after an overflow).
+       */
+        private void rescan(Path dir) {
+            if (closed) return;
+            try{
+                Files.walkFileTree(dir, new SimpleFileVisitor<Path>(){
+                    public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                        try { register(d); } catch (Exception e) {}
+                        return FileVisitResult.CONTINUE;
+                    }
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+            catch(Exception e){
+            }
+        }
+
         private void handleCreate(Path child) throws Exception {
             boolean isDir;
             try {
@@ -3503,6 +5032,227 @@ private class FileSystemWatcher implements Runnable {
     } //End INotify Class
 
 
+  //**************************************************************************
+  //** EventBuffer
+  //**************************************************************************
+  /** Used to coalesce events by path and deliver them to an EventListener in
+   *  batches. The number of pending events is capped. When the buffer is
+   *  full, pending events in the parent directory of the incoming event are
+   *  replaced with a single Overflow event for that directory. If the number
+   *  of Overflow events also exceeds the cap, all pending events are replaced
+   *  with a single Overflow event for the root directory.
+   */
+    private class EventBuffer {
+
+        private final EventListener listener;
+        private final long debounce;
+        private final long maxDelay;
+        private final int capacity;
+        private final String root;
+        private final LinkedHashMap<String, PendingEvent> pending = new LinkedHashMap<>();
+        private final LinkedHashMap<String, Long> overflows = new LinkedHashMap<>();
+        private final java.util.Timer timer;
+
+        public EventBuffer(EventListener listener, long debounce, int capacity){
+            this.listener = listener;
+            this.debounce = Math.max(0, debounce);
+            this.maxDelay = this.debounce*10;
+            this.capacity = Math.max(1, capacity);
+            this.root = normalize(directory.toString());
+
+            long period = Math.max(10, this.debounce/2);
+            timer = new java.util.Timer("EventBuffer-" + directory.getName(), true);
+            timer.schedule(new TimerTask(){
+                public void run(){
+                    flush();
+                }
+            }, period, period);
+        }
+
+        public void stop(){
+            timer.cancel();
+        }
+
+
+      //************************************************************************
+      //** add
+      //************************************************************************
+        public synchronized void add(Directory.Event event){
+            String path = normalize(event.getFile());
+            if (path==null) return;
+            long now = System.currentTimeMillis();
+
+
+          //Handle overflow events
+            if (event.getEventID()==Directory.Event.OVERFLOW){
+                addOverflow(path, now);
+                return;
+            }
+
+
+          //Skip event if the path is in a directory that will be rescanned
+            if (!overflows.isEmpty() && isCovered(path)) return;
+
+
+          //Coalesce event with any pending events for the same path
+            PendingEvent pe = pending.get(path);
+            if (pe!=null){
+                pe.lastUpdate = now;
+                int a = pe.event.getEventID();
+                int b = event.getEventID();
+                if (a==Directory.Event.CREATE){
+                    if (b==Directory.Event.DELETE) pending.remove(path); //nothing happened
+                }
+                else if (a==Directory.Event.MODIFY){
+                    if (b==Directory.Event.DELETE) pe.event = event;
+                }
+                else if (a==Directory.Event.DELETE){
+                    if (b==Directory.Event.CREATE) pe.event.setAction("Modify"); //file was replaced
+                    else pe.event = event;
+                }
+                else if (a==Directory.Event.RENAME){
+                    if (b==Directory.Event.DELETE){
+                        pe.event = new Directory.Event("Delete", pe.event.getOriginalFile());
+                    }
+                }
+                else{
+                    pe.event = event;
+                }
+                return;
+            }
+
+
+          //If the buffer is full, replace events in the parent directory
+          //with an overflow event
+            if (pending.size()>=capacity){
+                String parent = new java.io.File(path).getParent();
+                addOverflow(parent==null ? root : parent, now);
+                return;
+            }
+
+            pending.put(path, new PendingEvent(event, now));
+        }
+
+
+      //************************************************************************
+      //** addOverflow
+      //************************************************************************
+        private void addOverflow(String dir, long now){
+            if (isCovered(dir) || overflows.containsKey(dir)) return;
+
+          //Remove any pending events in the directory
+            String prefix = dir.endsWith(PathSeparator) ? dir : dir + PathSeparator;
+            Iterator<String> it = pending.keySet().iterator();
+            while (it.hasNext()){
+                if (it.next().startsWith(prefix)) it.remove();
+            }
+            it = overflows.keySet().iterator();
+            while (it.hasNext()){
+                if (it.next().startsWith(prefix)) it.remove();
+            }
+
+          //Add overflow. Collapse everything into the root directory if we
+          //have too many overflows.
+            if (overflows.size()>=capacity){
+                pending.clear();
+                overflows.clear();
+                dir = root;
+            }
+            overflows.put(dir, now);
+        }
+
+
+      //************************************************************************
+      //** isCovered
+      //************************************************************************
+      /** Returns true if an overflow is pending for a parent of the given path
+       */
+        private boolean isCovered(String path){
+            java.io.File f = new java.io.File(path).getParentFile();
+            while (f!=null){
+                if (overflows.containsKey(f.getPath())) return true;
+                f = f.getParentFile();
+            }
+            return false;
+        }
+
+
+      //************************************************************************
+      //** flush
+      //************************************************************************
+      /** Used to deliver events that are outside of the debounce window.
+       */
+        private void flush(){
+            ArrayList<Directory.Event> batch = new ArrayList<>();
+            ArrayList<String> rescan = new ArrayList<>();
+            long now = System.currentTimeMillis();
+
+            synchronized(this){
+                Iterator<PendingEvent> it = pending.values().iterator();
+                while (it.hasNext()){
+                    PendingEvent pe = it.next();
+                    if (now-pe.lastUpdate>=debounce || now-pe.firstUpdate>=maxDelay){
+                        batch.add(pe.event);
+                        it.remove();
+                    }
+                }
+
+                Iterator<Map.Entry<String, Long>> it2 = overflows.entrySet().iterator();
+                while (it2.hasNext()){
+                    Map.Entry<String, Long> entry = it2.next();
+                    if (now-entry.getValue()>=debounce){
+                        rescan.add(entry.getKey());
+                        it2.remove();
+                    }
+                }
+            }
+
+
+          //Make sure we are watching any directories that were created in
+          //the directories that overflowed
+            for (String dir : rescan){
+                INotify iNotify = FileSystemWatcher.this.iNotify;
+                if (iNotify!=null) iNotify.rescan(java.nio.file.Paths.get(dir));
+                batch.add(new Directory.Event("Overflow", dir));
+            }
+
+
+            if (!batch.isEmpty()){
+                try{
+                    listener.onEvents(batch);
+                }
+                catch(Throwable t){
+                }
+            }
+        }
+
+
+        private String normalize(String path){
+            if (path==null) return null;
+            if (path.length()>1 && path.endsWith(PathSeparator)){
+                path = path.substring(0, path.length()-1);
+            }
+            return path;
+        }
+    }
+
+
+  //**************************************************************************
+  //** PendingEvent
+  //**************************************************************************
+    private class PendingEvent {
+        private Directory.Event event;
+        private long firstUpdate;
+        private long lastUpdate;
+
+        public PendingEvent(Directory.Event event, long time){
+            this.event = event;
+            this.firstUpdate = time;
+            this.lastUpdate = time;
+        }
+    }
+
+
   //**************************************************************************
   //** Finalize
   //**************************************************************************
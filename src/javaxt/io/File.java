@@ -1,7 +1,4 @@
 package javaxt.io;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
 import java.io.*;
 import java.util.Locale;
 
@@ -23,6 +20,7 @@ public class File implements Comparable {
     private String path = "";
     private FileAttributes attr;
     private long lastAttrUpdate = 0;
+    private long attrTTL = 0;
 
     public final String PathSeparator = System.getProperty("file.separator");
     public final String LineSeperator = System.getProperty("line.separator");
@@ -77,6 +75,17 @@ public class File implements Comparable {
         init(p);
 
 
+      //If the java.io.File came from a directory listing, use the attributes
+      //that were read with the listing (see setAttributeTTL). Note that we
+      //don't want to hang on to the Entry itself since it caches the state
+      //of the file.
+        if (File instanceof Entry){
+            attr = ((Entry) File).getFileAttributes();
+            if (attr!=null) lastAttrUpdate = ((Entry) File).getTimestamp();
+            return;
+        }
+
+
         if (p.equals(toString())){
             this.file = File;
         }
@@ -252,8 +261,6 @@ public class File implements Comparable {
    *  not exist or if the object is a directory.
    */
     public long getSize(){
-        if (file!=null) return getFileSize();
-
         try{
             FileAttributes attr = getFileAttributes();
             if (attr!=null) return attr.getSize();
@@ -281,8 +288,6 @@ public class File implements Comparable {
    *  the file does not exist or if the object is a directory.
    */
     public java.util.Date getDate(){
-        if (file!=null) return getFileDate();
-
         try{
             FileAttributes attr = getFileAttributes();
             if (attr!=null) return attr.getLastWriteTime();
@@ -329,10 +334,6 @@ public class File implements Comparable {
    *   system can't find the file or if the object is a directory.
    */
     public boolean exists(){
-        if (file!=null){
-            return (file.isFile() && file.exists());
-        }
-
         try{
             FileAttributes attr = getFileAttributes();
             if (attr!=null) return true;
@@ -355,10 +356,6 @@ public class File implements Comparable {
    *  file system.
    */
     public boolean isHidden(){
-        if (file!=null){
-            return (file.isFile() && file.isHidden());
-        }
-
         try{
             FileAttributes attr = getFileAttributes();
             if (attr!=null) return attr.isHidden();
@@ -380,10 +377,6 @@ public class File implements Comparable {
    *  the file exists and the application is not allowed to write to the file.
    */
     public boolean isReadOnly(){
-        if (file!=null){
-            return (file.isFile() && !file.canWrite());
-        }
-
         try{
             FileAttributes attr = getFileAttributes();
             if (attr!=null) return attr.isReadOnly();
@@ -539,9 +532,23 @@ public class File implements Comparable {
   //**************************************************************************
   /** Used to create a copy of this file. Preserves the last modified date
    *  associated with the source file. Returns true if the file was copied
-   *  successfully.
+   *  successfully. Bytes are copied using FileChannel.transferTo() which
+   *  allows the operating system to copy the file without moving the bytes
+   *  through user space (e.g. sendfile or copy_file_range on Linux).
    */
     public boolean copyTo(javaxt.io.File Destination, boolean Overwrite){
+        return copyTo(Destination, Overwrite, null);
+    }
+
+
+  //**************************************************************************
+  //** Copy File
+  //**************************************************************************
+  /** Used to create a copy of this file using an optional throttle to limit
+   *  throughput. When a throttle is given, the file is transferred in chunks
+   *  (see setBufferSize) so the throttle can pace the copy.
+   */
+    protected boolean copyTo(javaxt.io.File Destination, boolean Overwrite, Throttle throttle){
 
       //Validate Input/Output
         java.io.File File = getFile();
@@ -553,37 +560,92 @@ public class File implements Comparable {
         Destination.getParentDirectory().create();
 
       //Copy File
-        ReadableByteChannel inputChannel = null;
-        WritableByteChannel outputChannel = null;
-        try{
-            FileInputStream input = new FileInputStream(File);
-            FileOutputStream output = new FileOutputStream(Destination.toFile());
-            inputChannel = Channels.newChannel(input);
-            outputChannel = Channels.newChannel(output);
-            final java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocateDirect(bufferSize);
-
-            while (inputChannel.read(buffer) != -1) {
-                buffer.flip();
-                outputChannel.write(buffer);
-                buffer.compact();
+        try (FileInputStream input = new FileInputStream(File);
+             FileOutputStream output = new FileOutputStream(Destination.toFile())){
+
+            java.nio.channels.FileChannel inputChannel = input.getChannel();
+            java.nio.channels.FileChannel outputChannel = output.getChannel();
+
+            long size = inputChannel.size();
+            long chunkSize = throttle==null ? size : bufferSize;
+            long position = 0;
+            java.nio.ByteBuffer buffer = null;
+            while (position<size){
+                long n = inputChannel.transferTo(position, Math.min(chunkSize, size-position), outputChannel);
+                if (n<=0){
+
+                  //Check whether the file was truncated
+                    long newSize = inputChannel.size();
+                    if (newSize<size){
+                        size = newSize;
+                        continue;
+                    }
 
+                  //Otherwise, transferTo didn't make any progress. Copy the
+                  //next chunk using a buffer instead. Give up if that fails
+                  //too rather than spin.
+                    if (buffer==null) buffer = java.nio.ByteBuffer.allocate(bufferSize);
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), size-position));
+                    n = inputChannel.read(buffer, position);
+                    if (n<=0) throw new IOException("Failed to read " + File);
+                    buffer.flip();
+                    while (buffer.hasRemaining()){
+                        if (outputChannel.write(buffer)<=0){
+                            throw new IOException("Failed to write " + Destination);
+                        }
+                    }
+                }
+                position += n;
+                if (throttle!=null) throttle.acquire(n);
             }
-            buffer.flip();
-            while (buffer.hasRemaining()) {
-                outputChannel.write(buffer);
-            }
-
-            inputChannel.close();
-            outputChannel.close();
-
-            Destination.toFile().setLastModified(File.lastModified());
-            return true;
         }
         catch(Exception e){
-            try{inputChannel.close();}catch(Exception ex){}
-            try{outputChannel.close();}catch(Exception ex){}
+            Destination.attr = null;
             return false;
         }
+
+        Destination.toFile().setLastModified(File.lastModified());
+        Destination.attr = null;
+        return true;
+    }
+
+
+  //**************************************************************************
+  //** Throttle Class
+  //**************************************************************************
+  /** Used to limit the number of bytes per second transferred across one or
+   *  more threads. Threads that exceed the limit are put to sleep until the
+   *  average throughput falls back under the limit.
+   */
+    protected static class Throttle {
+
+        private final long bytesPerSecond;
+        private final long startTime;
+        private long bytes = 0;
+
+        public Throttle(long bytesPerSecond){
+            this.bytesPerSecond = bytesPerSecond;
+            this.startTime = System.nanoTime();
+        }
+
+        public void acquire(long numBytes){
+            if (bytesPerSecond<1) return;
+            long wait;
+            synchronized(this){
+                bytes += numBytes;
+                long expectedTime = (bytes*1000L)/bytesPerSecond;
+                wait = expectedTime - (System.nanoTime()-startTime)/1000000L;
+            }
+            if (wait>0){
+                try{
+                    Thread.sleep(wait);
+                }
+                catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
     }
 
 
@@ -696,6 +758,318 @@ public class File implements Comparable {
     }
 
 
+  //**************************************************************************
+  //** processLines
+  //**************************************************************************
+  /** Used to process lines in the file across multiple threads. The file is
+   *  split into chunks aligned to line boundaries and each chunk is decoded
+   *  and processed by a separate thread. Example:
+   <pre>
+    final java.util.concurrent.atomic.AtomicLong numErrors = new AtomicLong();
+    file.processLines("UTF-8", 8, false, new javaxt.io.File.LineProcessor(){
+        public void process(String line){
+            if (line.contains("ERROR")) numErrors.incrementAndGet();
+        }
+    });
+   </pre>
+   *  @param charsetName Name of the character encoding used to read the file
+   *  (e.g. "UTF-8"). Note that the file can only be split for charsets that
+   *  encode a line feed as a single 0x0A byte (e.g. UTF-8, ISO-8859-1,
+   *  US-ASCII, etc). Other charsets (e.g. UTF-16) are processed in one chunk.
+   *  @param numThreads Number of threads used to decode and process lines.
+   *  @param preserveOrder If true, lines are decoded in parallel but the
+   *  processor is called from the caller's thread, one line at a time, in the
+   *  order that the lines appear in the file. If false, the processor is
+   *  called concurrently from the worker threads and must be thread-safe.
+   *  @param processor Called for each line in the file. Line terminators
+   *  (e.g. "\n" or "\r\n") are not included.
+   */
+    public void processLines(String charsetName, int numThreads, boolean preserveOrder,
+        final LineProcessor processor) throws IOException {
+        processChunks(charsetName, CHUNK_SIZE, numThreads, preserveOrder, new ChunkProcessor(){
+            public void process(Chunk chunk) throws Exception {
+                for (String line : chunk.getLines()) processor.process(line);
+            }
+        });
+    }
+
+
+  //**************************************************************************
+  //** processChunks
+  //**************************************************************************
+  /** Used to process the file in chunks across multiple threads. The file is
+   *  split into byte ranges of approximately the given chunk size. The end of
+   *  each range is extended to the next line feed so that each chunk contains
+   *  complete lines. Chunks are read using memory-mapped buffers whenever
+   *  the file can be mapped into the address space. Otherwise, each chunk is
+   *  read into a heap buffer.
+   *  @param charsetName Name of the character encoding used to read the file.
+   *  See processLines() for more info.
+   *  @param chunkSize Target size of each chunk, in bytes. Must be less than
+   *  2GB.
+   *  @param numThreads Number of threads used to decode and process chunks.
+   *  @param preserveOrder If true, chunks are read and decoded in parallel
+   *  but the processor is called from the caller's thread in file order.
+   *  If false, the processor is called concurrently from the worker threads.
+   */
+    public void processChunks(String charsetName, long chunkSize, int numThreads,
+        boolean preserveOrder, final ChunkProcessor processor) throws IOException {
+
+        java.io.File file = getFile();
+        if (!file.isFile()) throw new FileNotFoundException(toString());
+        if (chunkSize<1 || chunkSize>=Integer.MAX_VALUE) throw new IllegalArgumentException("Invalid chunk size");
+        numThreads = Math.max(1, numThreads);
+
+        final java.nio.charset.Charset charset = java.nio.charset.Charset.forName(charsetName);
+
+        try (FileInputStream input = new FileInputStream(file)){
+            final java.nio.channels.FileChannel channel = input.getChannel();
+            final long size = channel.size();
+
+
+          //Generate chunks
+            final java.util.ArrayList<Chunk> chunks = new java.util.ArrayList<>();
+            byte[] lf = "\n".getBytes(charset);
+            boolean splittable = lf.length==1 && lf[0]==0x0A;
+            boolean map = is64Bit || size<256*1024*1024;
+            long offset = 0;
+            while (offset<size){
+                long end = offset+chunkSize;
+                if (!splittable || end>=size) end = size;
+                else end = nextLine(channel, end, size);
+                if (end-offset>=Integer.MAX_VALUE){
+                    throw new IOException("Line exceeds maximum chunk size");
+                }
+                chunks.add(new Chunk(channel, charset, chunks.size(), offset, end-offset, map));
+                offset = end;
+            }
+            if (chunks.isEmpty()) return;
+
+
+          //Process chunks
+            final Exception[] error = new Exception[1];
+            javaxt.utils.ThreadPool pool = new javaxt.utils.ThreadPool(numThreads, numThreads*2){
+                public void process(Object obj){
+                    Chunk chunk = (Chunk) obj;
+                    try{
+                        if (chunk.preload) chunk.getText();
+                        else processor.process(chunk);
+                    }
+                    catch(Exception e){
+                        synchronized(error){ if (error[0]==null) error[0] = e; }
+                    }
+                    synchronized(chunk){
+                        chunk.done = true;
+                        chunk.notifyAll();
+                    }
+                }
+            }.start();
+
+            try{
+                if (preserveOrder){
+
+                  //Keep a limited number of decoded chunks in memory. Chunks
+                  //are added to the pool as older chunks are processed.
+                    int window = numThreads*2;
+                    int next = 0;
+                    for (int i=0; i<chunks.size(); i++){
+                        while (next<chunks.size() && next-i<window){
+                            Chunk chunk = chunks.get(next++);
+                            chunk.preload = true;
+                            pool.add(chunk);
+                        }
+
+                        Chunk chunk = chunks.get(i);
+                        synchronized(chunk){
+                            while (!chunk.done) chunk.wait();
+                        }
+                        synchronized(error){ if (error[0]!=null) break; }
+                        try{
+                            processor.process(chunk);
+                        }
+                        catch(Exception e){
+                            error[0] = e;
+                            break;
+                        }
+                        chunks.set(i, null);
+                    }
+                }
+                else{
+                    for (Chunk chunk : chunks){
+                        pool.add(chunk);
+                        synchronized(error){ if (error[0]!=null) break; }
+                    }
+                }
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            finally{
+                if (error[0]!=null) pool.getQueue().clear();
+                pool.done();
+                try{ pool.join(); }
+                catch(InterruptedException e){ Thread.currentThread().interrupt(); }
+            }
+
+            if (error[0]!=null){
+                if (error[0] instanceof IOException) throw (IOException) error[0];
+                if (error[0] instanceof RuntimeException) throw (RuntimeException) error[0];
+                throw new IOException(error[0]);
+            }
+        }
+    }
+
+
+  //**************************************************************************
+  //** nextLine
+  //**************************************************************************
+  /** Returns the offset of the first byte following the next line feed, at
+   *  or after the given position.
+   */
+    private static long nextLine(java.nio.channels.FileChannel channel, long position, long size)
+        throws IOException {
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(8192);
+        while (position<size){
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n<0) break;
+            for (int i=0; i<n; i++){
+                if (buffer.get(i)==0x0A) return position+i+1;
+            }
+            position += n;
+        }
+        return size;
+    }
+
+
+  /** Default chunk size used by the processLines() method (8MB) */
+    private static final long CHUNK_SIZE = 8*1024*1024;
+
+  /** Minimum file size used to decide whether to memory-map a file (1MB).
+   *  Smaller files are cheaper to read with a regular stream.
+   */
+    private static final long MIN_MAP_SIZE = 1024*1024;
+
+  /** Used to determine whether large files can be memory-mapped */
+    private static final boolean is64Bit = !"32".equals(System.getProperty("sun.arch.data.model"));
+
+
+  //**************************************************************************
+  //** LineProcessor Interface
+  //**************************************************************************
+  /** Implementations of this class are used by the processLines() method.
+   */
+    public static interface LineProcessor {
+        public void process(String line) throws Exception;
+    }
+
+
+  //**************************************************************************
+  //** ChunkProcessor Interface
+  //**************************************************************************
+  /** Implementations of this class are used by the processChunks() method.
+   */
+    public static interface ChunkProcessor {
+        public void process(Chunk chunk) throws Exception;
+    }
+
+
+  //**************************************************************************
+  //** Chunk Class
+  //**************************************************************************
+  /** Used to represent a range of bytes in a file. The range always starts
+   *  at the beginning of a line and ends after a line feed (or at the end of
+   *  the file).
+   */
+    public static class Chunk {
+
+        private final java.nio.channels.FileChannel channel;
+        private final java.nio.charset.Charset charset;
+        private final int index;
+        private final long offset;
+        private final long length;
+        private final boolean map;
+        private String text;
+        private boolean preload = false;
+        private boolean done = false;
+
+        private Chunk(java.nio.channels.FileChannel channel, java.nio.charset.Charset charset,
+            int index, long offset, long length, boolean map){
+            this.channel = channel;
+            this.charset = charset;
+            this.index = index;
+            this.offset = offset;
+            this.length = length;
+            this.map = map;
+        }
+
+      /** Returns the position of this chunk in the file (0 = first chunk) */
+        public int getIndex(){
+            return index;
+        }
+
+      /** Returns the byte offset of this chunk in the file */
+        public long getOffset(){
+            return offset;
+        }
+
+      /** Returns the number of bytes in this chunk */
+        public long getLength(){
+            return length;
+        }
+
+      /** Returns the raw bytes in this chunk. The buffer is a memory-mapped
+       *  view of the file when possible. Note that the buffer is only valid
+       *  while the processChunks() method is running.
+       */
+        public java.nio.ByteBuffer getBuffer() throws IOException {
+            if (map){
+                try{
+                    return channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, offset, length);
+                }
+                catch(IOException e){}
+            }
+            java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining()){
+                if (channel.read(buffer, offset+buffer.position())<0) break;
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+      /** Returns the decoded contents of this chunk. Malformed input is
+       *  replaced with the default replacement character.
+       */
+        public String getText() throws IOException {
+            if (text==null){
+                text = charset.newDecoder()
+                .onMalformedInput(java.nio.charset.CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(java.nio.charset.CodingErrorAction.REPLACE)
+                .decode(getBuffer()).toString();
+                if (offset==0 && text.length()>0 && text.charAt(0)=='\uFEFF') text = text.substring(1); //BOM
+            }
+            return text;
+        }
+
+      /** Returns lines found in this chunk, excluding line terminators. */
+        public java.util.List<String> getLines() throws IOException {
+            String text = getText();
+            java.util.ArrayList<String> lines = new java.util.ArrayList<>();
+            int start = 0;
+            int len = text.length();
+            while (start<len){
+                int end = text.indexOf('\n', start);
+                if (end<0) end = len;
+                int x = end;
+                if (x>start && text.charAt(x-1)=='\r') x--;
+                lines.add(text.substring(start, x));
+                start = end+1;
+            }
+            return lines;
+        }
+    }
+
+
   //**************************************************************************
   //** getBufferedImage
   //**************************************************************************
@@ -751,7 +1125,8 @@ public class File implements Comparable {
    */
     public String getText(String charsetName){
         try{
-           return getBytes().toString(charsetName);
+            java.nio.charset.Charset charset = java.nio.charset.Charset.forName(charsetName);
+            return new String(readBytes(getFile()), charset);
         }
         catch(Exception e){}
         return "";
@@ -766,7 +1141,7 @@ public class File implements Comparable {
    *  Document.
    */
     public org.w3c.dom.Document getXML(){
-        try (FileInputStream is = getInputStream()) {
+        try (InputStream is = getMappedInputStream()) {
             return javaxt.xml.DOM.createDocument(is);
         }
         catch(Exception e){
@@ -783,8 +1158,8 @@ public class File implements Comparable {
    *  object.
    */
     public javaxt.json.JSONObject getJSONObject(){
-        try {
-            return new javaxt.json.JSONObject(getText());
+        try (Reader reader = getReader("UTF-8")) {
+            return new javaxt.json.JSONObject(reader);
         }
         catch(Exception e){
             return null;
@@ -800,8 +1175,8 @@ public class File implements Comparable {
    *  array.
    */
     public javaxt.json.JSONArray getJSONArray(){
-        try {
-            return new javaxt.json.JSONArray(getText());
+        try (Reader reader = getReader("UTF-8")) {
+            return new javaxt.json.JSONArray(reader);
         }
         catch(Exception e){
             return null;
@@ -813,7 +1188,10 @@ public class File implements Comparable {
   //** getBytes
   //**************************************************************************
   /** Returns the file contents as a ByteArrayOutputStream. Returns a null if
-   *  the file contents cannot be converted to a ByteArrayOutputStream.
+   *  the file contents cannot be converted to a ByteArrayOutputStream. Note
+   *  that the output stream is sized using the file length to avoid
+   *  resizing the buffer while reading the file. Consider using the map()
+   *  method for large files.
    */
     public ByteArrayOutputStream getBytes(){
         return getBytes(getFile(), bufferSize);
@@ -822,7 +1200,10 @@ public class File implements Comparable {
     private static ByteArrayOutputStream getBytes(java.io.File File, int bufferSize){
         if (File.exists()){
             try (FileInputStream is = new FileInputStream(File)) {
-                ByteArrayOutputStream bas = new ByteArrayOutputStream();
+                long size = is.getChannel().size();
+                ByteArrayOutputStream bas = new ByteArrayOutputStream(
+                    (int) Math.max(32, Math.min(size, Integer.MAX_VALUE-8)));
+                bufferSize = (int) Math.max(1, Math.min(bufferSize, size));
                 byte[] b = new byte[bufferSize];
                 int x;
                 while((x=is.read(b,0,bufferSize))>-1) {
@@ -838,18 +1219,176 @@ public class File implements Comparable {
     }
 
 
+  //**************************************************************************
+  //** readBytes
+  //**************************************************************************
+  /** Reads the file into a byte array sized using the file length.
+   */
+    private static byte[] readBytes(java.io.File File) throws IOException {
+        try (FileInputStream is = new FileInputStream(File)) {
+            java.nio.channels.FileChannel channel = is.getChannel();
+            long size = channel.size();
+            if (size>Integer.MAX_VALUE-8) throw new IOException("File is too large");
+            java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()){
+                if (channel.read(buffer)<0) break;
+            }
+            if (buffer.hasRemaining()){ //file was truncated while reading
+                return java.util.Arrays.copyOf(buffer.array(), buffer.position());
+            }
+            return buffer.array();
+        }
+    }
+
+
+  //**************************************************************************
+  //** map
+  //**************************************************************************
+  /** Returns a read-only, memory-mapped view of the file. The contents of the
+   *  file are paged in by the operating system as the buffer is read and
+   *  are not copied into the heap. Note that files larger than 2GB cannot be
+   *  mapped into a single buffer. Use getInputStream() or processChunks()
+   *  instead.
+   */
+    public java.nio.MappedByteBuffer map() throws IOException {
+        try (FileInputStream is = new FileInputStream(getFile())) {
+            java.nio.channels.FileChannel channel = is.getChannel();
+            long size = channel.size();
+            if (size>Integer.MAX_VALUE) throw new IOException("File is too large to map");
+            return channel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+
+  //**************************************************************************
+  //** lines
+  //**************************************************************************
+  /** Returns a stream of lines found in the file using UTF-8 character
+   *  encoding. See lines(String) for more information.
+   */
+    public java.util.stream.Stream<String> lines() throws IOException {
+        return lines("UTF-8");
+    }
+
+
+  //**************************************************************************
+  //** lines
+  //**************************************************************************
+  /** Returns a stream of lines found in the file. Lines are read and decoded
+   *  lazily as the stream is consumed. The caller should close the stream
+   *  when finished to release the underlying file handle. Example:
+   <pre>
+    try (java.util.stream.Stream&lt;String&gt; lines = file.lines("UTF-8")){
+        lines.filter(line -&gt; line.contains("ERROR")).forEach(System.out::println);
+    }
+   </pre>
+   *  @param charsetName Name of the character encoding used to read the file.
+   *  Malformed input is replaced with the default replacement character.
+   */
+    public java.util.stream.Stream<String> lines(String charsetName) throws IOException {
+        final BufferedReader reader = new BufferedReader(getReader(charsetName));
+        try{
+            return reader.lines().onClose(new Runnable(){
+                public void run(){
+                    try{ reader.close(); }
+                    catch(IOException e){ throw new UncheckedIOException(e); }
+                }
+            });
+        }
+        catch(RuntimeException e){
+            try{ reader.close(); } catch(IOException ex){}
+            throw e;
+        }
+    }
+
+
+  //**************************************************************************
+  //** getReader
+  //**************************************************************************
+  /** Returns a Reader backed by a memory-mapped view of the file, if
+   *  the file is large enough to benefit from it. Malformed input is replaced with the default replacement
+   *  character.
+   */
+    private Reader getReader(String charsetName) throws IOException {
+        java.nio.charset.CharsetDecoder decoder = java.nio.charset.Charset.forName(charsetName)
+        .newDecoder()
+        .onMalformedInput(java.nio.charset.CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(java.nio.charset.CodingErrorAction.REPLACE);
+        return new InputStreamReader(getMappedInputStream(), decoder);
+    }
+
+
+  //**************************************************************************
+  //** getMappedInputStream
+  //**************************************************************************
+  /** Returns an InputStream backed by a memory-mapped view of the file if
+   *  the file is larger than MIN_MAP_SIZE. Falls back to a FileInputStream
+   *  for small files or if the file cannot be mapped.
+   */
+    private InputStream getMappedInputStream() throws IOException {
+        if (getFile().length()<MIN_MAP_SIZE) return getInputStream();
+        try{
+            return new ByteBufferInputStream(map());
+        }
+        catch(FileNotFoundException e){
+            throw e;
+        }
+        catch(IOException e){
+            return getInputStream();
+        }
+    }
+
+
+  //**************************************************************************
+  //** ByteBufferInputStream Class
+  //**************************************************************************
+  /** Simple InputStream used to read bytes from a ByteBuffer.
+   */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final java.nio.ByteBuffer buffer;
+
+        public ByteBufferInputStream(java.nio.ByteBuffer buffer){
+            this.buffer = buffer;
+        }
+
+        public int read(){
+            return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        public int read(byte[] b, int off, int len){
+            if (len==0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        public long skip(long n){
+            int k = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position()+k);
+            return k;
+        }
+
+        public int available(){
+            return buffer.remaining();
+        }
+    }
+
+
   //**************************************************************************
   //** checksum
   //**************************************************************************
   /** Returns a long value representing a cyclic redundancy check
-   * (CRC-32 checksum) of the file, or -1 if not known.
+   * (CRC-32 checksum) of the file, or -1 if not known. The checksum is
+   * computed by streaming the file through a memory-mapped view so that the
+   * file contents are never loaded into the heap.
    */
     public long checksum(){
         if (!exists()) return -1;
         try{
-            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
-            crc.update(getBytes().toByteArray());
-            return crc.getValue();
+            String crc = getHashes("CRC32").get("CRC32");
+            return Long.parseLong(crc, 16);
         }
         catch(Exception e){
             return -1;
@@ -867,6 +1406,16 @@ public class File implements Comparable {
     }
 
 
+  //**************************************************************************
+  //** getSHA256
+  //**************************************************************************
+  /** Returns a string representing the SHA-256 hash for the file.
+   */
+    public String getSHA256() {
+        return getHash("SHA-256");
+    }
+
+
   //**************************************************************************
   //** getMD5
   //**************************************************************************
@@ -882,14 +1431,125 @@ public class File implements Comparable {
   //**************************************************************************
     private String getHash(String algorithm){
         if (!exists()) return null;
-        try (InputStream input = getInputStream()) {
+        try{
+            return getHashes(algorithm).get(algorithm);
+        }
+        catch(Exception e){
+            return null;
+        }
+    }
+
+
+  //**************************************************************************
+  //** getHashes
+  //**************************************************************************
+  /** Used to compute one or more hashes/checksums for the file in a single
+   *  pass. The file is read through memory-mapped regions (or a direct
+   *  buffer if the file cannot be mapped) and each region is fed to all of
+   *  the requested algorithms before moving on to the next region. Example:
+   <pre>
+    HashMap&lt;String, String&gt; hashes = file.getHashes("MD5", "SHA-256");
+    String md5 = hashes.get("MD5");
+   </pre>
+   *  @param algorithms One or more algorithm names. Supported values include
+   *  "CRC32", "CRC32C" (requires Java 9 or higher), and any MessageDigest
+   *  algorithm supported by the JVM (e.g. "MD5", "SHA-1", "SHA-256").
+   *  @return Lowercase hex strings, keyed by algorithm name. CRC values are
+   *  returned as 8 character hex strings.
+   */
+    public java.util.LinkedHashMap<String, String> getHashes(String... algorithms)
+        throws IOException, java.security.NoSuchAlgorithmException {
+
+        java.io.File file = getFile();
+        if (!file.isFile()) throw new FileNotFoundException(toString());
+
+        Hash[] hashes = new Hash[algorithms.length];
+        for (int i=0; i<algorithms.length; i++){
+            hashes[i] = new Hash(algorithms[i]);
+        }
+
+        try (FileInputStream input = new FileInputStream(file)){
+            java.nio.channels.FileChannel channel = input.getChannel();
+            update(channel, 0, channel.size(), hashes, bufferSize);
+        }
+
+        java.util.LinkedHashMap<String, String> results = new java.util.LinkedHashMap<>();
+        for (int i=0; i<algorithms.length; i++){
+            results.put(algorithms[i], hashes[i].getValue());
+        }
+        return results;
+    }
+
+
+  //**************************************************************************
+  //** getTreeHash
+  //**************************************************************************
+  /** Returns a hash for the file computed in parallel. Uses 64MB segments
+   *  and one thread per available processor. See getTreeHash(String, long,
+   *  int) for more information.
+   */
+    public String getTreeHash(String algorithm){
+        return getTreeHash(algorithm, 64*1024*1024, Runtime.getRuntime().availableProcessors());
+    }
+
+
+  //**************************************************************************
+  //** getTreeHash
+  //**************************************************************************
+  /** Returns a hash for the file computed in parallel. The file is divided
+   *  into fixed-size segments which are hashed independently across a pool
+   *  of threads. The final value is the hash of the concatenated segment
+   *  hashes. Note that the result is NOT the same as the hash returned by
+   *  getHashes() or getSHA1(), etc. The value is only comparable to other
+   *  tree hashes generated using the same algorithm and segment size.
+   *  Returns null if the hash could not be computed.
+   *  @param algorithm A MessageDigest algorithm (e.g. "SHA-256")
+   *  @param segmentSize Size of each segment, in bytes
+   *  @param numThreads Number of threads used to hash the segments
+   */
+    public String getTreeHash(final String algorithm, final long segmentSize, int numThreads){
+        if (!exists() || segmentSize<1) return null;
+
+        final java.io.File file = getFile();
+        final long size = file.length();
+        final int numSegments = (int) Math.max(1, (size+segmentSize-1)/segmentSize);
+        final byte[][] digests = new byte[numSegments][];
+        final int bufferSize = this.bufferSize;
+
+        try (FileInputStream input = new FileInputStream(file)){
+            final java.nio.channels.FileChannel channel = input.getChannel();
+
+          //Hash segments. Note that FileChannel supports concurrent
+          //positional reads so the threads can share a single channel.
+            javaxt.utils.ThreadPool pool = new javaxt.utils.ThreadPool(
+                Math.max(1, Math.min(numThreads, numSegments))){
+                public void process(Object obj){
+                    int i = (Integer) obj;
+                    long offset = i*segmentSize;
+                    long length = Math.min(segmentSize, size-offset);
+                    try{
+                        Hash hash = new Hash(algorithm);
+                        update(channel, offset, length, new Hash[]{hash}, bufferSize);
+                        digests[i] = hash.digest();
+                    }
+                    catch(Exception e){
+                    }
+                }
+            }.start();
+
+            for (int i=0; i<numSegments; i++){
+                pool.add(i);
+            }
+            pool.done();
+            pool.join();
+
+
+          //Hash the segment hashes
             java.security.MessageDigest md = java.security.MessageDigest.getInstance(algorithm);
-            byte[] buf = new byte[bufferSize];
-            int i;
-            while((i=input.read(buf))!=-1) {
-                md.update(buf, 0, i);
+            for (byte[] digest : digests){
+                if (digest==null) return null;
+                md.update(digest);
             }
-            //return new javax.xml.bind.annotation.adapters.HexBinaryAdapter().marshal(md.digest()).toLowerCase();
             return printHexBinary(md.digest()).toLowerCase();
         }
         catch(Exception e){
@@ -897,9 +1557,120 @@ public class File implements Comparable {
         }
     }
 
+
+  //**************************************************************************
+  //** update
+  //**************************************************************************
+  /** Used to feed a range of bytes from a FileChannel into one or more
+   *  hashes. Uses memory-mapped regions and falls back to positional reads
+   *  into a direct buffer if the channel cannot be mapped (e.g. pipes or
+   *  special files).
+   */
+    private static void update(java.nio.channels.FileChannel channel,
+        long offset, long length, Hash[] hashes, int bufferSize) throws IOException {
+
+        long end = offset+length;
+        long position = offset;
+        try{
+            while (position<end){
+                long regionSize = Math.min(MAP_SIZE, end-position);
+                java.nio.MappedByteBuffer buffer = channel.map(
+                java.nio.channels.FileChannel.MapMode.READ_ONLY, position, regionSize);
+                for (Hash hash : hashes){
+                    hash.update(buffer.duplicate());
+                }
+                position += regionSize;
+            }
+        }
+        catch(IOException e){
+            if (position>offset) throw e;
+
+            java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocateDirect(bufferSize);
+            while (position<end){
+                buffer.clear();
+                if (end-position<bufferSize) buffer.limit((int) (end-position));
+                int n = channel.read(buffer, position);
+                if (n<0) break;
+                buffer.flip();
+                for (Hash hash : hashes){
+                    hash.update(buffer.duplicate());
+                }
+                position += n;
+            }
+        }
+    }
+
+
+  /** Size of the memory-mapped regions used to compute hashes (64MB) */
+    private static final long MAP_SIZE = 64*1024*1024;
+
+
+  //**************************************************************************
+  //** Hash Class
+  //**************************************************************************
+  /** Used to wrap a MessageDigest or a Checksum (CRC32/CRC32C) behind a
+   *  common interface so that multiple algorithms can be computed in one
+   *  pass.
+   */
+    private static class Hash {
+
+        private java.security.MessageDigest md;
+        private java.util.zip.Checksum checksum;
+        private java.lang.reflect.Method update;
+
+        public Hash(String algorithm) throws java.security.NoSuchAlgorithmException {
+            if (algorithm.equalsIgnoreCase("CRC32")){
+                checksum = new java.util.zip.CRC32();
+            }
+            else if (algorithm.equalsIgnoreCase("CRC32C")){
+                try{ //CRC32C was introduced in Java 9
+                    Class<?> c = Class.forName("java.util.zip.CRC32C");
+                    checksum = (java.util.zip.Checksum) c.getConstructor().newInstance();
+                    update = c.getMethod("update", java.nio.ByteBuffer.class);
+                }
+                catch(Exception e){
+                    throw new java.security.NoSuchAlgorithmException(algorithm);
+                }
+            }
+            else{
+                md = java.security.MessageDigest.getInstance(algorithm);
+            }
+        }
+
+        public void update(java.nio.ByteBuffer buffer){
+            if (md!=null){
+                md.update(buffer);
+            }
+            else if (update==null){
+                ((java.util.zip.CRC32) checksum).update(buffer);
+            }
+            else{
+                try{
+                    update.invoke(checksum, buffer);
+                }
+                catch(Exception e){
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        public byte[] digest(){
+            if (md!=null) return md.digest();
+            long value = checksum.getValue();
+            return new byte[]{
+                (byte) (value >>> 24), (byte) (value >>> 16),
+                (byte) (value >>> 8), (byte) value
+            };
+        }
+
+        public String getValue(){
+            return printHexBinary(digest()).toLowerCase();
+        }
+    }
+
     private static final char[] hexCode = "0123456789ABCDEF".toCharArray();
 
-    private String printHexBinary(byte[] data) {
+    private static String printHexBinary(byte[] data) {
         if (data==null) return null;
         StringBuilder r = new StringBuilder(data.length * 2);
         for (byte b : data) {
@@ -1515,18 +2286,20 @@ public class File implements Comparable {
   //**************************************************************************
   //** getFileAttributes
   //**************************************************************************
-  /** Returns file attributes such as when the file was first created and when
-   *  it was last accessed. File attributes are cached for up to one second.
-   *  This provides users the ability to retrieve multiple attributes at once.
-   *  Without caching, we would have to ping the file system every time we call
-   *  getLastAccessTime(), getLastAccessTime(), getLastWriteTime(), etc. The
+  /** Returns a snapshot of the file attributes (size, timestamps, flags,
+   *  etc). All the attributes are read from the file system at once. By
+   *  default, the attributes are read every time this method is called.
+   *  Use setAttributeTTL to cache the attributes so that calls to getSize(),
+   *  getDate(), isHidden(), etc. don't ping the file system every time. The
    *  cached attributes are automatically updated when the file is updated or
-   *  deleted by this class.
+   *  deleted by this class. Returns null if the attributes are not available.
+   *  @throws java.io.FileNotFoundException if the file does not exist or if
+   *  the path represents a directory.
    */
-    private FileAttributes getFileAttributes() throws java.io.FileNotFoundException {
+    public FileAttributes getFileAttributes() throws java.io.FileNotFoundException {
         if (attr==null) lastAttrUpdate = 0;
 
-        if (attr==null || (new java.util.Date().getTime()-lastAttrUpdate)>1000){
+        if (attr==null || (attrTTL>=0 && (System.currentTimeMillis()-lastAttrUpdate)>=attrTTL)){
             try{
               //Get file attributes
                 String pathToFile = toString();
@@ -1534,7 +2307,7 @@ public class File implements Comparable {
                 if (attr.isDirectory()) throw new java.io.FileNotFoundException(pathToFile);
 
               //Set lastUpdate (used to cache file attributes)
-                lastAttrUpdate = new java.util.Date().getTime();
+                lastAttrUpdate = System.currentTimeMillis();
             }
             catch(java.io.FileNotFoundException e){
                 attr = null;
@@ -1549,6 +2322,22 @@ public class File implements Comparable {
     }
 
 
+  //**************************************************************************
+  //** setAttributeTTL
+  //**************************************************************************
+  /** Used to specify how long file attributes are cached. Changes made to
+   *  the file by this class always clear the cache. When caching is enabled,
+   *  files created from a directory listing reuse the attributes that were
+   *  read with the listing.
+   *  @param milliseconds Number of milliseconds to cache file attributes.
+   *  Default is 0 (no caching). A negative value will cache the attributes
+   *  until the file is updated by this class.
+   */
+    public void setAttributeTTL(long milliseconds){
+        attrTTL = milliseconds;
+    }
+
+
   //**************************************************************************
   //** loadDLL
   //**************************************************************************
@@ -1661,13 +2450,6 @@ public class File implements Comparable {
     }
 
 
-    /** Used to determine whether the JVM is running on Mac OS X. */
-    private static final boolean isOSX =
-            System.getProperty("os.name").toLowerCase().contains("os x");
-
-    private static final boolean isSolaris =
-            System.getProperty("os.name").toLowerCase().contains("sunos");
-
   /** Used to track load status. Null = no load attempted, True = successfully
    *  loaded the dll, False = failed to load dll (don't try again). Do not try
    *  to modify the value directly. Use the loadDLL() method instead.
@@ -1697,8 +2479,8 @@ public class File implements Comparable {
 //******************************************************************************
 /**
  *  Used to encapsulate extended file attributes. On unix and linux machines,
- *  this class is used to parse the output from ls. On windows, this class
- *  uses a JNI to return WIN32_FILE_ATTRIBUTE_DATA:
+ *  the attributes are read in a single call via java.nio. On windows, this
+ *  class uses a JNI to return WIN32_FILE_ATTRIBUTE_DATA:
  *
  <pre>
     typedef struct _WIN32_FILE_ATTRIBUTE_DATA {
@@ -1721,6 +2503,7 @@ public static class FileAttributes {
     private long size;
     private java.util.HashSet<String> flags = new java.util.HashSet<String>();
     private java.io.File link;
+    private java.nio.file.Path path; //<--Used to resolve flags on demand
 
     public FileAttributes(String path) throws java.io.FileNotFoundException, Exception {
 
@@ -1814,74 +2597,16 @@ public static class FileAttributes {
             }
             else{
 
-              //Failed to load the javaxt-core.dll. Fall back to the java.io.File object.
-                java.io.File f = new java.io.File(path);
-                if (!f.exists()) throw new java.io.FileNotFoundException(path);
-                size = f.length();
-                ftLastWriteTime = new java.util.Date(f.lastModified());
-                if (!f.canWrite()) flags.add("READONLY");
-                if (f.isHidden()) flags.add("HIDDEN");
-                if (f.isDirectory()) flags.add("DIRECTORY");
-
+              //Failed to load the javaxt-core.dll. Fall back to java.nio.
+                init(java.nio.file.Paths.get(path), null);
             }
         }
         else{//UNIX or LINIX Operating System
 
-
-            java.io.File f = new java.io.File(path);
-            if (!f.exists()) throw new java.io.FileNotFoundException(path);
-
-
-          //Execute ls command to get last access time and creation time
-            if (isOSX){
-                String[] params = new String[]{"ls", "-lauT", path};
-                javaxt.io.Shell cmd = new javaxt.io.Shell(params);
-                cmd.run();
-                java.util.Iterator<String> it = cmd.getOutput().iterator();
-                ftLastAccessTime = parseOSXDate(it);
-
-                params = new String[]{"ls", "-laUT", path};
-                cmd = new javaxt.io.Shell(params);
-                cmd.run();
-                it = cmd.getOutput().iterator();
-                ftCreationTime = parseOSXDate(it);
-            }
-            else if (isSolaris){
-                String[] params = new String[]{"ls", "-lauE", path};
-                javaxt.io.Shell cmd = new javaxt.io.Shell(params);
-                cmd.run();
-                java.util.Iterator<String> it = cmd.getOutput().iterator();
-                ftLastAccessTime = parseFullDate(it);
-            }
-            else{//Linux (e.g. Ubuntu)
-                String[] params = new String[]{"ls", "-lau", "--full-time", path};
-                javaxt.io.Shell cmd = new javaxt.io.Shell(params);
-                cmd.run();
-                java.util.Iterator<String> it = cmd.getOutput().iterator();
-                ftLastAccessTime = parseFullDate(it);
-
-                params = new String[]{"ls", "-laU", "--full-time", path};
-                cmd = new javaxt.io.Shell(params);
-                cmd.run();
-                it = cmd.getOutput().iterator();
-                ftCreationTime = parseFullDate(it);
-            }
-
-
-          //Set other attributes including last modified date
-            size = f.length();
-            ftLastWriteTime = new java.util.Date(f.lastModified());
-            if (!f.canWrite()) flags.add("READONLY");
-            if (f.isHidden()) flags.add("HIDDEN");
-            if (f.isDirectory()) flags.add("DIRECTORY");
-            try{
-                if (!f.getCanonicalFile().equals(f.getAbsoluteFile())){
-                    flags.add("REPARSE_POINT");
-                    link = f.getCanonicalFile();
-                }
-            }
-            catch(Exception e){
-            }
+          //Read all the attributes in a single call using java.nio. Note that
+          //we used to shell out to "ls" to get the last access and creation
+          //dates which was extremely slow.
+            init(java.nio.file.Paths.get(path), null);
         }
 
 
@@ -1898,47 +2623,126 @@ public static class FileAttributes {
 
     }
 
-    /** Used to extract a date from a ls output using the "--full-time" option. */
-    private java.util.Date parseFullDate(java.util.Iterator<String> it){
-        while (it.hasNext()){
-            String line = it.next();
-            if (line!=null){
-                while (line.contains("  ")) line = line.replace("  ", " ");
-                String[] arr = line.split(" ");
-                if (arr.length>7){
-                    try{
-                        if (arr[6].length()>8) arr[6] = arr[6].substring(0,8);
-                        String date = arr[5] + " " + arr[6] + " " + arr[7];
-                        return new javaxt.utils.Date(date, "yyyy-MM-dd HH:mm:ss z").getDate();
-                    }
-                    catch(Exception e){
-                    }
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+  /** Creates a new instance of this class using attributes that have already
+   *  been read from the file system (e.g. during a directory listing).
+   *  @param attrs Attributes for the path. If the path is a symbolic link,
+   *  the attributes should be for the link itself (i.e. NOFOLLOW_LINKS).
+   */
+    protected FileAttributes(java.nio.file.Path path, java.nio.file.attribute.BasicFileAttributes attrs)
+        throws java.io.FileNotFoundException, java.io.IOException {
+        init(path, attrs);
+    }
+
+
+  //**************************************************************************
+  //** init
+  //**************************************************************************
+  /** Used to parse file attributes returned by java.nio. On Windows, uses
+   *  DosFileAttributes to get the hidden, system, and archive flags. On
+   *  other platforms, uses PosixFileAttributes.
+   */
+    private void init(java.nio.file.Path path, java.nio.file.attribute.BasicFileAttributes attrs)
+        throws java.io.FileNotFoundException, java.io.IOException {
+
+        if (attrs==null) attrs = readAttributes(path, java.nio.file.LinkOption.NOFOLLOW_LINKS);
+
+
+      //Resolve symbolic links. Note that broken links are treated as missing
+      //files, consistent with java.io.File.exists().
+        if (attrs.isSymbolicLink()){
+            attrs = readAttributes(path);
+            flags.add("REPARSE_POINT");
+            link = path.toRealPath().toFile();
+        }
+
+
+      //Set size and dates
+        size = attrs.size();
+        ftLastWriteTime = new java.util.Date(attrs.lastModifiedTime().toMillis());
+        ftLastAccessTime = new java.util.Date(attrs.lastAccessTime().toMillis());
+        ftCreationTime = new java.util.Date(attrs.creationTime().toMillis());
+
+
+      //Set flags
+        if (attrs.isDirectory()) flags.add("DIRECTORY");
+        if (attrs instanceof java.nio.file.attribute.DosFileAttributes){
+            java.nio.file.attribute.DosFileAttributes dos = (java.nio.file.attribute.DosFileAttributes) attrs;
+            if (dos.isReadOnly()) flags.add("READONLY");
+            if (dos.isHidden()) flags.add("HIDDEN");
+            if (dos.isSystem()) flags.add("SYSTEM");
+            if (dos.isArchive()) flags.add("ARCHIVE");
+        }
+        else{
+            java.nio.file.Path name = path.getFileName();
+            if (name!=null && name.toString().startsWith(".")) flags.add("HIDDEN");
+
+          //Defer the READONLY and REPARSE_POINT checks until the flags are
+          //requested (see resolveFlags). Both checks require additional
+          //calls to the file system.
+            this.path = path;
+        }
+    }
+
+
+  //**************************************************************************
+  //** resolveFlags
+  //**************************************************************************
+  /** Used to add flags that are expensive to compute and are therefore not
+   *  set by the init() method. Permission bits don't tell us whether the
+   *  current user can write to the file (e.g. group membership, root,
+   *  read-only mounts) so we ask the file system directly. Files found under
+   *  a symbolic link (e.g. a linked parent directory) are flagged as a
+   *  REPARSE_POINT and linked to their real path.
+   */
+    private synchronized void resolveFlags(){
+        if (path==null) return;
+        try{
+            if (!java.nio.file.Files.isWritable(path)) flags.add("READONLY");
+            if (link==null){
+                java.nio.file.Path realPath = path.toRealPath();
+                if (!realPath.equals(path.toAbsolutePath().normalize())){
+                    flags.add("REPARSE_POINT");
+                    link = realPath.toFile();
                 }
             }
         }
-        return null;
+        catch(Exception e){
+        }
+        path = null;
     }
 
-    /** Used to extract a date from a ls output using the "T" option on OSX. */
-    private java.util.Date parseOSXDate(java.util.Iterator<String> it){
-        while (it.hasNext()){
-            String line = it.next();
-            if (line!=null){
-                while (line.contains("  ")) line = line.replace("  ", " ");
-                String[] arr = line.split(" ");
-                if (arr.length>10){
-                    try{
-                        String date = arr[5] + " " + arr[6] + " " + arr[7]+ " " + arr[8];
-                        return new javaxt.utils.Date(date, "MMM dd hh:mm:ss yyyy").getDate();
-                    }
-                    catch(Exception e){
-                    }
+
+  //**************************************************************************
+  //** readAttributes
+  //**************************************************************************
+    private static java.nio.file.attribute.BasicFileAttributes readAttributes(
+        java.nio.file.Path path, java.nio.file.LinkOption... options)
+        throws java.io.FileNotFoundException, java.io.IOException {
+        try{
+            if (isWindows){
+                return java.nio.file.Files.readAttributes(path,
+                java.nio.file.attribute.DosFileAttributes.class, options);
+            }
+            else{
+                try{
+                    return java.nio.file.Files.readAttributes(path,
+                    java.nio.file.attribute.PosixFileAttributes.class, options);
+                }
+                catch(UnsupportedOperationException e){
+                    return java.nio.file.Files.readAttributes(path,
+                    java.nio.file.attribute.BasicFileAttributes.class, options);
                 }
             }
         }
-        return null;
+        catch(java.nio.file.NoSuchFileException e){
+            throw new java.io.FileNotFoundException(path.toString());
+        }
     }
 
+
     public long getSize(){
         return size;
     }
@@ -1958,12 +2762,15 @@ public static class FileAttributes {
         return flags.contains("HIDDEN");
     }
     public boolean isReadOnly(){
+        resolveFlags();
         return flags.contains("READONLY");
     }
     public java.util.HashSet<String> getFlags(){
+        resolveFlags();
         return flags;
     }
     public java.io.File getLink(){
+        resolveFlags();
         return link;
     }
 
@@ -2059,6 +2866,70 @@ public static class FileAttributes {
 }// End FileAttributes Class
 
 
+//******************************************************************************
+//**  Entry Class
+//******************************************************************************
+/**
+ *   Used to represent an item returned from a directory listing. Unlike a
+ *   regular java.io.File, the Entry carries the file attributes that were
+ *   read with the listing so that calls to isDirectory(), length(), etc. do
+ *   not need to hit the file system again. Note that the attributes reflect
+ *   the state of the file when the listing was generated.
+ *
+ ******************************************************************************/
+
+static class Entry extends java.io.File {
+
+    private static final long serialVersionUID = 1;
+    private FileAttributes attr;
+    private long timestamp;
+
+    protected Entry(java.nio.file.Path path, java.nio.file.attribute.BasicFileAttributes attrs){
+        super(path.toString());
+        timestamp = System.currentTimeMillis();
+        try{
+            attr = new FileAttributes(path, attrs);
+        }
+        catch(Exception e){
+            //e.g. broken symlink
+        }
+    }
+
+    public FileAttributes getFileAttributes(){
+        return attr;
+    }
+
+    public long getTimestamp(){
+        return timestamp;
+    }
+
+    public boolean exists(){
+        return attr==null ? super.exists() : true;
+    }
+
+    public boolean isDirectory(){
+        return attr==null ? super.isDirectory() : attr.isDirectory();
+    }
+
+    public boolean isFile(){
+        return attr==null ? super.isFile() : !attr.isDirectory();
+    }
+
+    public boolean isHidden(){
+        return attr==null ? super.isHidden() : attr.isHidden();
+    }
+
+    public long length(){
+        return attr==null ? super.length() : attr.getSize();
+    }
+
+    public long lastModified(){
+        return attr==null ? super.lastModified() : attr.getLastWriteTime().getTime();
+    }
+
+}//End Entry Class
+
+
 //******************************************************************************
 //**  LnkParser Class
 //******************************************************************************
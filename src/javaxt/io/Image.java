@@ -2,6 +2,7 @@ package javaxt.io;
 import java.io.*;
 import javax.imageio.*;
 import javax.imageio.metadata.*;
+import javax.imageio.stream.*;
 
 import java.awt.image.*;
 import java.awt.color.ColorSpace;
@@ -51,6 +52,11 @@ public class Image {
     public static String[] OutputFormats = getFormats(ImageIO.getWriterFormatNames());
 
 
+    public static final int BILINEAR = 1;
+    public static final int BICUBIC = 2;
+    public static final int LANCZOS3 = 3;
+
+
     private IIOMetadata metadata;
     private HashMap<Integer, Object> exif;
     private HashMap<Integer, Object> iptc;
@@ -77,6 +83,58 @@ public class Image {
         createBufferedImage(InputStream);
     }
 
+
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+  /** Creates a new instance of this class using an image file, scaled to
+   *  fit within a given width and height. This is significantly faster and
+   *  uses much less memory than opening the full image and calling resize()
+   *  because the decoder only reads the pixels needed to create the scaled
+   *  image (see ImageReadParam.setSourceSubsampling). The original aspect
+   *  ratio is maintained. Images that are smaller than the given width and
+   *  height are not enlarged.
+   *  @param maxWidth Maximum width of the image
+   *  @param maxHeight Maximum height of the image
+   */
+    public Image(java.io.File file, int maxWidth, int maxHeight){
+        this(file, null, maxWidth, maxHeight);
+    }
+
+
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+  /** Creates a new instance of this class using a region of an image file,
+   *  scaled to fit within a given width and height. Only the pixels in the
+   *  region are decoded.
+   *  @param region Rectangle defining the area of the image to read, in
+   *  pixels. If null, the entire image is read.
+   *  @param maxWidth Maximum width of the image. If zero or less, the
+   *  region is returned at full resolution.
+   *  @param maxHeight Maximum height of the image. If zero or less, the
+   *  region is returned at full resolution.
+   */
+    public Image(java.io.File file, Rectangle region, int maxWidth, int maxHeight){
+        if (!file.exists()) throw new IllegalArgumentException("Input file not found.");
+        try{ createBufferedImage(new FileInputStream(file), region, maxWidth, maxHeight); }
+        catch(Exception e){}
+        fit(maxWidth, maxHeight);
+    }
+
+
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+  /** Creates a new instance of this class using an input stream, scaled to
+   *  fit within a given width and height. See Image(java.io.File, int, int)
+   *  for more information.
+   */
+    public Image(java.io.InputStream InputStream, int maxWidth, int maxHeight){
+        createBufferedImage(InputStream, null, maxWidth, maxHeight);
+        fit(maxWidth, maxHeight);
+    }
+
     public Image(byte[] byteArray){
         this(new ByteArrayInputStream(byteArray));
     }
@@ -423,33 +481,49 @@ public class Image {
     public java.util.ArrayList<int[]> getHistogram(){
 
       //Create empty histograms
-        int[] red = new int[256];
-        int[] green = new int[256];
-        int[] blue = new int[256];
-        int[] average = new int[256];
-
-        for (int i=0; i<red.length; i++) red[i] = 0;
-        for (int i=0; i<green.length; i++) green[i] = 0;
-        for (int i=0; i<blue.length; i++) blue[i] = 0;
-        for (int i=0; i<average.length; i++) average[i] = 0;
-
-
-      //Populate the histograms
-        for (int i=0; i<this.getWidth(); i++){
-            for (int j=0; j<this.getHeight(); j++){
-                Color color = this.getColor(i, j);
-                int r = color.getRed();
-                int g = color.getGreen();
-                int b = color.getBlue();
-
-                red[r] = red[r]+1;
-                green[g] = green[g]+1;
-                blue[b] = blue[b]+1;
+        final int[] red = new int[256];
+        final int[] green = new int[256];
+        final int[] blue = new int[256];
+        final int[] average = new int[256];
+
+
+      //Populate the histograms. Each band of rows is counted separately and
+      //then added to the totals.
+        final BufferedImage img = bufferedImage;
+        final int width = img.getWidth();
+        processRows(img.getHeight(), new RowProcessor(){
+            public void process(int startRow, int endRow){
+                int[] r = new int[256];
+                int[] g = new int[256];
+                int[] b = new int[256];
+                int[] avg = new int[256];
+
+                PixelRows rows = new PixelRows(img);
+                int[] row = new int[width];
+                for (int y=startRow; y<endRow; y++){
+                    rows.read(y, row);
+                    for (int x=0; x<width; x++){
+                        int pixel = row[x];
+                        int red = (pixel >> 16) & 0xff;
+                        int green = (pixel >> 8) & 0xff;
+                        int blue = (pixel) & 0xff;
+                        r[red]++;
+                        g[green]++;
+                        b[blue]++;
+                        avg[(red+green+blue)/3]++;
+                    }
+                }
 
-                int avg = Math.round((r+g+b)/3);
-                average[avg] = average[avg]+1;
+                synchronized(average){
+                    for (int i=0; i<256; i++){
+                        red[i] += r[i];
+                        green[i] += g[i];
+                        blue[i] += b[i];
+                        average[i] += avg[i];
+                    }
+                }
             }
-        }
+        });
 
         java.util.ArrayList<int[]> hist = new java.util.ArrayList<int[]>();
         hist.add(red);
@@ -460,6 +534,95 @@ public class Image {
     }
 
 
+  //**************************************************************************
+  //** forEachPixel
+  //**************************************************************************
+  /** Used to iterate through all the pixels in the image. Pixels are read
+   *  directly from the raster, one row at a time, and passed to the visitor
+   *  as ARGB values (same as getColor). Large images are split into bands
+   *  of rows that are processed in parallel so the visitor must be thread
+   *  safe. Example:
+   <pre>
+    final java.util.concurrent.atomic.AtomicLong numRed = new java.util.concurrent.atomic.AtomicLong();
+    image.forEachPixel(new Image.PixelVisitor(){
+        public void visit(int x, int y, int argb){
+            if ((argb & 0xffffff)==0xff0000) numRed.incrementAndGet();
+        }
+    });
+   </pre>
+   */
+    public void forEachPixel(final PixelVisitor visitor){
+        final BufferedImage img = bufferedImage;
+        final int width = img.getWidth();
+        processRows(img.getHeight(), new RowProcessor(){
+            public void process(int startRow, int endRow){
+                PixelRows rows = new PixelRows(img);
+                int[] row = new int[width];
+                for (int y=startRow; y<endRow; y++){
+                    rows.read(y, row);
+                    for (int x=0; x<width; x++){
+                        visitor.visit(x, y, row[x]);
+                    }
+                }
+            }
+        });
+    }
+
+
+  //**************************************************************************
+  //** updatePixels
+  //**************************************************************************
+  /** Used to update all the pixels in the image. Each pixel is passed to the
+   *  filter as an ARGB value and is replaced with the ARGB value returned by
+   *  the filter. Like forEachPixel(), large images are processed in
+   *  parallel so the filter must be thread safe. Example:
+   <pre>
+    image.updatePixels(new Image.PixelFilter(){
+        public int filter(int x, int y, int argb){
+            return argb ^ 0x00ffffff; //invert colors
+        }
+    });
+   </pre>
+   */
+    public void updatePixels(final PixelFilter filter){
+        final BufferedImage img = bufferedImage;
+        final int width = img.getWidth();
+        processRows(img.getHeight(), new RowProcessor(){
+            public void process(int startRow, int endRow){
+                PixelRows rows = new PixelRows(img);
+                int[] row = new int[width];
+                for (int y=startRow; y<endRow; y++){
+                    rows.read(y, row);
+                    for (int x=0; x<width; x++){
+                        row[x] = filter.filter(x, y, row[x]);
+                    }
+                    rows.write(y, row);
+                }
+            }
+        });
+    }
+
+
+  //**************************************************************************
+  //** PixelVisitor Interface
+  //**************************************************************************
+  /** Used to process pixels returned by the forEachPixel() method.
+   */
+    public static interface PixelVisitor {
+        public void visit(int x, int y, int argb);
+    }
+
+
+  //**************************************************************************
+  //** PixelFilter Interface
+  //**************************************************************************
+  /** Used to update pixels using the updatePixels() method.
+   */
+    public static interface PixelFilter {
+        public int filter(int x, int y, int argb);
+    }
+
+
   //**************************************************************************
   //** addImage
   //**************************************************************************
@@ -552,13 +715,31 @@ public class Image {
   /** Used to create a BufferedImage from a InputStream
    */
     private void createBufferedImage(java.io.InputStream input) {
+        createBufferedImage(input, null, 0, 0);
+    }
+
+
+  //**************************************************************************
+  //** createBufferedImage
+  //**************************************************************************
+  /** Used to decode an image, or a region of an image, at reduced
+   *  resolution. The subsampling factor is chosen so that the decoded image
+   *  is at least twice the requested size. Decoding at twice the size avoids
+   *  aliasing from the subsampling, which simply skips pixels. Callers are
+   *  expected to resize the image to the requested size (see fit). The
+   *  input stream is closed when this method returns, even if the image
+   *  could not be decoded.
+   */
+    private void createBufferedImage(java.io.InputStream input, Rectangle region, int maxWidth, int maxHeight) {
         try{
             //bufferedImage = ImageIO.read(input);
 
             javax.imageio.stream.ImageInputStream stream = ImageIO.createImageInputStream(input);
+            if (stream==null) return;
 
             Iterator iter = ImageIO.getImageReaders(stream);
             if (!iter.hasNext()) {
+                stream.close();
                 return;
             }
 
@@ -567,6 +748,21 @@ public class Image {
             reader.setInput(stream, true, true);
 
             try {
+                if (region!=null || (maxWidth>0 && maxHeight>0)){
+
+                  //Get the size of the image or region (reads the header)
+                    Rectangle rect = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+                    if (region!=null){
+                        rect = rect.intersection(region);
+                        if (rect.isEmpty()) throw new IllegalArgumentException("Invalid region");
+                        param.setSourceRegion(rect);
+                    }
+
+                  //Set subsampling
+                    int n = getSubsampling(rect.width, rect.height, maxWidth, maxHeight);
+                    if (n>1) param.setSourceSubsampling(n, n, 0, 0);
+                }
+
                 bufferedImage = reader.read(0, param);
                 metadata = reader.getImageMetadata(0);
             }
@@ -574,13 +770,62 @@ public class Image {
                 reader.dispose();
                 stream.close();
             }
-
-
-            input.close();
         }
         catch(Exception e){
             //e.printStackTrace();
         }
+        finally{
+            try{ input.close(); }
+            catch(Exception e){}
+        }
+    }
+
+
+  //**************************************************************************
+  //** getSubsampling
+  //**************************************************************************
+  /** Returns the subsampling factor used to decode an image so that it is at
+   *  least twice the given width and height. Returns 1 if the image should
+   *  be decoded at full resolution.
+   */
+    static int getSubsampling(int width, int height, int maxWidth, int maxHeight){
+        if (maxWidth<=0 || maxHeight<=0) return 1;
+        double scale = Math.min((double)width/maxWidth, (double)height/maxHeight);
+        int n = (int) Math.floor(scale/2);
+        return n>1 ? n : 1;
+    }
+
+
+  //**************************************************************************
+  //** decode
+  //**************************************************************************
+  /** Used to decode an image file at a reduced resolution. Unlike the
+   *  Image(java.io.File, int, int) constructor, the image is not resized to
+   *  the given width and height. Instead, the image is at least twice the
+   *  given width and height (unless the image is smaller), leaving the
+   *  caller to resize it.
+   *  @throws java.io.IOException if the file could not be decoded
+   */
+    static Image decode(java.io.File file, int width, int height) throws java.io.IOException {
+        Image image = new Image((BufferedImage) null);
+        image.createBufferedImage(new FileInputStream(file), null, width, height);
+        if (image.bufferedImage==null) throw new java.io.IOException("Failed to decode " + file);
+        return image;
+    }
+
+
+  //**************************************************************************
+  //** fit
+  //**************************************************************************
+  /** Used to shrink the image so that it fits within a given width and
+   *  height. Images that are already smaller are not resized.
+   */
+    private void fit(int maxWidth, int maxHeight){
+        if (bufferedImage!=null && maxWidth>0 && maxHeight>0){
+            if (getWidth()>maxWidth || getHeight()>maxHeight){
+                resize(maxWidth, maxHeight, true);
+            }
+        }
     }
 
 
@@ -592,6 +837,15 @@ public class Image {
    */
     public void rotate(double Degrees){
 
+      //Use a lossless transform for right angles
+        if (Degrees % 90 == 0){
+            int quarterTurns = (int) ((Degrees/90) % 4);
+            if (quarterTurns<0) quarterTurns += 4;
+            if (quarterTurns>0) transform(quarterTurns, false);
+            return;
+        }
+
+
       //Define Image Center (Axis of Rotation)
         int width = this.getWidth();
         int height = this.getHeight();
@@ -685,21 +939,12 @@ public class Image {
   //** rotate
   //**************************************************************************
   /** Used to automatically rotate the image based on the image metadata
-   *  (e.g. EXIF Orientation tag)
+   *  (e.g. EXIF Orientation tag). Pixels are moved without resampling so
+   *  this is a relatively cheap, lossless operation.
    */
     public void rotate(){
         try {
-            Integer orientation = (Integer) getExifTags().get(0x0112);
-            switch (orientation) {
-                case 1: return; //"Top, left side (Horizontal / normal)"
-                case 2: flip(); break; //"Top, right side (Mirror horizontal)";
-                case 3: rotate(180); break; //"Bottom, right side (Rotate 180)";
-                case 4: {flip(); rotate(180);} break; //"Bottom, left side (Mirror vertical)";
-                case 5: {flip(); rotate(270);} break; //"Left side, top (Mirror horizontal and rotate 270 CW)";
-                case 6: rotate(90); break; //"Right side, top (Rotate 90 CW)";
-                case 7: {flip(); rotate(90);} break; //"Right side, bottom (Mirror horizontal and rotate 90 CW)";
-                case 8: rotate(270); break; //"Left side, bottom (Rotate 270 CW)";
-            }
+            setOrientation((Integer) getExifTags().get(0x0112));
         }
         catch(Exception e){
             //Failed to parse exif orientation.
@@ -707,6 +952,155 @@ public class Image {
     }
 
 
+  //**************************************************************************
+  //** setOrientation
+  //**************************************************************************
+  /** Used to rotate and/or flip the image using an EXIF orientation value
+   *  (tag 0x0112). See rotate().
+   */
+    void setOrientation(int orientation){
+        switch (orientation) {
+            case 1: return; //"Top, left side (Horizontal / normal)"
+            case 2: transform(0, true); break; //"Top, right side (Mirror horizontal)";
+            case 3: transform(2, false); break; //"Bottom, right side (Rotate 180)";
+            case 4: transform(2, true); break; //"Bottom, left side (Mirror vertical)";
+            case 5: transform(3, true); break; //"Left side, top (Mirror horizontal and rotate 270 CW)";
+            case 6: transform(1, false); break; //"Right side, top (Rotate 90 CW)";
+            case 7: transform(1, true); break; //"Right side, bottom (Mirror horizontal and rotate 90 CW)";
+            case 8: transform(3, false); break; //"Left side, bottom (Rotate 270 CW)";
+        }
+    }
+
+
+  //**************************************************************************
+  //** transform
+  //**************************************************************************
+  /** Used to mirror and/or rotate the image by a multiple of 90 degrees.
+   *  Pixels are copied from the raster in square tiles so both the reads
+   *  and writes stay cache friendly. The image type and color model are
+   *  preserved.
+   *  @param quarterTurns Number of 90 degree clockwise turns (0-3)
+   *  @param flip If true, the image is mirrored horizontally before it is
+   *  rotated.
+   */
+    private void transform(int quarterTurns, boolean flip){
+        final BufferedImage src = bufferedImage;
+        final int width = src.getWidth();
+        final int height = src.getHeight();
+        final boolean transpose = (quarterTurns % 2 == 1);
+
+
+      //Create output image using the same color model and raster layout as
+      //the source
+        ColorModel cm = src.getColorModel();
+        final BufferedImage dst = new BufferedImage(cm,
+            src.getRaster().createCompatibleWritableRaster(transpose ? height : width, transpose ? width : height),
+            cm.isAlphaPremultiplied(), null);
+        final int dstWidth = dst.getWidth();
+
+
+      //Map source coordinates to output coordinates: x' = a*x + b*y + c and
+      //y' = d*x + e*y + f
+        int a = 1, b = 0, c = 0, d = 0, e = 1, f = 0;
+        if (flip){
+            a = -1;
+            c = width-1;
+        }
+        for (int i=0; i<quarterTurns; i++){
+            //Rotate 90 CW: x' = (h-1)-y, y' = x where h is the current height
+            int h = (i % 2 == 0) ? height : width;
+            int a2 = -d, b2 = -e, c2 = (h-1)-f;
+            d = a; e = b; f = c;
+            a = a2; b = b2; c = c2;
+        }
+        final int[] m = new int[]{a, b, c, d, e, f};
+
+
+      //Copy tiles
+        final int tileSize = 64;
+        final int numDataElements = src.getRaster().getNumDataElements();
+        processRows((height+tileSize-1)/tileSize, new RowProcessor(){
+            public void process(int startRow, int endRow){
+                WritableRaster in = src.getRaster();
+                WritableRaster out = dst.getRaster();
+                Object srcTile = null;
+                Object dstTile = null;
+
+                for (int ty=startRow*tileSize; ty<Math.min(endRow*tileSize, height); ty+=tileSize){
+                    int th = Math.min(tileSize, height-ty);
+                    for (int tx=0; tx<width; tx+=tileSize){
+                        int tw = Math.min(tileSize, width-tx);
+
+
+                      //Find the output tile
+                        int x0 = m[0]*tx + m[1]*ty + m[2];
+                        int y0 = m[3]*tx + m[4]*ty + m[5];
+                        int x1 = m[0]*(tx+tw-1) + m[1]*(ty+th-1) + m[2];
+                        int y1 = m[3]*(tx+tw-1) + m[4]*(ty+th-1) + m[5];
+                        int dx = Math.min(x0, x1);
+                        int dy = Math.min(y0, y1);
+                        int dw = Math.abs(x1-x0)+1;
+
+
+                      //Compute the offset and step sizes in the output tile
+                        int start = (y0-dy)*dw + (x0-dx);
+                        int stepX = m[0] + m[3]*dw;
+                        int stepY = m[1] + m[4]*dw;
+
+
+                      //Copy pixels
+                        srcTile = in.getDataElements(tx, ty, tw, th, srcTile);
+                        if (dstTile==null) dstTile = in.getDataElements(0, 0, Math.min(tileSize, width), Math.min(tileSize, height), null);
+                        copyTile(srcTile, dstTile, tw, th, numDataElements, start, stepX, stepY);
+                        out.setDataElements(dx, dy, transpose ? th : tw, transpose ? tw : th, dstTile);
+                    }
+                }
+            }
+        });
+
+        bufferedImage = dst;
+    }
+
+
+  //**************************************************************************
+  //** copyTile
+  //**************************************************************************
+  /** Used to copy pixels from one tile to another. Pixels in the source tile
+   *  are read in order and written to the output tile, starting at a given
+   *  offset, using the given step sizes (in pixels) for columns and rows.
+   */
+    private static void copyTile(Object src, Object dst, int w, int h, int n,
+        int start, int stepX, int stepY){
+
+        if (src instanceof int[] && n==1){
+            int[] in = (int[]) src;
+            int[] out = (int[]) dst;
+            for (int y=0, i=0; y<h; y++){
+                for (int x=0, j=start+y*stepY; x<w; x++, j+=stepX){
+                    out[j] = in[i++];
+                }
+            }
+        }
+        else if (src instanceof byte[]){
+            byte[] in = (byte[]) src;
+            byte[] out = (byte[]) dst;
+            for (int y=0, i=0; y<h; y++){
+                for (int x=0, j=start+y*stepY; x<w; x++, j+=stepX){
+                    int k = j*n;
+                    for (int b=0; b<n; b++) out[k+b] = in[i++];
+                }
+            }
+        }
+        else{
+            for (int y=0, i=0; y<h; y++){
+                for (int x=0, j=start+y*stepY; x<w; x++, j+=stepX, i+=n){
+                    System.arraycopy(src, i, dst, j*n, n);
+                }
+            }
+        }
+    }
+
+
   //**************************************************************************
   //** setWidth
   //**************************************************************************
@@ -760,11 +1154,34 @@ public class Image {
   //** resize
   //**************************************************************************
   /** Used to resize an image. Provides the option to maintain the original
-   *  aspect ratio.
+   *  aspect ratio. The image is resampled using a Lanczos3 filter.
    *  @param maintainRatio If true, will interpret the given width and height
    *  as maximum desired width and height
    */
     public void resize(int width, int height, boolean maintainRatio){
+        resize(width, height, maintainRatio, LANCZOS3);
+    }
+
+
+  //**************************************************************************
+  //** resize
+  //**************************************************************************
+  /** Used to resize an image using a given resampling method. The image is
+   *  resampled directly from the raster data. Rows are processed in parallel.
+   *  The type of the resized image is the same as the original (see
+   *  getImageType).
+   *  @param maintainRatio If true, will interpret the given width and height
+   *  as maximum desired width and height
+   *  @param method Resampling method. Options include:
+   *  <ul>
+   *  <li>Image.BILINEAR - Fastest. The image is repeatedly halved until it
+   *  is less than twice the requested size, then resampled with a bilinear
+   *  filter.</li>
+   *  <li>Image.BICUBIC - Catmull-Rom cubic filter.</li>
+   *  <li>Image.LANCZOS3 - Slowest but sharpest.</li>
+   *  </ul>
+   */
+    public void resize(int width, int height, boolean maintainRatio, int method){
 
 
         if (maintainRatio){
@@ -806,17 +1223,62 @@ public class Image {
 
 
       //Resize the image (create new buffered image)
-        java.awt.Image outputImage = bufferedImage.getScaledInstance(width, height, BufferedImage.SCALE_AREA_AVERAGING);
-        BufferedImage bi = new BufferedImage(width, height, getImageType());
-        Graphics2D g2d = bi.createGraphics( );
-        g2d.drawImage(outputImage, 0, 0, null);
-        g2d.dispose();
+        if (width<1) width = 1;
+        if (height<1) height = 1;
+        this.bufferedImage = Resampler.resize(bufferedImage, width, height, method);
+    }
 
-        this.bufferedImage = bi;
 
-        outputImage = null;
-        bi = null;
-        g2d = null;
+  //**************************************************************************
+  //** RowProcessor Interface
+  //**************************************************************************
+  /** Used to process a range of rows in an image. See processRows().
+   */
+    private static interface RowProcessor {
+        public void process(int startRow, int endRow);
+    }
+
+
+  //**************************************************************************
+  //** processRows
+  //**************************************************************************
+  /** Used to split rows into bands and process them in parallel using the
+   *  common ForkJoinPool. Small images are processed in the calling thread.
+   */
+    private static void processRows(int numRows, RowProcessor processor){
+        int numThreads = java.util.concurrent.ForkJoinPool.getCommonPoolParallelism();
+        int bandSize = Math.max(16, (numRows+numThreads*4-1)/(numThreads*4));
+        if (numThreads<2 || numRows<=bandSize){
+            processor.process(0, numRows);
+        }
+        else{
+            java.util.concurrent.ForkJoinPool.commonPool().invoke(
+            new RowTask(processor, 0, numRows, bandSize));
+        }
+    }
+
+    private static class RowTask extends java.util.concurrent.RecursiveAction {
+        private static final long serialVersionUID = 1;
+        private final RowProcessor processor;
+        private final int start, end, bandSize;
+
+        public RowTask(RowProcessor processor, int start, int end, int bandSize){
+            this.processor = processor;
+            this.start = start;
+            this.end = end;
+            this.bandSize = bandSize;
+        }
+
+        protected void compute(){
+            if (end-start<=bandSize){
+                processor.process(start, end);
+            }
+            else{
+                int mid = (start+end)>>>1;
+                invokeAll(new RowTask(processor, start, mid, bandSize),
+                          new RowTask(processor, mid, end, bandSize));
+            }
+        }
     }
 
 
@@ -877,24 +1339,39 @@ public class Image {
   //**************************************************************************
   //** Sharpen
   //**************************************************************************
-  /** Used to sharpen the image using a 3x3 kernel.
+  /** Used to sharpen the image using a 3x3 kernel. On multi-core machines,
+   *  rows are split into bands and each band is convolved in parallel with
+   *  a one row overlap so the results match a single ConvolveOp.
    */
     public void sharpen(){
 
-        int width = this.getWidth();
-        int height = this.getHeight();
+        final int width = this.getWidth();
+        final int height = this.getHeight();
+        final int imageType = getImageType();
+
 
-      //define kernel
-        Kernel kernel = new Kernel(3, 3,
-            new float[] {
-             0.0f, -0.2f,  0.0f,
-            -0.2f,  1.8f, -0.2f,
-             0.0f, -0.2f,  0.0f });
+      //apply convolution. Indexed images are filtered in one pass since
+      //ConvolveOp dithers the output.
+        final BufferedImage src = bufferedImage;
+        final BufferedImage out = new BufferedImage(width, height, imageType);
+        if (java.util.concurrent.ForkJoinPool.getCommonPoolParallelism()<2 ||
+            src.getColorModel() instanceof IndexColorModel){
+            new ConvolveOp(new Kernel(3, 3, SHARPEN_KERNEL)).filter(src, out);
+        }
+        else{
+            processRows(height, new RowProcessor(){
+                public void process(int startRow, int endRow){
+                    int y0 = Math.max(0, startRow-1);
+                    int y1 = Math.min(height, endRow+1);
+                    BufferedImage band = new BufferedImage(width, y1-y0, imageType);
+                    new ConvolveOp(new Kernel(3, 3, SHARPEN_KERNEL)).filter(
+                        src.getSubimage(0, y0, width, y1-y0), band);
+                    out.getRaster().setRect(0, startRow, band.getRaster().createChild(
+                        0, startRow-y0, width, endRow-startRow, 0, 0, null));
+                }
+            });
+        }
 
-      //apply convolution
-        BufferedImage out = new BufferedImage(width, height, getImageType());
-        BufferedImageOp op = new ConvolveOp(kernel);
-        out = op.filter(bufferedImage, out);
 
       //replace 2 pixel border created via convolution
         java.awt.Image overlay = out.getSubimage(2,2,width-4,height-4);
@@ -903,19 +1380,56 @@ public class Image {
         g2d.dispose();
     }
 
+    private static final float[] SHARPEN_KERNEL = new float[] { //must be symmetric
+         0.0f, -0.2f,  0.0f,
+        -0.2f,  1.8f, -0.2f,
+         0.0f, -0.2f,  0.0f };
+
 
   //**************************************************************************
   //** blur
   //**************************************************************************
-  /** Used to blur the image using a Gaussian kernel.
+  /** Used to blur the image using a Gaussian kernel. The kernel is applied
+   *  twice, once horizontally and once vertically. Rows are processed in
+   *  parallel.
    */
     public void blur(float radius){
 
+        float[] matrix = getBlurKernel(radius);
+        int width = this.getWidth();
+        int height = this.getHeight();
+
+        byte[] samples = getSamples(bufferedImage);
+        if (samples!=null){
+            int numChannels = bufferedImage.getRaster().getNumDataElements();
+            byte[] tmp = new byte[samples.length];
+            convolve(matrix, samples, tmp, width, height, numChannels, true);
+            convolve(matrix, tmp, samples, width, height, numChannels, false);
+            bufferedImage.getRaster().setDataElements(0, 0, width, height, samples);
+        }
+        else{
+            int[] pixels = getPixels(bufferedImage, null);
+            int[] tmp = new int[pixels.length];
+            convolve(matrix, pixels, tmp, width, height, true);
+            convolve(matrix, tmp, pixels, width, height, false);
+            setPixels(bufferedImage, pixels);
+        }
+    }
+
+
+  //**************************************************************************
+  //** getBlurKernel
+  //**************************************************************************
+  /** Returns a 1D Gaussian kernel for a given radius. Kernels are cached so
+   *  they can be reused.
+   */
+    private static float[] getBlurKernel(float radius){
+        float[] matrix = blurKernels.get(radius);
+        if (matrix!=null) return matrix;
 
-      //Create kernel
         int r = (int)Math.ceil(radius);
         int rows = r*2+1;
-        float[] matrix = new float[rows];
+        matrix = new float[rows];
         float sigma = radius/3;
         float sigma22 = 2*sigma*sigma;
         float sigmaPi2 = (float)(2*Math.PI*sigma);
@@ -935,137 +1449,381 @@ public class Image {
         for (int i = 0; i < rows; i++)
             matrix[i] /= total;
 
-        Kernel kernel = new Kernel(rows, 1, matrix);
+        if (blurKernels.size()>64) blurKernels.clear();
+        blurKernels.put(radius, matrix);
+        return matrix;
+    }
+
+    private static final java.util.concurrent.ConcurrentHashMap<Float, float[]> blurKernels =
+    new java.util.concurrent.ConcurrentHashMap<>();
 
 
-      //
-        int width = this.getWidth();
-        int height = this.getHeight();
-        int[] inPixels = new int[width*height];
-        int[] outPixels = new int[width*height];
-        bufferedImage.getRGB( 0, 0, width, height, inPixels, 0, width );
-        convolveAndTranspose(kernel, inPixels, outPixels, width, height, true, CLAMP_EDGES);
-        convolveAndTranspose(kernel, outPixels, inPixels, height, width, true, CLAMP_EDGES);
-        bufferedImage.setRGB( 0, 0, width, height, inPixels, 0, width );
-    }
-
-    private static int CLAMP_EDGES = 1;
-    private static int WRAP_EDGES = 2;
-
-
-  //**************************************************************************
-  //** convolveAndTranspose
-  //**************************************************************************
-  /** Applies 1D Gaussian kernel used to blur an image. This filter should be
-   *  applied twice, once horizontally and once vertically.
-   *  @author Jerry Huxtable
-   */
-    private static void convolveAndTranspose(Kernel kernel, int[] inPixels, int[] outPixels,
-        int width, int height, boolean alpha, int edgeAction) {
-
-
-        float[] matrix = kernel.getKernelData( null );
-        int cols = kernel.getWidth();
-        int cols2 = cols/2;
-
-        for (int y = 0; y < height; y++) {
-            int index = y;
-            int ioffset = y*width;
-            for (int x = 0; x < width; x++) {
-                float r = 0, g = 0, b = 0, a = 0;
-                int moffset = cols2;
-                for (int col = -cols2; col <= cols2; col++) {
-                    float f = matrix[moffset+col];
-
-                    if (f != 0) {
-                        int ix = x+col;
-                        if ( ix < 0 ) {
-                            if ( edgeAction == CLAMP_EDGES )
-                                    ix = 0;
-                            else if ( edgeAction == WRAP_EDGES )
-                                    ix = (x+width) % width;
-                        } else if ( ix >= width) {
-                            if ( edgeAction == CLAMP_EDGES )
-                                    ix = width-1;
-                            else if ( edgeAction == WRAP_EDGES )
-                                    ix = (x+width) % width;
+  //**************************************************************************
+  //** convolve
+  //**************************************************************************
+  /** Applies a 1D kernel to an array of packed pixels, either horizontally
+   *  or vertically. Pixels outside the image are clamped to the edges. Rows
+   *  are processed in parallel. Adapted from the convolveAndTranspose()
+   *  method by Jerry Huxtable. The output is the same but rows and columns
+   *  are read and written in order which is much faster for large images.
+   */
+    private static void convolve(final float[] matrix, final int[] inPixels, final int[] outPixels,
+        final int width, final int height, final boolean horizontal) {
+
+        final int cols2 = matrix.length/2;
+        final int max = horizontal ? width-1 : height-1;
+
+        processRows(height, new RowProcessor(){
+            public void process(int startRow, int endRow){
+                for (int y=startRow; y<endRow; y++){
+                    int offset = y*width;
+                    for (int x=0; x<width; x++){
+                        float r = 0, g = 0, b = 0, a = 0;
+                        int pos = horizontal ? x : y;
+                        for (int col=-cols2; col<=cols2; col++){
+                            float f = matrix[cols2+col];
+                            if (f != 0) {
+                                int i = pos+col;
+                                if (i<0) i = 0;
+                                else if (i>max) i = max;
+                                int rgb = horizontal ? inPixels[offset+i] : inPixels[i*width+x];
+                                a += f * ((rgb >> 24) & 0xff);
+                                r += f * ((rgb >> 16) & 0xff);
+                                g += f * ((rgb >> 8) & 0xff);
+                                b += f * (rgb & 0xff);
+                            }
                         }
-                        int rgb = inPixels[ioffset+ix];
-                        a += f * ((rgb >> 24) & 0xff);
-                        r += f * ((rgb >> 16) & 0xff);
-                        g += f * ((rgb >> 8) & 0xff);
-                        b += f * (rgb & 0xff);
+                        int ia = clamp((int)(a+0.5));
+                        int ir = clamp((int)(r+0.5));
+                        int ig = clamp((int)(g+0.5));
+                        int ib = clamp((int)(b+0.5));
+                        outPixels[offset+x] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
                     }
                 }
-                int ia = alpha ? clamp((int)(a+0.5)) : 0xff;
-                int ir = clamp((int)(r+0.5));
-                int ig = clamp((int)(g+0.5));
-                int ib = clamp((int)(b+0.5));
-                outPixels[index] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
-                index += height;
             }
-        }
+        });
     }
 
 
   //**************************************************************************
-  //** clamp
+  //** convolve
   //**************************************************************************
-  /** Clamp a value to the range 0..255
+  /** Applies a 1D kernel to an array of interleaved samples (e.g. BGR),
+   *  either horizontally or vertically. See the other convolve() method.
    */
-    private static int clamp(int c) {
-        if (c < 0) return 0;
-        if (c > 255) return 255;
-        return c;
+    private static void convolve(final float[] matrix, final byte[] in, final byte[] out,
+        final int width, final int height, final int numChannels, final boolean horizontal) {
+
+        final int cols2 = matrix.length/2;
+        final int max = horizontal ? width-1 : height-1;
+        final int rowLength = width*numChannels;
+
+        processRows(height, new RowProcessor(){
+            public void process(int startRow, int endRow){
+                for (int y=startRow; y<endRow; y++){
+                    int offset = y*rowLength;
+                    for (int x=0; x<width; x++){
+                        int pos = horizontal ? x : y;
+                        for (int c=0; c<numChannels; c++){
+                            float v = 0;
+                            for (int col=-cols2; col<=cols2; col++){
+                                float f = matrix[cols2+col];
+                                if (f != 0) {
+                                    int i = pos+col;
+                                    if (i<0) i = 0;
+                                    else if (i>max) i = max;
+                                    int idx = horizontal ? offset+i*numChannels+c : i*rowLength+x*numChannels+c;
+                                    v += f * (in[idx] & 0xff);
+                                }
+                            }
+                            out[offset+x*numChannels+c] = (byte) clamp((int)(v+0.5));
+                        }
+                    }
+                }
+            }
+        });
     }
 
 
   //**************************************************************************
-  //** Desaturate
+  //** getSamples
   //**************************************************************************
-  /** Used to completely desaturate an image (creates a gray-scale image).
+  /** Returns the samples in an image with interleaved 8 bit RGB samples
+   *  (TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR). Returns null for other image
+   *  types, including premultiplied and gray images whose samples differ
+   *  from the values returned by getRGB.
    */
-    public void desaturate(){
-         bufferedImage = desaturate(bufferedImage);
+    private static byte[] getSamples(BufferedImage img){
+        switch (img.getType()){
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                return (byte[]) img.getRaster().getDataElements(0, 0, img.getWidth(), img.getHeight(), null);
+            default:
+                return null;
+        }
     }
 
 
   //**************************************************************************
-  //** Desaturate
+  //** getPixels
   //**************************************************************************
-  /** Used to desaturate an image by a specified percentage (expressed as
-   *  a double or float). The larger the percentage, the greater the
-   *  desaturation and the "grayer" the image. Valid ranges are from 0-1.
+  /** Returns the pixels in an image as packed ints. Pixels are read directly
+   *  from the raster for images with packed int pixels. Note that the order
+   *  of the channels in the ints matches the image type (e.g. the alpha
+   *  channel is empty for TYPE_INT_RGB and red and blue are swapped for
+   *  TYPE_INT_BGR). For other image types (including TYPE_INT_ARGB_PRE),
+   *  pixels are returned in the default ARGB color model, using multiple
+   *  threads.
    */
-    public void desaturate(double percent){
-        float alpha = (float) (percent);
-        java.awt.Image overlay = desaturate(bufferedImage);
-        Graphics2D g2d = bufferedImage.createGraphics();
-        g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
-        g2d.drawImage(overlay,0,0,null);
-        g2d.dispose();
+    private static int[] getPixels(final BufferedImage img, int[] pixels){
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        if (isPacked(img)){
+            return (int[]) img.getRaster().getDataElements(0, 0, width, height, pixels);
+        }
+
+        final int[] arr = pixels==null ? new int[width*height] : pixels;
+        processRows(height, new RowProcessor(){
+            public void process(int startRow, int endRow){
+                img.getRGB(0, startRow, width, endRow-startRow, arr, startRow*width, width);
+            }
+        });
+        return arr;
     }
 
 
   //**************************************************************************
-  //** Desaturate (Private Function)
+  //** setPixels
   //**************************************************************************
-  /** Convenience function called by the other 2 desaturation methods.
+  /** Used to update the pixels in an image. See getPixels().
    */
-    private BufferedImage desaturate(BufferedImage in){
-        BufferedImage out = new BufferedImage(in.getWidth(), in.getHeight(), getImageType(in) );
-        BufferedImageOp op = new ColorConvertOp(
-            ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
-        return op.filter(in, out);
+    private static void setPixels(final BufferedImage img, final int[] pixels){
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        if (isPacked(img)){
+            img.getRaster().setDataElements(0, 0, width, height, pixels);
+            return;
+        }
+
+        processRows(height, new RowProcessor(){
+            public void process(int startRow, int endRow){
+                img.setRGB(0, startRow, width, endRow-startRow, pixels, startRow*width, width);
+            }
+        });
+    }
+
+    private static boolean isPacked(BufferedImage img){
+        int type = img.getType();
+        return (type==BufferedImage.TYPE_INT_ARGB || type==BufferedImage.TYPE_INT_RGB ||
+                type==BufferedImage.TYPE_INT_BGR);
     }
 
 
   //**************************************************************************
-  //** setOpacity
+  //** PixelRows Class
   //**************************************************************************
-  /** Used to adjust the opacity of the image.
+  /** Used to read and write rows of pixels as ARGB values. Common image types
+   *  are read directly from the raster and converted to ARGB. Other types
+   *  (e.g. premultiplied or 16 bit images) are read using getRGB/setRGB.
+   *  Either way, the values match the ones returned by getRGB. Instances
+   *  are not thread safe. Each thread should create its own instance.
    */
-    public void setOpacity(double percent){
+    private static class PixelRows {
+        private final BufferedImage img;
+        private final WritableRaster raster;
+        private final int type;
+        private final int width;
+        private Object buffer;
+
+        public PixelRows(BufferedImage img){
+            this.img = img;
+            this.raster = img.getRaster();
+            this.type = img.getType();
+            this.width = img.getWidth();
+        }
+
+        public void read(int y, int[] argb){
+            read(0, y, width, argb);
+        }
+
+        public void read(int x0, int y, int w, int[] argb){
+            switch (type){
+                case BufferedImage.TYPE_INT_ARGB:
+                    raster.getDataElements(x0, y, w, 1, argb);
+                    break;
+                case BufferedImage.TYPE_INT_RGB:
+                    raster.getDataElements(x0, y, w, 1, argb);
+                    for (int x=0; x<w; x++) argb[x] |= 0xff000000;
+                    break;
+                case BufferedImage.TYPE_INT_BGR:
+                    raster.getDataElements(x0, y, w, 1, argb);
+                    for (int x=0; x<w; x++){
+                        int p = argb[x];
+                        argb[x] = 0xff000000 | ((p & 0xff) << 16) | (p & 0xff00) | ((p >> 16) & 0xff);
+                    }
+                    break;
+                case BufferedImage.TYPE_3BYTE_BGR: {
+                    byte[] b = getBytes(x0, y, w, 3);
+                    for (int x=0, i=0; x<w; x++, i+=3){
+                        argb[x] = 0xff000000 | ((b[i] & 0xff) << 16) | ((b[i+1] & 0xff) << 8) | (b[i+2] & 0xff);
+                    }
+                    break;
+                }
+                case BufferedImage.TYPE_4BYTE_ABGR: {
+                    byte[] b = getBytes(x0, y, w, 4);
+                    for (int x=0, i=0; x<w; x++, i+=4){
+                        argb[x] = ((b[i+3] & 0xff) << 24) | ((b[i] & 0xff) << 16) | ((b[i+1] & 0xff) << 8) | (b[i+2] & 0xff);
+                    }
+                    break;
+                }
+                case BufferedImage.TYPE_BYTE_GRAY: {
+                    byte[] b = getBytes(x0, y, w, 1);
+                    int[] lut = GRAY_LUT;
+                    for (int x=0; x<w; x++) argb[x] = lut[b[x] & 0xff];
+                    break;
+                }
+                default:
+                    img.getRGB(x0, y, w, 1, argb, 0, w);
+            }
+        }
+
+      /** Returns samples from the raster for image types with 8 bit samples.
+       *  Samples are returned in band order (e.g. RGB for TYPE_3BYTE_BGR). */
+        private byte[] getBytes(int x, int y, int w, int numBands){
+            if (buffer!=null && ((byte[]) buffer).length<w*numBands) buffer = null;
+            buffer = raster.getDataElements(x, y, w, 1, buffer);
+            return (byte[]) buffer;
+        }
+
+        public void write(int y, int[] argb){
+            write(0, y, width, argb);
+        }
+
+        public void write(int x0, int y, int w, int[] argb){
+            switch (type){
+                case BufferedImage.TYPE_INT_ARGB:
+                    raster.setDataElements(x0, y, w, 1, argb);
+                    break;
+                case BufferedImage.TYPE_INT_RGB: {
+                    int[] p = (buffer==null || ((int[]) buffer).length<w) ? (int[]) (buffer = new int[w]) : (int[]) buffer;
+                    for (int x=0; x<w; x++) p[x] = argb[x] & 0xffffff;
+                    raster.setDataElements(x0, y, w, 1, p);
+                    break;
+                }
+                case BufferedImage.TYPE_INT_BGR: {
+                    int[] p = (buffer==null || ((int[]) buffer).length<w) ? (int[]) (buffer = new int[w]) : (int[]) buffer;
+                    for (int x=0; x<w; x++){
+                        int c = argb[x];
+                        p[x] = ((c & 0xff) << 16) | (c & 0xff00) | ((c >> 16) & 0xff);
+                    }
+                    raster.setDataElements(x0, y, w, 1, p);
+                    break;
+                }
+                case BufferedImage.TYPE_3BYTE_BGR: {
+                    byte[] b = getBuffer(w*3);
+                    for (int x=0, i=0; x<w; x++, i+=3){
+                        int c = argb[x];
+                        b[i] = (byte) (c >> 16);
+                        b[i+1] = (byte) (c >> 8);
+                        b[i+2] = (byte) c;
+                    }
+                    raster.setDataElements(x0, y, w, 1, b);
+                    break;
+                }
+                case BufferedImage.TYPE_4BYTE_ABGR: {
+                    byte[] b = getBuffer(w*4);
+                    for (int x=0, i=0; x<w; x++, i+=4){
+                        int c = argb[x];
+                        b[i] = (byte) (c >> 16);
+                        b[i+1] = (byte) (c >> 8);
+                        b[i+2] = (byte) c;
+                        b[i+3] = (byte) (c >>> 24);
+                    }
+                    raster.setDataElements(x0, y, w, 1, b);
+                    break;
+                }
+                default:
+                    img.setRGB(x0, y, w, 1, argb, 0, w);
+            }
+        }
+
+        private byte[] getBuffer(int length){
+            if (buffer==null || ((byte[]) buffer).length!=length) buffer = new byte[length];
+            return (byte[]) buffer;
+        }
+    }
+
+
+  /** ARGB values for each gray level in a TYPE_BYTE_GRAY image. Note that
+   *  gray values are not mapped linearly to RGB (see getRGB). */
+    private static final int[] GRAY_LUT = new int[256];
+    static {
+        BufferedImage bi = new BufferedImage(256, 1, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] b = new byte[256];
+        for (int i=0; i<256; i++) b[i] = (byte) i;
+        bi.getRaster().setDataElements(0, 0, 256, 1, b);
+        bi.getRGB(0, 0, 256, 1, GRAY_LUT, 0, 256);
+    }
+
+
+  //**************************************************************************
+  //** clamp
+  //**************************************************************************
+  /** Clamp a value to the range 0..255
+   */
+    private static int clamp(int c) {
+        if (c < 0) return 0;
+        if (c > 255) return 255;
+        return c;
+    }
+
+
+  //**************************************************************************
+  //** Desaturate
+  //**************************************************************************
+  /** Used to completely desaturate an image (creates a gray-scale image).
+   */
+    public void desaturate(){
+         bufferedImage = desaturate(bufferedImage);
+    }
+
+
+  //**************************************************************************
+  //** Desaturate
+  //**************************************************************************
+  /** Used to desaturate an image by a specified percentage (expressed as
+   *  a double or float). The larger the percentage, the greater the
+   *  desaturation and the "grayer" the image. Valid ranges are from 0-1.
+   */
+    public void desaturate(double percent){
+        float alpha = (float) (percent);
+        java.awt.Image overlay = desaturate(bufferedImage);
+        Graphics2D g2d = bufferedImage.createGraphics();
+        g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
+        g2d.drawImage(overlay,0,0,null);
+        g2d.dispose();
+    }
+
+
+  //**************************************************************************
+  //** Desaturate (Private Function)
+  //**************************************************************************
+  /** Convenience function called by the other 2 desaturation methods.
+   */
+    private BufferedImage desaturate(BufferedImage in){
+        BufferedImage out = new BufferedImage(in.getWidth(), in.getHeight(), getImageType(in) );
+        BufferedImageOp op = new ColorConvertOp(
+            ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
+        return op.filter(in, out);
+    }
+
+
+  //**************************************************************************
+  //** setOpacity
+  //**************************************************************************
+  /** Used to adjust the opacity of the image.
+   */
+    public void setOpacity(double percent){
         if (percent>1) percent=percent/100;
         float alpha = (float) (percent);
         int imageType = bufferedImage.getType();
@@ -1085,14 +1843,11 @@ public class Image {
   //** Flip (Horizonal)
   //**************************************************************************
   /**  Used to flip an image along it's y-axis (horizontal). Vertical flipping
-   *   is supported via the rotate method (i.e. rotate +/-180).
+   *   can be done by flipping the image and rotating it 180 degrees. The
+   *   image type is preserved.
    */
     public void flip(){
-        BufferedImage out = new BufferedImage(getWidth(), getHeight(), getImageType());
-        AffineTransform tx = AffineTransform.getScaleInstance(-1, 1);
-        tx.translate(-bufferedImage.getWidth(), 0);
-        AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_BICUBIC);
-        bufferedImage = op.filter(bufferedImage, out);
+        transform(0, true);
     }
 
 
@@ -1254,48 +2009,64 @@ public class Image {
    *  255,255,255. Note that transparent pixels are considered as null values
    *  and will be automatically trimmed from the edges.
    */
-    public void trim(int r, int g, int b){
-        int top = 0;
-        int bottom = 0;
-        int left = 0;
-        int right = 0;
-
-        for (int y=0; y<bufferedImage.getHeight(); y++){
-            for (int x=0; x<bufferedImage.getWidth(); x++){
-                if (hasColor(bufferedImage.getRGB(x, y), r, g, b)){
-                    bottom = y;
-                    break;
-                }
+    public void trim(final int r, final int g, final int b){
+        final BufferedImage img = bufferedImage;
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        PixelRows rows = new PixelRows(img);
+        int[] chunk = new int[64];
+
+
+      //Find the first row with a color value
+        int top = -1;
+        for (int y=0; y<height; y++){
+            if (findColor(rows, y, 0, width, false, chunk, r, g, b)>=0){
+                top = y;
+                break;
             }
         }
 
-        for (int y=bufferedImage.getHeight()-1; y>-1; y--){
-            for (int x=0; x<bufferedImage.getWidth(); x++){
-                if (hasColor(bufferedImage.getRGB(x, y), r, g, b)){
-                    top = y;
-                    break;
-                }
-            }
-        }
 
-        for (int x=0; x<bufferedImage.getWidth(); x++){
-            for (int y=0; y<bufferedImage.getHeight(); y++){
-                if (hasColor(bufferedImage.getRGB(x, y), r, g, b)){
-                    right = x;
-                    break;
-                }
+      //Find the last row with a color value
+        int bottom = top;
+        for (int y=height-1; y>top; y--){
+            if (findColor(rows, y, 0, width, false, chunk, r, g, b)>=0){
+                bottom = y;
+                break;
             }
         }
 
-        for (int x=bufferedImage.getWidth()-1; x>-1; x--){
-            for (int y=0; y<bufferedImage.getHeight(); y++){
-                if (hasColor(bufferedImage.getRGB(x, y), r, g, b)){
-                    left = x;
-                    break;
+
+      //Find the first and last columns with a color value. Each row only
+      //needs to be scanned up to the extents found so far.
+        final int[] extents = new int[]{width, -1};
+        if (top>=0){
+            final int startRow = top;
+            processRows(bottom-top+1, new RowProcessor(){
+                public void process(int start, int end){
+                    PixelRows rows = new PixelRows(img);
+                    int[] chunk = new int[64];
+                    int minX = width;
+                    int maxX = -1;
+                    for (int y=startRow+start; y<startRow+end; y++){
+                        int x = findColor(rows, y, 0, minX, false, chunk, r, g, b);
+                        if (x>=0) minX = x;
+                        x = findColor(rows, y, maxX+1, width, true, chunk, r, g, b);
+                        if (x>=0) maxX = x;
+                    }
+                    synchronized(extents){
+                        extents[0] = Math.min(extents[0], minX);
+                        extents[1] = Math.max(extents[1], maxX);
+                    }
                 }
-            }
+            });
         }
 
+        int left = extents[1]<0 ? 0 : extents[0];
+        int right = extents[1]<0 ? 0 : extents[1];
+        top = Math.max(top, 0);
+        bottom = Math.max(bottom, 0);
+
         if (left==right || top==bottom){
             bufferedImage = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
         }
@@ -1305,6 +2076,41 @@ public class Image {
     }
 
 
+  //**************************************************************************
+  //** findColor
+  //**************************************************************************
+  /** Returns the x coordinate of the first pixel in a row, from x0 to x1
+   *  (exclusive), that doesn't match the given color (see hasColor). Searches
+   *  from right to left if reverse is true. Pixels are read in chunks so the
+   *  search can stop early. Returns -1 if no match is found.
+   */
+    private static int findColor(PixelRows rows, int y, int x0, int x1,
+        boolean reverse, int[] chunk, int r, int g, int b){
+
+        int n = chunk.length;
+        if (!reverse){
+            for (int x=x0; x<x1; x+=n){
+                int w = Math.min(n, x1-x);
+                rows.read(x, y, w, chunk);
+                for (int i=0; i<w; i++){
+                    if (hasColor(chunk[i], r, g, b)) return x+i;
+                }
+            }
+        }
+        else{
+            for (int x=x1; x>x0; x-=n){
+                int start = Math.max(x0, x-n);
+                int w = x-start;
+                rows.read(start, y, w, chunk);
+                for (int i=w-1; i>=0; i--){
+                    if (hasColor(chunk[i], r, g, b)) return start+i;
+                }
+            }
+        }
+        return -1;
+    }
+
+
   //**************************************************************************
   //** getBufferedImage
   //**************************************************************************
@@ -1361,28 +2167,121 @@ public class Image {
   //**************************************************************************
   //** getByteArray
   //**************************************************************************
-  /** Returns the image as a byte array. */
-
+  /** Returns the image as a byte array. The byte array is presized using an
+   *  estimate of the compressed size of the image. See write() for more
+   *  information.
+   */
     public byte[] getByteArray(String format){
-        byte[] rgb = null;
+        try{
+            ByteArrayOutputStream bas = new ByteArrayOutputStream(getEstimatedSize(format));
+            ImageOutputStream stream = new MemoryCacheImageOutputStream(bas);
+            boolean supported;
+            try{
+                supported = write(stream, format);
+            }
+            finally{
+                stream.close();
+            }
 
-        format = format.toLowerCase();
-        if (format.startsWith("image/")){
-            format = format.substring(format.indexOf("/")+1);
+          //Return an empty array if the format is not supported, like
+          //ImageIO.write()
+            return supported ? bas.toByteArray() : new byte[0];
+        }
+        catch(Exception e){
+            return null;
         }
+    }
+
 
+  //**************************************************************************
+  //** write
+  //**************************************************************************
+  /** Used to encode the image and write it to an OutputStream. The stream is
+   *  not closed. Image writers are cached and reused by the calling thread
+   *  so this method is well suited for servers that encode a large number of
+   *  images (e.g. thumbnails). Output quality is set using the
+   *  setOutputQuality method. Metadata is included in JPEG images if
+   *  setSaveMetadata() or setIIOMetadata() was called.
+   *  @param format Output format (e.g. "jpg", "png", "image/jpeg")
+   */
+    public void write(OutputStream out, String format) throws IOException {
+        ImageOutputStream stream = new MemoryCacheImageOutputStream(out);
         try{
-            if (isJPEG(format)){
-                rgb = getJPEGByteArray(outputQuality);
+            if (!write(stream, format)){
+                throw new IOException("Unsupported output format: " + format);
             }
-            else{
-                ByteArrayOutputStream bas = new ByteArrayOutputStream();
-                ImageIO.write(bufferedImage, format.toLowerCase(), bas);
-                rgb = bas.toByteArray();
+        }
+        finally{
+            stream.close();
+        }
+        out.flush();
+    }
+
+
+  //**************************************************************************
+  //** write
+  //**************************************************************************
+  /** Used to encode the image and write it to a FileChannel. The image is
+   *  written at the current position of the channel without buffering the
+   *  entire image in memory. When done, the position of the channel is set
+   *  to the end of the image. The channel is not closed.
+   *  @param format Output format (e.g. "jpg", "png", "image/jpeg")
+   */
+    public void write(java.nio.channels.FileChannel channel, String format) throws IOException {
+        ImageOutputStream stream = new ChannelOutputStream(channel);
+        try{
+            if (!write(stream, format)){
+                throw new IOException("Unsupported output format: " + format);
             }
         }
-        catch(Exception e){}
-        return rgb;
+        finally{
+            stream.close();
+        }
+    }
+
+
+  //**************************************************************************
+  //** write
+  //**************************************************************************
+  /** Used to encode the image and write it to an ImageOutputStream. Returns
+   *  false if none of the image writers for the format can encode the image.
+   */
+    private boolean write(ImageOutputStream stream, String format) throws IOException {
+
+        format = format.toLowerCase().trim();
+        if (format.startsWith("image/")){
+            format = format.substring(format.indexOf("/")+1);
+        }
+
+        if (isJPEG(format)){
+            writeJPEG(stream);
+        }
+        else{
+            if (isJPEG2000(format)) format = "JPEG 2000";
+            Encoder encoder = Encoder.get(bufferedImage, format);
+            if (encoder==null) return false;
+            encoder.write(stream, null, new IIOImage(bufferedImage, null, null), null);
+        }
+        return true;
+    }
+
+
+  //**************************************************************************
+  //** getEstimatedSize
+  //**************************************************************************
+  /** Returns a rough estimate of the number of bytes needed to store the
+   *  image in a given format. Used to presize output buffers.
+   */
+    private int getEstimatedSize(String format){
+        long numPixels = (long) getWidth() * getHeight();
+        long size;
+        if (isJPEG(format.substring(format.indexOf("/")+1))){
+            size = (long) (numPixels * (outputQuality<0.9f ? 0.25 : 0.75));
+        }
+        else{
+            size = numPixels * bufferedImage.getColorModel().getNumComponents() / 2;
+        }
+        return (int) Math.min(size+1024, 64*1024*1024);
     }
 
 
@@ -1401,7 +2300,8 @@ public class Image {
   //** saveAs
   //**************************************************************************
   /**  Exports the image to a file. Output format is determined by the output
-   *   file extension.
+   *   file extension. The image is written directly to the file (see the
+   *   write() method).
    */
     public void saveAs(java.io.File OutputFile){
         try{
@@ -1410,22 +2310,17 @@ public class Image {
 
           //Write buffered image to disk
             String FileExtension = getExtension(OutputFile.getName()).toLowerCase();
-            if (isJPEG(FileExtension)){
-                FileOutputStream output = new FileOutputStream(OutputFile);
-                output.write(getJPEGByteArray(outputQuality));
-                output.close();
+            RandomAccessFile output = new RandomAccessFile(OutputFile, "rw");
+            try{
+                output.setLength(0);
+                write(output.getChannel(), FileExtension);
             }
-            else{
-                RenderedImage rendImage = bufferedImage;
-                if (isJPEG2000(FileExtension)){
-                    ImageIO.write(rendImage, "JPEG 2000", OutputFile);
-                }
-                else{
-                    ImageIO.write(rendImage, FileExtension, OutputFile);
-                }
-                rendImage = null;
+            catch(Exception e){
+                output.close();
+                OutputFile.delete();
+                throw e;
             }
-            //System.out.println("Output image is " + width + "x" + height + "...");
+            output.close();
         }
         catch(Exception e){
             //printError(e);
@@ -1433,6 +2328,18 @@ public class Image {
     }
 
 
+  //**************************************************************************
+  //** setSaveMetadata
+  //**************************************************************************
+  /** Used to specify whether to include metadata (e.g. EXIF, IPTC) from the
+   *  original image when writing JPEG images. Metadata is stripped by default
+   *  unless setIIOMetadata() is called.
+   */
+    public void setSaveMetadata(boolean saveMetadata){
+        this.saveMetadata = saveMetadata;
+    }
+
+
     /*
     public void setCacheDirectory(java.io.File cacheDirectory){
         try{
@@ -1505,167 +2412,334 @@ public class Image {
 
 
   //**************************************************************************
-  //** getJPEGByteArray
+  //** writeJPEG
   //**************************************************************************
-  /** Returns a JPEG compressed byte array. */
+  /** Used to write a JPEG compressed image to an ImageOutputStream. */
 
-    private byte[] getJPEGByteArray(float outputQuality) throws IOException {
-        if (outputQuality>=0f && outputQuality<=1.2f) {
-            ByteArrayOutputStream bas = new ByteArrayOutputStream();
-            BufferedImage bi = bufferedImage;
-            int t = bufferedImage.getTransparency();
+    private void writeJPEG(ImageOutputStream stream) throws IOException {
+        float outputQuality = this.outputQuality;
+        if (outputQuality<0f || outputQuality>1.2f) outputQuality = 1f;
 
-            //if (t==BufferedImage.BITMASK) System.out.println("BITMASK");
-            //if (t==BufferedImage.OPAQUE) System.out.println("OPAQUE");
-
-            if (t==BufferedImage.TRANSLUCENT){
-                bi = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-                Graphics2D biContext = bi.createGraphics();
-                biContext.drawImage ( bufferedImage, 0, 0, null );
-            }
+        ByteArrayOutputStream bas = new ByteArrayOutputStream();
+        BufferedImage bi = bufferedImage;
+        int t = bufferedImage.getTransparency();
 
+        //if (t==BufferedImage.BITMASK) System.out.println("BITMASK");
+        //if (t==BufferedImage.OPAQUE) System.out.println("OPAQUE");
 
-
-          //First we will try to compress the image using the com.sun.image.codec.jpeg
-          //package. These classes are marked as deprecated in JDK 1.7 and several
-          //users have reported problems with this method. Instead, we are
-          //supposed to use the JPEGImageWriteParam class. However, I have not
-          //been able to adequatly test the compression quality or find an
-          //anology to the setHorizontalSubsampling and setVerticalSubsampling
-          //methods. Therefore, we will attempt to compress the image using the
-          //com.sun.image.codec.jpeg package. If the compression fails, we will
-          //use the JPEGImageWriteParam.
-            if (useSunCodec){
+        if (t==BufferedImage.TRANSLUCENT){
+            bi = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D biContext = bi.createGraphics();
+            biContext.drawImage ( bufferedImage, 0, 0, null );
+        }
 
 
-                try{
 
-                  //For Java 1.7 users, we will try to invoke the Sun JPEG Codec using reflection
-                    Object encoder = JPEGCodec.getMethod("createJPEGEncoder", java.io.OutputStream.class).invoke(JPEGCodec, bas);
-                    Object params = JPEGCodec.getMethod("getDefaultJPEGEncodeParam", BufferedImage.class).invoke(JPEGCodec, bi);
-                    params.getClass().getMethod("setQuality", float.class, boolean.class).invoke(params, outputQuality, true);
-                    params.getClass().getMethod("setHorizontalSubsampling", int.class, int.class).invoke(params, 0, 2);
-                    params.getClass().getMethod("setVerticalSubsampling", int.class, int.class).invoke(params, 0, 2);
-
-                  //Here's the original compression code without reflection
-                    /*
-                    JPEGImageEncoder encoder = JPEGCodec.createJPEGEncoder(bas);
-                    JPEGEncodeParam params = JPEGCodec.getDefaultJPEGEncodeParam(bi);
-                    params.setQuality(outputQuality, true); //true
-                    params.setHorizontalSubsampling(0,2);
-                    params.setVerticalSubsampling(0,2);
-                    params.setMarkerData(...);
-                    encoder.encode(bi, params);
-                    */
-
-
-                  //Save metadata as needed
-                    if (saveMetadata && metadata!=null){
-                        java.lang.reflect.Method setMarkerData = params.getClass().getMethod("setMarkerData", int.class, byte[][].class);
-
-                      //Parse unknown markers (similar logic to the getUnknownTags method)
-                        java.util.HashSet<Integer> markers = new java.util.HashSet<Integer>();
-                        for (String name : metadata.getMetadataFormatNames()) {
-                            IIOMetadataNode node = (IIOMetadataNode) metadata.getAsTree(name);
-                            for (Node unknownNode : getElementsByTagName("unknown", node)){
-                                String markerTag = getAttributeValue(unknownNode.getAttributes(), "MarkerTag");
-
-                                try{
-                                    int marker = Integer.parseInt(markerTag);
-                                    if (!markers.contains(marker)){
-                                        markers.add(marker);
-
-                                        byte[] data = (byte[]) ((IIOMetadataNode) unknownNode).getUserObject();
-                                        if (data!=null){
-                                            byte[][] app = new byte[1][data.length];
-                                            app[0] = data;
-                                            setMarkerData.invoke(params, marker, app);
-                                        }
+      //First we will try to compress the image using the com.sun.image.codec.jpeg
+      //package. These classes are marked as deprecated in JDK 1.7 and several
+      //users have reported problems with this method. Instead, we are
+      //supposed to use the JPEGImageWriteParam class. However, I have not
+      //been able to adequatly test the compression quality or find an
+      //anology to the setHorizontalSubsampling and setVerticalSubsampling
+      //methods. Therefore, we will attempt to compress the image using the
+      //com.sun.image.codec.jpeg package. If the compression fails, we will
+      //use the JPEGImageWriteParam.
+        if (useSunCodec){
+
+
+            try{
+
+              //For Java 1.7 users, we will try to invoke the Sun JPEG Codec using reflection
+                Object encoder = JPEGCodec.getMethod("createJPEGEncoder", java.io.OutputStream.class).invoke(JPEGCodec, bas);
+                Object params = JPEGCodec.getMethod("getDefaultJPEGEncodeParam", BufferedImage.class).invoke(JPEGCodec, bi);
+                params.getClass().getMethod("setQuality", float.class, boolean.class).invoke(params, outputQuality, true);
+                params.getClass().getMethod("setHorizontalSubsampling", int.class, int.class).invoke(params, 0, 2);
+                params.getClass().getMethod("setVerticalSubsampling", int.class, int.class).invoke(params, 0, 2);
+
+              //Here's the original compression code without reflection
+                /*
+                JPEGImageEncoder encoder = JPEGCodec.createJPEGEncoder(bas);
+                JPEGEncodeParam params = JPEGCodec.getDefaultJPEGEncodeParam(bi);
+                params.setQuality(outputQuality, true); //true
+                params.setHorizontalSubsampling(0,2);
+                params.setVerticalSubsampling(0,2);
+                params.setMarkerData(...);
+                encoder.encode(bi, params);
+                */
+
+
+              //Save metadata as needed
+                if (saveMetadata && metadata!=null){
+                    java.lang.reflect.Method setMarkerData = params.getClass().getMethod("setMarkerData", int.class, byte[][].class);
+
+                  //Parse unknown markers (similar logic to the getUnknownTags method)
+                    java.util.HashSet<Integer> markers = new java.util.HashSet<Integer>();
+                    for (String name : metadata.getMetadataFormatNames()) {
+                        IIOMetadataNode node = (IIOMetadataNode) metadata.getAsTree(name);
+                        for (Node unknownNode : getElementsByTagName("unknown", node)){
+                            String markerTag = getAttributeValue(unknownNode.getAttributes(), "MarkerTag");
+
+                            try{
+                                int marker = Integer.parseInt(markerTag);
+                                if (!markers.contains(marker)){
+                                    markers.add(marker);
+
+                                    byte[] data = (byte[]) ((IIOMetadataNode) unknownNode).getUserObject();
+                                    if (data!=null){
+                                        byte[][] app = new byte[1][data.length];
+                                        app[0] = data;
+                                        setMarkerData.invoke(params, marker, app);
                                     }
                                 }
-                                catch(Exception e){
-                                    //e.printStackTrace();
-                                }
+                            }
+                            catch(Exception e){
+                                //e.printStackTrace();
                             }
                         }
                     }
-
-                    encoder.getClass().getMethod("encode", BufferedImage.class, JPEGEncodeParam).invoke(encoder, bi, params);
-                }
-                catch(Exception e){
-                    bas.reset();
                 }
+
+                encoder.getClass().getMethod("encode", BufferedImage.class, JPEGEncodeParam).invoke(encoder, bi, params);
+            }
+            catch(Exception e){
+                bas.reset();
             }
+        }
 
 
-          //If the com.sun.image.codec.jpeg package is not found or if the
-          //compression failed, we will use the JPEGImageWriteParam class.
-            if (bas.size()==0){
+      //If the com.sun.image.codec.jpeg package is not found or if the
+      //compression failed, we will use the JPEGImageWriteParam class.
+        if (bas.size()==0){
 
-                if (outputQuality>1f) outputQuality = 1f;
+            if (outputQuality>1f) outputQuality = 1f;
 
-                ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-                JPEGImageWriteParam params = (JPEGImageWriteParam) writer.getDefaultWriteParam();
-                params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                params.setCompressionQuality(outputQuality);
-                writer.setOutput(ImageIO.createImageOutputStream(bas));
-                if (saveMetadata){
-                    writer.write(metadata, new IIOImage(bi, null, metadata), params);
-                }
-                else{
-                    writer.write(null, new IIOImage(bi, null, null), params);
-                }
+            Encoder encoder = Encoder.get(bi, "jpeg");
+            if (encoder==null) throw new IOException("JPEG encoder not found");
+            if (saveMetadata){
+                encoder.write(stream, metadata, new IIOImage(bi, null, metadata), outputQuality);
+            }
+            else{
+                encoder.write(stream, null, new IIOImage(bi, null, null), outputQuality);
             }
-
-
-            bas.flush();
-            return bas.toByteArray();
         }
         else{
-            return getByteArray();
+            stream.write(bas.toByteArray());
         }
     }
 
 
   //**************************************************************************
-  //** getImageType
+  //** Encoder Class
   //**************************************************************************
+  /** Used to encode images with an ImageWriter. Creating an ImageWriter is
+   *  relatively expensive so encoders are cached by format and reused by the
+   *  same thread. A format may have more than one encoder if the writers
+   *  can't encode every image type. Write params are cached by output
+   *  quality.
+   */
+    private static class Encoder {
+        private final ImageWriter writer;
+        private final HashMap<Float, ImageWriteParam> params = new HashMap<Float, ImageWriteParam>();
+        private static final ThreadLocal<HashMap<String, java.util.ArrayList<Encoder>>> encoders =
+        new ThreadLocal<HashMap<String, java.util.ArrayList<Encoder>>>(){
+            protected HashMap<String, java.util.ArrayList<Encoder>> initialValue(){
+                return new HashMap<String, java.util.ArrayList<Encoder>>();
+            }
+        };
 
-    private int getImageType(){
-        return getImageType(this.bufferedImage);
-    }
-
-    private int getImageType(BufferedImage bufferedImage){
-        int imageType = bufferedImage.getType();
-        if (imageType <= 0 || imageType == 12) {
-            imageType = BufferedImage.TYPE_INT_ARGB;
+        private Encoder(ImageWriter writer){
+            this.writer = writer;
         }
-        return imageType;
-    }
 
+      /** Returns an encoder for the current thread that can encode the given
+       *  image. Like ImageIO.write(), every writer registered for the format
+       *  is considered. Returns null if none of them can encode the image.
+       */
+        public static Encoder get(RenderedImage image, String format){
+            HashMap<String, java.util.ArrayList<Encoder>> map = encoders.get();
+            java.util.ArrayList<Encoder> list = map.get(format);
+            if (list==null){
+                list = new java.util.ArrayList<Encoder>();
+                map.put(format, list);
+            }
+            for (Encoder encoder : list){
+                if (encoder.canEncode(image)) return encoder;
+            }
 
-  //**************************************************************************
-  //** getExtension
-  //**************************************************************************
-  /**  Returns the file extension for a given file name, if one exists. */
 
-    private String getExtension(String FileName){
-        if (FileName.contains((CharSequence) ".")){
-            return FileName.substring(FileName.lastIndexOf(".")+1,FileName.length());
+          //Find a writer that can encode the image
+            ImageTypeSpecifier type = ImageTypeSpecifier.createFromRenderedImage(image);
+            Iterator<ImageWriter> it = ImageIO.getImageWriters(type, format);
+            if (!it.hasNext()) it = ImageIO.getImageWritersBySuffix(format);
+            while (it.hasNext()){
+                ImageWriter writer = it.next();
+                if (writer.getOriginatingProvider().canEncodeImage(type)){
+                    Encoder encoder = new Encoder(writer);
+                    list.add(encoder);
+                    return encoder;
+                }
+                writer.dispose();
+            }
+            return null;
         }
-        else{
-            return "";
+
+        public boolean canEncode(RenderedImage image){
+            return writer.getOriginatingProvider().canEncodeImage(image);
+        }
+
+      /** Used to write an image to a stream.
+       *  @param quality Compression quality (0-1). Ignored if null.
+       */
+        public void write(ImageOutputStream stream, IIOMetadata streamMetadata,
+            IIOImage image, Float quality) throws IOException {
+
+            ImageWriteParam param = null;
+            if (quality!=null){
+                param = params.get(quality);
+                if (param==null){
+                    param = writer.getDefaultWriteParam();
+                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    param.setCompressionQuality(quality);
+                    params.put(quality, param);
+                }
+            }
+
+            try{
+                writer.setOutput(stream);
+                writer.write(streamMetadata, image, param);
+                writer.setOutput(null);
+            }
+            catch(Exception e){
+
+              //Reset the writer so it can be reused
+                writer.reset();
+                throw e;
+            }
         }
     }
 
 
   //**************************************************************************
-  //** hasColor
+  //** ChannelOutputStream Class
   //**************************************************************************
-  /** Used to determine whether a given pixel has a color value. Returns false
-   *  if the pixel matches the input color or is transparent.
+  /** ImageOutputStream used to write directly to a FileChannel. Unlike the
+   *  FileImageOutputStream, the stream starts at the current position of the
+   *  channel and the channel is left open when the stream is closed.
    */
-    private boolean hasColor(int pixel, int red, int green, int blue){
+    private static class ChannelOutputStream extends ImageOutputStreamImpl {
+        private final java.nio.channels.FileChannel channel;
+        private final long offset;
+        private final java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(64*1024);
+        private long bufferPos = 0; //stream position of the first byte in the buffer
+        private long length = 0;
+        private final byte[] b = new byte[1];
+
+        public ChannelOutputStream(java.nio.channels.FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.offset = channel.position();
+        }
+
+        public void write(int v) throws IOException {
+            b[0] = (byte) v;
+            write(b, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            flushBits();
+            if (streamPos!=bufferPos+buffer.position()){
+                flushBuffer();
+                bufferPos = streamPos;
+            }
+            while (len>0){
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off+=n;
+                len-=n;
+                streamPos+=n;
+                if (!buffer.hasRemaining()){
+                    flushBuffer();
+                    bufferPos = streamPos;
+                }
+            }
+            length = Math.max(length, streamPos);
+        }
+
+        public int read() throws IOException {
+            return read(b, 0, 1)==1 ? b[0] & 0xff : -1;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            flushBuffer();
+            bufferPos = streamPos;
+            bitOffset = 0;
+            int n = channel.read(java.nio.ByteBuffer.wrap(b, off, len), offset+streamPos);
+            if (n>0){
+                streamPos+=n;
+                bufferPos = streamPos;
+            }
+            return n;
+        }
+
+        public long length(){
+            return length;
+        }
+
+        public void close() throws IOException {
+            flushBuffer();
+            channel.position(offset+length);
+            super.close();
+        }
+
+        private void flushBuffer() throws IOException {
+            buffer.flip();
+            long pos = offset+bufferPos;
+            while (buffer.hasRemaining()){
+                pos+=channel.write(buffer, pos);
+            }
+            buffer.clear();
+        }
+    }
+
+
+  //**************************************************************************
+  //** getImageType
+  //**************************************************************************
+
+    private int getImageType(){
+        return getImageType(this.bufferedImage);
+    }
+
+    private int getImageType(BufferedImage bufferedImage){
+        int imageType = bufferedImage.getType();
+        if (imageType <= 0 || imageType == 12) {
+            imageType = BufferedImage.TYPE_INT_ARGB;
+        }
+        return imageType;
+    }
+
+
+  //**************************************************************************
+  //** getExtension
+  //**************************************************************************
+  /**  Returns the file extension for a given file name, if one exists. */
+
+    private String getExtension(String FileName){
+        if (FileName.contains((CharSequence) ".")){
+            return FileName.substring(FileName.lastIndexOf(".")+1,FileName.length());
+        }
+        else{
+            return "";
+        }
+    }
+
+
+  //**************************************************************************
+  //** hasColor
+  //**************************************************************************
+  /** Used to determine whether a given pixel has a color value. Returns false
+   *  if the pixel matches the input color or is transparent.
+   */
+    private static boolean hasColor(int pixel, int red, int green, int blue){
 
         int a = (pixel >> 24) & 0xff;
         int r = (pixel >> 16) & 0xff;
@@ -1748,21 +2822,18 @@ public class Image {
    *  perceptual hash values for the images.
    */
     public int getHammingDistance(Image image){
-        /*
-        long hash1 = getPHash();
-        long hash2 = image.getPHash();
+        return getHammingDistance(getPHash(), image.getPHash());
+    }
+
+
+  //**************************************************************************
+  //** getHammingDistance
+  //**************************************************************************
+  /** Returns the Hamming Distance between two perceptual hash values (i.e.
+   *  the number of bits that differ).
+   */
+    public static int getHammingDistance(long hash1, long hash2){
         return Long.bitCount(hash1 ^ hash2);
-        */
-        
-        String hash = Long.toBinaryString(getPHash());
-        String target = Long.toBinaryString(image.getPHash());
-        int d = 0;
-        for (int i=0; i<hash.length(); i++) {
-            if (hash.charAt(i) != target.charAt(i)) {
-                d++;
-            }
-        }
-        return d;
     }
 
 
@@ -1778,54 +2849,40 @@ public class Image {
    */
     public long getPHash(){
 
-      //Clone the image
-        BufferedImage bi = new BufferedImage(
-        bufferedImage.getWidth(), bufferedImage.getHeight(), getImageType());
-        Graphics2D g = bi.createGraphics();
-        g.drawImage(bufferedImage, 0, 0, bi.getWidth(), bi.getHeight(), null);
-        g.dispose();
-        Image image = new Image(bi);
-
+      //Resize and desaturate. Note that the resampler returns a new image so
+      //there's no need to clone the original.
+        int size = PHASH_SIZE;
+        BufferedImage bi = desaturate(Resampler.resize(bufferedImage, size, size, LANCZOS3));
+        int[] rgb = bi.getRGB(0, 0, size, size, null, 0, size);
 
-      //Resize and desaturate
-        int size = 32;
-        image.resize(size, size, false);
-        image.desaturate();
-        bi = image.getBufferedImage();
 
-
-      //Perform DCT-II by row
-        double N = size;
-        double[][] f = new double[size][size];
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-
-                double k = x;
+      //Perform DCT-II by row. Only the first 8 coefficients are needed so the
+      //rest are skipped.
+        double[][] c = PHASH_DCT;
+        double[][] f = new double[8][size];
+        for (int y = 0; y < size; y++) {
+            int offset = y*size;
+            for (int k = 0; k < 8; k++) {
                 double sum = 0.0;
-                for (double n=0; n<N; n++){
-                    double v = (bi.getRGB((int)n, y)) & 0xff;
-                    sum += (2.0*v)*Math.cos(Math.PI * k * ((2.0*n+1)/(2.0*N)));
+                for (int n = 0; n < size; n++){
+                    double v = rgb[offset+n] & 0xff;
+                    sum += (2.0*v)*c[k][n];
                 }
-
-                f[x][y] = sum;
+                f[k][y] = sum;
             }
         }
 
 
-
       //Perform DCT-II by column
-        double[][] F = new double[size][size];
-        for (int x = 0; x < image.getWidth(); x++) {
-            for (int y = 0; y < image.getHeight(); y++) {
-
-                double k = y;
+        double[][] F = new double[8][8];
+        for (int x = 0; x < 8; x++) {
+            for (int k = 0; k < 8; k++) {
                 double sum = 0.0;
-                for (double n=0; n<N; n++){
-                    double v = f[x][(int)n];
-                    sum += (2.0*v)*Math.cos(Math.PI * k * ((2.0*n+1)/(2.0*N)));
+                for (int n = 0; n < size; n++){
+                    double v = f[x][n];
+                    sum += (2.0*v)*c[k][n];
                 }
-
-                F[x][y] = sum;
+                F[x][k] = sum;
             }
         }
 
@@ -1858,6 +2915,146 @@ public class Image {
     }
 
 
+  //**************************************************************************
+  //** getPHash
+  //**************************************************************************
+  /** Returns a perceptual hash value for an image file. This is much faster
+   *  than opening the image and calling getPHash() because the image is
+   *  decoded at a reduced resolution (see ImageReadParam subsampling). The
+   *  hash may differ by a bit or two from the one computed using the full
+   *  resolution image.
+   *  @throws java.io.IOException if the file could not be decoded
+   */
+    public static long getPHash(java.io.File file) throws java.io.IOException {
+      //Decode the image so that it is at least 256 pixels wide and tall.
+      //Smaller thumbnails alias badly with fine details (e.g. text).
+        return decode(file, PHASH_SIZE*4, PHASH_SIZE*4).getPHash();
+    }
+
+
+  //**************************************************************************
+  //** getPHash
+  //**************************************************************************
+  /** Used to compute perceptual hash values for all the image files found in
+   *  a directory, including subdirectories. Files are decoded concurrently
+   *  at a reduced resolution (see getPHash(java.io.File)) and the callback
+   *  is called once per file, from the thread that decoded it. The hashes
+   *  can be added to a PHashIndex to find similar images. This method
+   *  blocks until all the files have been processed.
+   *  @param filter File filter (e.g. "*.jpg"). If null, files with a jpg,
+   *  jpeg, png, gif, bmp, tif, or tiff extension are read.
+   *  @param numThreads Number of threads used to decode files
+   */
+    public static void getPHash(javaxt.io.Directory directory, Object filter,
+        int numThreads, final PHashCallback callback){
+
+        if (filter==null) filter = new String[]{
+            "*.jpg", "*.jpeg", "*.png", "*.gif", "*.bmp", "*.tif", "*.tiff"
+        };
+
+        processFiles(directory, filter, numThreads, new FileProcessor(){
+            public void process(javaxt.io.File file){
+                Long hash = null;
+                try{ hash = getPHash(file.toFile()); }
+                catch(Exception e){}
+                callback.call(file, hash);
+            }
+        });
+    }
+
+
+  //**************************************************************************
+  //** PHashCallback
+  //**************************************************************************
+  /** Used to process hashes returned by the getPHash() batch method. The
+   *  hash is null if the file could not be decoded.
+   */
+    public static interface PHashCallback {
+        public void call(javaxt.io.File file, Long hash);
+    }
+
+
+  /** Size of the thumbnail used to compute perceptual hashes */
+    private static final int PHASH_SIZE = 32;
+
+
+  /** DCT-II coefficients used to compute the first 8 frequencies of a
+   *  perceptual hash */
+    private static final double[][] PHASH_DCT = new double[8][PHASH_SIZE];
+    static {
+        double N = PHASH_SIZE;
+        for (int k = 0; k < 8; k++) {
+            for (int n = 0; n < PHASH_SIZE; n++) {
+                PHASH_DCT[k][n] = Math.cos(Math.PI * k * ((2.0*n+1)/(2.0*N)));
+            }
+        }
+    }
+
+
+  //**************************************************************************
+  //** processFiles
+  //**************************************************************************
+  /** Used to process files found in a directory, including subdirectories,
+   *  using a thread pool. Blocks until all the files have been processed.
+   */
+    private static void processFiles(javaxt.io.Directory directory, Object filter,
+        int numThreads, final FileProcessor processor){
+
+        if (numThreads<1) numThreads = 1;
+
+
+      //Create thread pool used to process files. The pool size is capped so
+      //the directory search doesn't get too far ahead of the workers.
+        javaxt.utils.ThreadPool pool = new javaxt.utils.ThreadPool(numThreads, numThreads*10){
+            public void process(Object obj){
+                processor.process((javaxt.io.File) obj);
+            }
+        }.start();
+
+
+      //Initiate search
+        java.util.List<?> results = directory.getChildren(true, filter, false);
+        while (true){
+
+            Object item;
+            synchronized (results) {
+
+              //Wait for files/directories to be added to the list
+                while (results.isEmpty()) {
+                    try {
+                        results.wait();
+                    }
+                    catch (InterruptedException e) {
+                        break;
+                    }
+                }
+
+                item = results.isEmpty() ? null : results.remove(0);
+                results.notifyAll();
+            }
+
+            if (item==null) break;
+            if (item instanceof javaxt.io.File) pool.add(item);
+        }
+
+
+      //Wait for the workers to complete
+        pool.done();
+        try{
+            pool.join();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+  /** Callback used by the processFiles() method */
+    private static interface FileProcessor {
+        public void process(javaxt.io.File file);
+    }
+
+
   //**************************************************************************
   //** getIIOMetadata
   //**************************************************************************
@@ -2008,6 +3205,12 @@ public class Image {
    */
     public double[] getGPSCoordinate(){
         getExifTags();
+        return getGPSCoordinate(gps);
+    }
+
+
+  /** Returns the x/y (lon/lat) coordinate tuple from a set of GPS tags */
+    private static double[] getGPSCoordinate(HashMap<Integer, Object> gps){
         try{
             Double lat = getCoordinate((String) gps.get(0x0002));
             Double lon = getCoordinate((String) gps.get(0x0004));
@@ -2025,7 +3228,7 @@ public class Image {
     }
 
 
-    private double getCoordinate(String RationalArray) {
+    private static double getCoordinate(String RationalArray) {
 
         //num + "/" + den
         String[] arr = RationalArray.substring(1, RationalArray.length()-1).split(",");
@@ -2194,7 +3397,7 @@ public class Image {
  *  @copyright Copyright (c) 2003 Norman Walsh
  ******************************************************************************/
 
-private class MetadataParser {
+private static class MetadataParser {
 
 // Implementation notes:
 // (1) Merged Version 1.1 of the "Exif.java" and "ExifData.java" classes.
@@ -2604,101 +3807,780 @@ private class MetadataParser {
 
 
 
-//***************************************************************************
-//**  Skew Class
-//***************************************************************************
+//******************************************************************************
+//**  Metadata Class
+//******************************************************************************
 /**
- *   Used to skew an image. Adapted from 2 image processing classes developed
- *   by Jerry Huxtable (http://www.jhlabs.com) and released under
- *   the Apache License, Version 2.0.
+ *   Used to read EXIF, GPS, and IPTC metadata from a JPEG or TIFF without
+ *   decoding the image. For JPEGs, only the marker segments in front of the
+ *   image data are read (APP1 and APP13). Reading stops at the first scan.
+ *   For TIFFs, only the IFD entries are read. Tags are decoded with the same
+ *   parser used by the Image class so the values match the ones returned by
+ *   Image.getExifTags(), getIptcTags(), etc. Example:
+ <pre>
+    Image.Metadata metadata = new Image.Metadata(new java.io.File("/temp/image.jpg"));
+    System.out.println("Date: " + metadata.getExifTags().get(0x0132));
+    System.out.println("Caption: " + metadata.getIptcTags().get(0x0278));
+ </pre>
  *
- ***************************************************************************/
+ ******************************************************************************/
 
-private class Skew {
+public static class Metadata {
 
-    public final static int ZERO = 0;
-    public final static int CLAMP = 1;
-    public final static int WRAP = 2;
+    private java.io.File file;
+    private java.util.ArrayList<byte[]> app1 = new java.util.ArrayList<byte[]>();
+    private java.util.ArrayList<byte[]> app13 = new java.util.ArrayList<byte[]>();
+    private HashMap<Integer, Object> exif;
+    private HashMap<Integer, Object> iptc;
+    private HashMap<Integer, Object> gps;
 
-    public final static int NEAREST_NEIGHBOUR = 0;
-    public final static int BILINEAR = 1;
+    private static final int[] bytesPerFormat = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4};
+    private static final int TAG_EXIF_OFFSET = 0x8769;
+    private static final int TAG_INTEROP_OFFSET = 0xa005;
+    private static final int TAG_GPS_OFFSET = 0x8825;
+    private static final int TAG_IPTC = 0x83BB;
 
-    protected int edgeAction = ZERO;
-    protected int interpolation = BILINEAR;
+  //Tags with large integer arrays (strip/tile offsets and byte counts, color
+  //maps, etc) that are truncated when copied from a TIFF
+    private static final java.util.HashSet<Integer> TRUNCATED_TAGS =
+        new java.util.HashSet<Integer>(java.util.Arrays.asList(
+            0x0111, 0x0117, 0x0120, 0x0121, 0x0122, 0x012D, 0x0140, 0x0144, 0x0145
+        ));
 
-    protected Rectangle transformedSpace;
-    protected Rectangle originalSpace;
 
-    private float x0, y0, x1, y1, x2, y2, x3, y3;
-    private float dx1, dy1, dx2, dy2, dx3, dy3;
-    private float A, B, C, D, E, F, G, H, I;
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+  /** Used to read metadata from a JPEG or TIFF file. Other file formats are
+   *  ignored (no tags are returned).
+   */
+    public Metadata(java.io.File file) throws java.io.IOException {
+        this.file = file;
+        javax.imageio.stream.ImageInputStream in =
+        new javax.imageio.stream.FileImageInputStream(file);
+        try{ read(in); }
+        finally{ in.close(); }
+    }
 
 
-    private BufferedImage src;
-    private BufferedImage dst;
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+  /** Used to read metadata from a JPEG or TIFF stream. Note that the input
+   *  stream is not closed.
+   */
+    public Metadata(java.io.InputStream input) throws java.io.IOException {
+        javax.imageio.stream.ImageInputStream in =
+        new javax.imageio.stream.MemoryCacheImageInputStream(input);
+        try{ read(in); }
+        finally{ in.close(); }
+    }
 
 
-    public Skew(BufferedImage src) {
-        this.src = src;
-        this.dst = new BufferedImage(src.getWidth(), src.getHeight(), src.getType());
+  //**************************************************************************
+  //** getFile
+  //**************************************************************************
+  /** Returns the file used to instantiate this class. Returns null if the
+   *  metadata was read from an input stream.
+   */
+    public java.io.File getFile(){
+        return file;
     }
 
-    public Skew(javaxt.io.Image src) {
-        this(src.getBufferedImage());
-    }
 
+  //**************************************************************************
+  //** getExifData
+  //**************************************************************************
+  /** Returns the raw EXIF byte array (marker 0xE1).
+   */
+    public byte[] getExifData(){
+        return app1.isEmpty() ? null : app1.get(0);
+    }
 
-    public BufferedImage setCorners(float x0, float y0,
-                                    float x1, float y1,
-                                    float x2, float y2,
-                                    float x3, float y3)
-    {
-        this.x0 = x0;
-        this.y0 = y0;
-        this.x1 = x1;
-        this.y1 = y1;
-        this.x2 = x2;
-        this.y2 = y2;
-        this.x3 = x3;
-        this.y3 = y3;
 
-        dx1 = x1-x2;
-        dy1 = y1-y2;
-        dx2 = x3-x2;
-        dy2 = y3-y2;
-        dx3 = x0-x1+x2-x3;
-        dy3 = y0-y1+y2-y3;
+  //**************************************************************************
+  //** getIptcData
+  //**************************************************************************
+  /** Returns the raw IPTC byte array (marker 0xED).
+   */
+    public byte[] getIptcData(){
+        return app13.isEmpty() ? null : app13.get(0);
+    }
 
-        float a11, a12, a13, a21, a22, a23, a31, a32;
 
-        if (dx3 == 0 && dy3 == 0) {
-            a11 = x1-x0;
-            a21 = x2-x1;
-            a31 = x0;
-            a12 = y1-y0;
-            a22 = y2-y1;
-            a32 = y0;
-            a13 = a23 = 0;
-        } else {
-            a13 = (dx3*dy2-dx2*dy3)/(dx1*dy2-dy1*dx2);
-            a23 = (dx1*dy3-dy1*dx3)/(dx1*dy2-dy1*dx2);
-            a11 = x1-x0+a13*x1;
-            a21 = x3-x0+a23*x3;
-            a31 = x0;
-            a12 = y1-y0+a13*y1;
-            a22 = y3-y0+a23*y3;
-            a32 = y0;
-        }
+  //**************************************************************************
+  //** getExifTags
+  //**************************************************************************
+  /** Returns key/value pairs found in the EXIF metadata. See
+   *  Image.getExifTags() for more information.
+   */
+    public synchronized HashMap<Integer, Object> getExifTags(){
+        if (exif==null) parseExif();
+        return exif;
+    }
 
-        A = a22 - a32*a23;
-        B = a31*a23 - a21;
-        C = a21*a32 - a31*a22;
-        D = a32*a13 - a12;
-        E = a11 - a31*a13;
-        F = a31*a12 - a11*a32;
-        G = a12*a23 - a22*a13;
-        H = a21*a13 - a11*a23;
-        I = a11*a22 - a21*a12;
+
+  //**************************************************************************
+  //** getGpsTags
+  //**************************************************************************
+  /** Returns key/value pairs associated with GPS metadata.
+   */
+    public synchronized HashMap<Integer, Object> getGpsTags(){
+        if (gps==null) parseExif();
+        return gps;
+    }
+
+
+  //**************************************************************************
+  //** getIptcTags
+  //**************************************************************************
+  /** Returns key/value pairs found in the IPTC metadata. See
+   *  Image.getIptcTags() for more information.
+   */
+    public synchronized HashMap<Integer, Object> getIptcTags(){
+        if (iptc==null){
+            iptc = new HashMap<Integer, Object>();
+            for (byte[] iptcData : app13){
+                iptc.putAll(new MetadataParser(iptcData, 0xED).getTags("IPTC"));
+            }
+        }
+        return iptc;
+    }
+
+
+  //**************************************************************************
+  //** getGPSCoordinate
+  //**************************************************************************
+  /** Returns the x/y (lon/lat) coordinate tuple for the image. Returns null
+   *  if the image is not geotagged.
+   */
+    public double[] getGPSCoordinate(){
+        return Image.getGPSCoordinate(getGpsTags());
+    }
+
+
+  //**************************************************************************
+  //** getGPSDatum
+  //**************************************************************************
+  /** Returns the datum associated with the GPS coordinate (tag 0x0012).
+   */
+    public String getGPSDatum(){
+        return (String) getGpsTags().get(0x0012);
+    }
+
+
+  //**************************************************************************
+  //** read
+  //**************************************************************************
+  /** Used to read metadata from all the JPEG and TIFF files found in a
+   *  directory, including subdirectories. Files are read concurrently and
+   *  the callback is called once per file, from the thread that read it.
+   *  This method blocks until all the files have been processed.
+   *  @param filter File filter (e.g. "*.jpg"). If null, files with a jpg,
+   *  jpeg, tif, or tiff extension are read.
+   *  @param numThreads Number of threads used to read files
+   */
+    public static void read(javaxt.io.Directory directory, Object filter,
+        int numThreads, final Callback callback){
+
+        if (filter==null) filter = new String[]{"*.jpg", "*.jpeg", "*.tif", "*.tiff"};
+
+        processFiles(directory, filter, numThreads, new FileProcessor(){
+            public void process(javaxt.io.File file){
+                Metadata metadata = null;
+                try{ metadata = new Metadata(file.toFile()); }
+                catch(Exception e){}
+                callback.call(file, metadata);
+            }
+        });
+    }
+
+
+  //**************************************************************************
+  //** Callback
+  //**************************************************************************
+  /** Used to process metadata returned by the read() method. The metadata
+   *  is null if the file could not be read.
+   */
+    public static interface Callback {
+        public void call(javaxt.io.File file, Metadata metadata);
+    }
+
+
+  /** Private method used to initialize the exif and gps hashmaps */
+    private void parseExif(){
+        exif = new HashMap<Integer, Object>();
+        gps = new HashMap<Integer, Object>();
+        for (byte[] exifData : app1){
+            MetadataParser metadataParser = new MetadataParser(exifData, 0xE1);
+            HashMap<Integer, Object> exif = metadataParser.getTags("EXIF");
+            HashMap<Integer, Object> gps = metadataParser.getTags("GPS");
+            if (exif!=null) this.exif.putAll(exif);
+            if (gps!=null) this.gps.putAll(gps);
+        }
+    }
+
+
+  //**************************************************************************
+  //** read
+  //**************************************************************************
+  /** Used to identify the file format and extract metadata segments.
+   */
+    private void read(javax.imageio.stream.ImageInputStream in) throws java.io.IOException {
+        in.setByteOrder(java.nio.ByteOrder.BIG_ENDIAN);
+        int b0 = in.read();
+        int b1 = in.read();
+        if (b0==0xFF && b1==0xD8) readJpeg(in);
+        else if ((b0=='I' && b1=='I') || (b0=='M' && b1=='M')) readTiff(in, b0=='I');
+    }
+
+
+  //**************************************************************************
+  //** readJpeg
+  //**************************************************************************
+  /** Used to walk the JPEG marker segments up to the start of scan (SOS)
+   *  marker. APP1 and APP13 segments are stored and everything else is
+   *  skipped.
+   */
+    private void readJpeg(javax.imageio.stream.ImageInputStream in) throws java.io.IOException {
+        while (true){
+
+          //Find next marker, skipping any fill bytes
+            int b = in.read();
+            if (b==-1) break;
+            if (b!=0xFF) continue;
+            int marker = in.read();
+            while (marker==0xFF) marker = in.read();
+            if (marker==-1) break;
+
+
+          //Stop at the start of the image data (SOS) or end of image (EOI)
+            if (marker==0xDA || marker==0xD9) break;
+
+
+          //Skip markers without a payload (TEM, RSTn)
+            if (marker==0x01 || (marker>=0xD0 && marker<=0xD7)) continue;
+
+
+          //Read or skip payload
+            int length = in.readUnsignedShort()-2;
+            if (length<0) break;
+            if (marker==0xE1 || marker==0xED){
+                byte[] data = new byte[length];
+                in.readFully(data);
+                if (marker==0xE1) app1.add(data);
+                else app13.add(data);
+            }
+            else{
+                in.skipBytes(length);
+            }
+        }
+    }
+
+
+  //**************************************************************************
+  //** readTiff
+  //**************************************************************************
+  /** Used to read metadata from a TIFF. The IFD entries are copied into a
+   *  compact TIFF structure, prefixed with an EXIF header, so they can be
+   *  decoded by the MetadataParser. Large integer arrays that describe the
+   *  image data (e.g. strip offsets) are truncated since only the first value
+   *  is decoded. Other values, including IPTC, are copied in full.
+   */
+    private void readTiff(javax.imageio.stream.ImageInputStream in, boolean intelOrder) throws java.io.IOException {
+        in.setByteOrder(intelOrder ? java.nio.ByteOrder.LITTLE_ENDIAN : java.nio.ByteOrder.BIG_ENDIAN);
+        if (in.readUnsignedShort()!=42) return; //BigTIFF is not supported
+        long offset = in.readUnsignedInt();
+
+        TiffBuffer out = new TiffBuffer(intelOrder);
+        out.write(new byte[]{'E','x','i','f',0,0});
+        out.write(new byte[]{(byte) (intelOrder ? 'I' : 'M'), (byte) (intelOrder ? 'I' : 'M')});
+        out.write16(42);
+        out.write32(8);
+        if (copyIFD(in, offset, out, 0)>0) app1.add(out.toByteArray());
+    }
+
+
+  //**************************************************************************
+  //** copyIFD
+  //**************************************************************************
+  /** Used to copy an IFD, along with any EXIF, GPS, or Interop sub-IFDs, to
+   *  the output buffer. Returns the offset of the IFD in the output buffer,
+   *  relative to the TIFF header, or -1 if the IFD could not be read.
+   */
+    private int copyIFD(javax.imageio.stream.ImageInputStream in, long offset, TiffBuffer out, int depth) throws java.io.IOException {
+        long length = in.length();
+        if (depth>4 || offset<8 || (length>0 && offset+2>length)) return -1;
+
+
+      //Read entries
+        in.seek(offset);
+        int numEntries = in.readUnsignedShort();
+        int[] tags = new int[numEntries];
+        int[] formats = new int[numEntries];
+        long[] components = new long[numEntries];
+        byte[][] values = new byte[numEntries][4];
+        for (int i=0; i<numEntries; i++){
+            tags[i] = in.readUnsignedShort();
+            formats[i] = in.readUnsignedShort();
+            components[i] = in.readUnsignedInt();
+            in.readFully(values[i]);
+        }
+
+
+      //Reserve space for the directory in the output buffer. Entries with an
+      //unknown format are dropped.
+        int numValid = 0;
+        for (int i=0; i<numEntries; i++){
+            if (formats[i]>0 && formats[i]<bytesPerFormat.length) numValid++;
+        }
+        int dirStart = out.size();
+        out.write16(numValid);
+        int entryStart = out.size();
+        out.write(new byte[numValid*12 + 4]);
+
+
+      //Write entries. Values larger than 4 bytes are appended to the buffer.
+        int idx = 0;
+        for (int i=0; i<numEntries; i++){
+            int tag = tags[i];
+            int format = formats[i];
+            if (format<1 || format>=bytesPerFormat.length) continue;
+
+            long count = components[i];
+            long byteCount = count * bytesPerFormat[format];
+            byte[] value = values[i];
+
+            if (tag==TAG_EXIF_OFFSET || tag==TAG_INTEROP_OFFSET || tag==TAG_GPS_OFFSET){
+                int subdir = copyIFD(in, out.get32(value, 0), out, depth+1);
+                value = out.encode32(subdir<0 ? 0 : subdir);
+                format = 4;
+                count = 1;
+            }
+            else if (byteCount>4){
+                long valueOffset = out.get32(value, 0);
+                boolean truncate = TRUNCATED_TAGS.contains(tag);
+                long n = truncate ? Math.min(byteCount, 8) : byteCount;
+                if (length>0 && valueOffset+n>length) n = 0;
+                if (n>Integer.MAX_VALUE-8) n = 0;
+
+                byte[] data = new byte[(int) n];
+                in.seek(valueOffset);
+                in.readFully(data);
+                if (tag==TAG_IPTC) app13.add(data);
+
+                value = out.encode32(out.size()-6);
+                out.write(data);
+                if (out.size()%2==1) out.write(new byte[1]);
+                if (n<byteCount){
+                    if (truncate) count = n / bytesPerFormat[format];
+                    else count = 0;
+                }
+            }
+
+            int pos = entryStart + (idx++)*12;
+            out.set16(pos, tag);
+            out.set16(pos+2, format);
+            out.set32(pos+4, (int) count);
+            out.set(pos+8, value);
+        }
+
+        return dirStart-6;
+    }
+
+
+  //**************************************************************************
+  //** TiffBuffer
+  //**************************************************************************
+  /** Simple growable byte array used to create a TIFF structure.
+   */
+    private static class TiffBuffer {
+        private byte[] buf = new byte[1024];
+        private int size = 0;
+        private boolean intelOrder;
+
+        public TiffBuffer(boolean intelOrder){
+            this.intelOrder = intelOrder;
+        }
+
+        public int size(){
+            return size;
+        }
+
+        public void write(byte[] b){
+            if (size+b.length>buf.length){
+                buf = java.util.Arrays.copyOf(buf, Math.max(buf.length*2, size+b.length));
+            }
+            System.arraycopy(b, 0, buf, size, b.length);
+            size+=b.length;
+        }
+
+        public void write16(int i){
+            write(new byte[2]);
+            set16(size-2, i);
+        }
+
+        public void write32(int i){
+            write(encode32(i));
+        }
+
+        public void set(int pos, byte[] b){
+            System.arraycopy(b, 0, buf, pos, b.length);
+        }
+
+        public void set16(int pos, int i){
+            if (intelOrder){
+                buf[pos] = (byte) i;
+                buf[pos+1] = (byte) (i >> 8);
+            }
+            else{
+                buf[pos] = (byte) (i >> 8);
+                buf[pos+1] = (byte) i;
+            }
+        }
+
+        public void set32(int pos, int i){
+            set(pos, encode32(i));
+        }
+
+        public byte[] encode32(int i){
+            if (intelOrder){
+                return new byte[]{(byte) i, (byte) (i >> 8), (byte) (i >> 16), (byte) (i >> 24)};
+            }
+            else{
+                return new byte[]{(byte) (i >> 24), (byte) (i >> 16), (byte) (i >> 8), (byte) i};
+            }
+        }
+
+        public long get32(byte[] b, int pos){
+            long n1 = b[pos] & 0xFF, n2 = b[pos+1] & 0xFF, n3 = b[pos+2] & 0xFF, n4 = b[pos+3] & 0xFF;
+            if (intelOrder) return (n4 << 24) | (n3 << 16) | (n2 << 8) | n1;
+            else return (n1 << 24) | (n2 << 16) | (n3 << 8) | n4;
+        }
+
+        public byte[] toByteArray(){
+            return java.util.Arrays.copyOf(buf, size);
+        }
+    }
+}
+
+
+
+//******************************************************************************
+//**  PHashIndex Class
+//******************************************************************************
+/**
+ *   Used to find similar images in a large collection using perceptual hash
+ *   values (see getPHash). Hashes are stored in a multi-index hash table.
+ *   Each 64-bit hash is split into 4 blocks of 16 bits and each block is
+ *   indexed separately. Two hashes that are within a distance of k bits
+ *   must have at least one block within k/4 bits of each other, so a query
+ *   only needs to probe a handful of buckets instead of comparing every
+ *   hash in the index. Example:
+ <pre>
+    Image.PHashIndex index = new Image.PHashIndex();
+    for (java.io.File file : files){
+        index.add(Image.getPHash(file)); //returns an id (0, 1, 2, etc)
+    }
+    for (int id : index.find(Image.getPHash(file), 4)){
+        System.out.println(files[id]);
+    }
+ </pre>
+ *   Hashes can be added and queried concurrently.
+ *
+ ******************************************************************************/
+
+public static class PHashIndex {
+
+    private static final int NUM_BLOCKS = 4;
+    private static final int BLOCK_SIZE = 16;
+    private static final int NUM_BUCKETS = 1 << BLOCK_SIZE;
+    private static final int[] NUM_PROBES = {1, 17, 137, 697}; //keys within r bits
+
+    private long[] hashes = new long[1024];
+    private int size = 0;
+    private int[][][] buckets = new int[NUM_BLOCKS][NUM_BUCKETS][];
+    private int[][] counts = new int[NUM_BLOCKS][NUM_BUCKETS];
+    private java.util.concurrent.locks.ReentrantReadWriteLock lock =
+        new java.util.concurrent.locks.ReentrantReadWriteLock();
+
+
+  //**************************************************************************
+  //** add
+  //**************************************************************************
+  /** Used to add a hash to the index. Returns an id for the hash. Ids are
+   *  assigned sequentially, starting at 0.
+   */
+    public int add(long hash){
+        lock.writeLock().lock();
+        try{
+            if (size==hashes.length) hashes = java.util.Arrays.copyOf(hashes, size*2);
+            int id = size++;
+            hashes[id] = hash;
+
+            for (int i=0; i<NUM_BLOCKS; i++){
+                int key = getBlock(hash, i);
+                int[] bucket = buckets[i][key];
+                int n = counts[i][key];
+                if (bucket==null){
+                    bucket = buckets[i][key] = new int[4];
+                }
+                else if (n==bucket.length){
+                    bucket = buckets[i][key] = java.util.Arrays.copyOf(bucket, n*2);
+                }
+                bucket[n] = id;
+                counts[i][key] = n+1;
+            }
+
+            return id;
+        }
+        finally{
+            lock.writeLock().unlock();
+        }
+    }
+
+
+  //**************************************************************************
+  //** get
+  //**************************************************************************
+  /** Returns the hash associated with a given id.
+   */
+    public long get(int id){
+        lock.readLock().lock();
+        try{
+            if (id<0 || id>=size) throw new IndexOutOfBoundsException("Invalid id: " + id);
+            return hashes[id];
+        }
+        finally{
+            lock.readLock().unlock();
+        }
+    }
+
+
+  //**************************************************************************
+  //** size
+  //**************************************************************************
+  /** Returns the number of hashes in the index.
+   */
+    public int size(){
+        lock.readLock().lock();
+        try{
+            return size;
+        }
+        finally{
+            lock.readLock().unlock();
+        }
+    }
+
+
+  //**************************************************************************
+  //** find
+  //**************************************************************************
+  /** Returns the ids of all the hashes that are within a given Hamming
+   *  distance of a hash, sorted by id. Note that queries are fastest for
+   *  small distances. Queries with a distance of 16 bits or more require
+   *  a linear scan.
+   *  @param maxDistance Maximum number of bits that can differ
+   */
+    public int[] find(long hash, int maxDistance){
+        if (maxDistance<0) return new int[0];
+
+        lock.readLock().lock();
+        try{
+            int[] results = new int[16];
+            int numResults = 0;
+
+          //Radius for each block. For large distances, or small indexes, it
+          //is faster to simply scan all the hashes.
+            int r = maxDistance / NUM_BLOCKS;
+            if (r>=NUM_PROBES.length || size<NUM_PROBES[r]*NUM_BLOCKS){
+                for (int id=0; id<size; id++){
+                    if (Long.bitCount(hashes[id] ^ hash)<=maxDistance){
+                        if (numResults==results.length) results = java.util.Arrays.copyOf(results, numResults*2);
+                        results[numResults++] = id;
+                    }
+                }
+                return java.util.Arrays.copyOf(results, numResults);
+            }
+
+
+          //Probe all the buckets within r bits of each block
+            int[] keys = new int[NUM_BLOCKS];
+            for (int i=0; i<NUM_BLOCKS; i++) keys[i] = getBlock(hash, i);
+
+            int[] probes = new int[16];
+            for (int i=0; i<NUM_BLOCKS; i++){
+                int numProbes = getProbes(keys[i], 0, r, probes, 0);
+                if (numProbes>probes.length){
+                    probes = new int[numProbes];
+                    getProbes(keys[i], 0, r, probes, 0);
+                }
+
+                for (int p=0; p<numProbes; p++){
+                    int key = probes[p];
+                    int[] bucket = buckets[i][key];
+                    if (bucket==null) continue;
+
+                    int n = counts[i][key];
+                    for (int j=0; j<n; j++){
+                        int id = bucket[j];
+                        long h = hashes[id];
+                        if (Long.bitCount(h ^ hash)>maxDistance) continue;
+
+
+                      //Skip hashes that were found using a previous block
+                        boolean found = false;
+                        for (int k=0; k<i; k++){
+                            if (Integer.bitCount(getBlock(h, k) ^ keys[k])<=r){
+                                found = true;
+                                break;
+                            }
+                        }
+                        if (found) continue;
+
+
+                        if (numResults==results.length) results = java.util.Arrays.copyOf(results, numResults*2);
+                        results[numResults++] = id;
+                    }
+                }
+            }
+
+            results = java.util.Arrays.copyOf(results, numResults);
+            java.util.Arrays.sort(results);
+            return results;
+        }
+        finally{
+            lock.readLock().unlock();
+        }
+    }
+
+
+  //**************************************************************************
+  //** getProbes
+  //**************************************************************************
+  /** Used to generate all the keys that are within r bits of a given key.
+   *  Returns the number of keys. If the array is too small, the keys are
+   *  counted but not stored.
+   */
+    private static int getProbes(int key, int start, int r, int[] probes, int n){
+        if (n<probes.length) probes[n] = key;
+        n++;
+        if (r>0){
+            for (int bit=start; bit<BLOCK_SIZE; bit++){
+                n = getProbes(key ^ (1 << bit), bit+1, r-1, probes, n);
+            }
+        }
+        return n;
+    }
+
+
+  //**************************************************************************
+  //** getBlock
+  //**************************************************************************
+  /** Returns a 16-bit block from a hash.
+   */
+    private static int getBlock(long hash, int i){
+        return (int) (hash >>> (i*BLOCK_SIZE)) & (NUM_BUCKETS-1);
+    }
+}
+
+
+
+//***************************************************************************
+//**  Skew Class
+//***************************************************************************
+/**
+ *   Used to skew an image. Adapted from 2 image processing classes developed
+ *   by Jerry Huxtable (http://www.jhlabs.com) and released under
+ *   the Apache License, Version 2.0.
+ *
+ ***************************************************************************/
+
+private class Skew {
+
+    public final static int ZERO = 0;
+    public final static int CLAMP = 1;
+    public final static int WRAP = 2;
+
+    public final static int NEAREST_NEIGHBOUR = 0;
+    public final static int BILINEAR = 1;
+
+    protected int edgeAction = ZERO;
+    protected int interpolation = BILINEAR;
+
+    protected Rectangle transformedSpace;
+    protected Rectangle originalSpace;
+
+    private float x0, y0, x1, y1, x2, y2, x3, y3;
+    private float dx1, dy1, dx2, dy2, dx3, dy3;
+    private float A, B, C, D, E, F, G, H, I;
+
+
+    private BufferedImage src;
+    private BufferedImage dst;
+
+
+    public Skew(BufferedImage src) {
+        this.src = src;
+        this.dst = new BufferedImage(src.getWidth(), src.getHeight(), src.getType());
+    }
+
+    public Skew(javaxt.io.Image src) {
+        this(src.getBufferedImage());
+    }
+
+
+    public BufferedImage setCorners(float x0, float y0,
+                                    float x1, float y1,
+                                    float x2, float y2,
+                                    float x3, float y3)
+    {
+        this.x0 = x0;
+        this.y0 = y0;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+        this.x3 = x3;
+        this.y3 = y3;
+
+        dx1 = x1-x2;
+        dy1 = y1-y2;
+        dx2 = x3-x2;
+        dy2 = y3-y2;
+        dx3 = x0-x1+x2-x3;
+        dy3 = y0-y1+y2-y3;
+
+        float a11, a12, a13, a21, a22, a23, a31, a32;
+
+        if (dx3 == 0 && dy3 == 0) {
+            a11 = x1-x0;
+            a21 = x2-x1;
+            a31 = x0;
+            a12 = y1-y0;
+            a22 = y2-y1;
+            a32 = y0;
+            a13 = a23 = 0;
+        } else {
+            a13 = (dx3*dy2-dx2*dy3)/(dx1*dy2-dy1*dx2);
+            a23 = (dx1*dy3-dy1*dx3)/(dx1*dy2-dy1*dx2);
+            a11 = x1-x0+a13*x1;
+            a21 = x3-x0+a23*x3;
+            a31 = x0;
+            a12 = y1-y0+a13*y1;
+            a22 = y3-y0+a23*y3;
+            a32 = y0;
+        }
+
+        A = a22 - a32*a23;
+        B = a31*a23 - a21;
+        C = a21*a32 - a31*a22;
+        D = a32*a13 - a12;
+        E = a11 - a31*a13;
+        F = a31*a12 - a11*a32;
+        G = a12*a23 - a22*a13;
+        H = a21*a13 - a11*a23;
+        I = a11*a22 - a21*a12;
 
 
         return filter(src,dst);
@@ -2723,11 +4605,15 @@ private class Skew {
     }
 
 
-    private BufferedImage filter( BufferedImage src, BufferedImage dst ) {
-        int width = src.getWidth();
-        int height = src.getHeight();
-        //int type = src.getType();
-        //WritableRaster srcRaster = src.getRaster();
+  /** Used to transform the image. Destination rows are processed in
+   *  parallel. Instead of calling transformInverse() for every pixel, the
+   *  x and y terms of the transform are computed once per column and once
+   *  per row. The terms are added in the same order as transformInverse()
+   *  so the results are identical.
+   */
+    private BufferedImage filter( final BufferedImage src, BufferedImage dst ) {
+        final int width = src.getWidth();
+        final int height = src.getHeight();
 
         originalSpace = new Rectangle(0, 0, width, height);
         transformedSpace = new Rectangle(0, 0, width, height);
@@ -2742,55 +4628,103 @@ private class Skew {
                 null
             );
         }
-        //WritableRaster dstRaster = dst.getRaster();
-
-        int[] inPixels = getRGB( src, 0, 0, width, height, null );
-
-        if ( interpolation == NEAREST_NEIGHBOUR )
-            return filterPixelsNN( dst, width, height, inPixels, transformedSpace );
-
-        int srcWidth = width;
-        int srcHeight = height;
-        int srcWidth1 = width-1;
-        int srcHeight1 = height-1;
-        int outWidth = transformedSpace.width;
-        int outHeight = transformedSpace.height;
-        int outX, outY;
-        //int index = 0;
-        int[] outPixels = new int[outWidth];
-
-        outX = transformedSpace.x;
-        outY = transformedSpace.y;
-        float[] out = new float[2];
-
-        for (int y = 0; y < outHeight; y++) {
-            for (int x = 0; x < outWidth; x++) {
-                transformInverse(outX+x, outY+y, out);
-                int srcX = (int)Math.floor( out[0] );
-                int srcY = (int)Math.floor( out[1] );
-                float xWeight = out[0]-srcX;
-                float yWeight = out[1]-srcY;
-                int nw, ne, sw, se;
-
-                if ( srcX >= 0 && srcX < srcWidth1 && srcY >= 0 && srcY < srcHeight1) {
-                    // Easy case, all corners are in the image
-                    int i = srcWidth*srcY + srcX;
-                    nw = inPixels[i];
-                    ne = inPixels[i+1];
-                    sw = inPixels[i+srcWidth];
-                    se = inPixels[i+srcWidth+1];
-                } else {
-                    // Some of the corners are off the image
-                    nw = getPixel( inPixels, srcX, srcY, srcWidth, srcHeight );
-                    ne = getPixel( inPixels, srcX+1, srcY, srcWidth, srcHeight );
-                    sw = getPixel( inPixels, srcX, srcY+1, srcWidth, srcHeight );
-                    se = getPixel( inPixels, srcX+1, srcY+1, srcWidth, srcHeight );
-                }
-                outPixels[x] = bilinearInterpolate(xWeight, yWeight, nw, ne, sw, se);
-            }
-            setRGB( dst, 0, y, transformedSpace.width, 1, outPixels );
-        }
-            return dst;
+        final BufferedImage out = dst;
+
+        final int outWidth = transformedSpace.width;
+        final int outHeight = transformedSpace.height;
+        if (outWidth<=0 || outHeight<=0) return out;
+        if (outWidth>out.getWidth() || outHeight>out.getHeight()){
+            throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds!");
+        }
+
+
+      //Get pixels from the source image as ARGB values
+        final int[] inPixels = new int[width*height];
+        processRows(height, new RowProcessor(){
+            public void process(int startRow, int endRow){
+                PixelRows rows = new PixelRows(src);
+                int[] row = new int[width];
+                for (int y=startRow; y<endRow; y++){
+                    rows.read(y, row);
+                    System.arraycopy(row, 0, inPixels, y*width, width);
+                }
+            }
+        });
+
+
+      //Compute the x terms of the transform for each column
+        final int outX = transformedSpace.x;
+        final int outY = transformedSpace.y;
+        final float[] ax = new float[outWidth];
+        final float[] dx = new float[outWidth];
+        final float[] gx = new float[outWidth];
+        for (int x = 0; x < outWidth; x++) {
+            ax[x] = A*(outX+x);
+            dx[x] = D*(outX+x);
+            gx[x] = G*(outX+x);
+        }
+
+
+      //Transform rows in parallel
+        processRows(outHeight, new RowProcessor(){
+            public void process(int startRow, int endRow){
+                PixelRows rows = new PixelRows(out);
+                int[] outPixels = new int[outWidth];
+                for (int y = startRow; y < endRow; y++) {
+                    float by = B*(outY+y);
+                    float ey = E*(outY+y);
+                    float hy = H*(outY+y);
+                    if ( interpolation == NEAREST_NEIGHBOUR ) {
+                        filterRowNN(inPixels, width, height, ax, dx, gx, by, ey, hy, outPixels);
+                    }
+                    else {
+                        filterRow(inPixels, width, height, ax, dx, gx, by, ey, hy, outPixels);
+                    }
+                    rows.write(0, y, outWidth, outPixels);
+                }
+            }
+        });
+
+        return out;
+    }
+
+
+  /** Used to compute a row of pixels using bilinear interpolation. */
+    private void filterRow( int[] inPixels, int srcWidth, int srcHeight,
+        float[] ax, float[] dx, float[] gx, float by, float ey, float hy,
+        int[] outPixels )
+    {
+        int srcWidth1 = srcWidth-1;
+        int srcHeight1 = srcHeight-1;
+        int w = originalSpace.width;
+        int h = originalSpace.height;
+
+        for (int x = 0; x < outPixels.length; x++) {
+            float den = gx[x]+hy+I;
+            float outX = w * (ax[x]+by+C)/den;
+            float outY = h * (dx[x]+ey+F)/den;
+            int srcX = (int)Math.floor( outX );
+            int srcY = (int)Math.floor( outY );
+            float xWeight = outX-srcX;
+            float yWeight = outY-srcY;
+            int nw, ne, sw, se;
+
+            if ( srcX >= 0 && srcX < srcWidth1 && srcY >= 0 && srcY < srcHeight1) {
+                // Easy case, all corners are in the image
+                int i = srcWidth*srcY + srcX;
+                nw = inPixels[i];
+                ne = inPixels[i+1];
+                sw = inPixels[i+srcWidth];
+                se = inPixels[i+srcWidth+1];
+            } else {
+                // Some of the corners are off the image
+                nw = getPixel( inPixels, srcX, srcY, srcWidth, srcHeight );
+                ne = getPixel( inPixels, srcX+1, srcY, srcWidth, srcHeight );
+                sw = getPixel( inPixels, srcX, srcY+1, srcWidth, srcHeight );
+                se = getPixel( inPixels, srcX+1, srcY+1, srcWidth, srcHeight );
+            }
+            outPixels[x] = bilinearInterpolate(xWeight, yWeight, nw, ne, sw, se);
+        }
     }
 
     final private int getPixel( int[] pixels, int x, int y, int width, int height ) {
@@ -2809,51 +4743,40 @@ private class Skew {
     }
 
 
-    protected BufferedImage filterPixelsNN( BufferedImage dst, int width,
-            int height, int[] inPixels, Rectangle transformedSpace )
+  /** Used to compute a row of pixels using nearest neighbour interpolation. */
+    private void filterRowNN( int[] inPixels, int srcWidth, int srcHeight,
+        float[] ax, float[] dx, float[] gx, float by, float ey, float hy,
+        int[] outPixels )
     {
-        int srcWidth = width;
-        int srcHeight = height;
-        int outWidth = transformedSpace.width;
-        int outHeight = transformedSpace.height;
-        int outX, outY, srcX, srcY;
-        int[] outPixels = new int[outWidth];
-
-        outX = transformedSpace.x;
-        outY = transformedSpace.y;
-        int[] rgb = new int[4];
-        float[] out = new float[2];
-
-        for (int y = 0; y < outHeight; y++) {
-            for (int x = 0; x < outWidth; x++) {
-                transformInverse(outX+x, outY+y, out);
-                srcX = (int)out[0];
-                srcY = (int)out[1];
-                // int casting rounds towards zero, so we check out[0] < 0, not srcX < 0
-                if (out[0] < 0 || srcX >= srcWidth || out[1] < 0 || srcY >= srcHeight) {
-                    int p;
-                    switch (edgeAction) {
-                    case ZERO:
-                    default:
-                        p = 0;
-                        break;
-                    case WRAP:
-                        p = inPixels[(mod(srcY, srcHeight) * srcWidth) + mod(srcX, srcWidth)];
-                        break;
-                    case CLAMP:
-                        p = inPixels[(clamp(srcY, 0, srcHeight-1) * srcWidth) + clamp(srcX, 0, srcWidth-1)];
-                        break;
-                    }
-                    outPixels[x] = p;
-                } else {
-                    int i = srcWidth*srcY + srcX;
-                    rgb[0] = inPixels[i];
-                    outPixels[x] = inPixels[i];
+        int w = originalSpace.width;
+        int h = originalSpace.height;
+
+        for (int x = 0; x < outPixels.length; x++) {
+            float den = gx[x]+hy+I;
+            float outX = w * (ax[x]+by+C)/den;
+            float outY = h * (dx[x]+ey+F)/den;
+            int srcX = (int)outX;
+            int srcY = (int)outY;
+            // int casting rounds towards zero, so we check outX < 0, not srcX < 0
+            if (outX < 0 || srcX >= srcWidth || outY < 0 || srcY >= srcHeight) {
+                int p;
+                switch (edgeAction) {
+                case ZERO:
+                default:
+                    p = 0;
+                    break;
+                case WRAP:
+                    p = inPixels[(mod(srcY, srcHeight) * srcWidth) + mod(srcX, srcWidth)];
+                    break;
+                case CLAMP:
+                    p = inPixels[(clamp(srcY, 0, srcHeight-1) * srcWidth) + clamp(srcX, 0, srcWidth-1)];
+                    break;
                 }
+                outPixels[x] = p;
+            } else {
+                outPixels[x] = inPixels[srcWidth*srcY + srcX];
             }
-            setRGB( dst, 0, y, transformedSpace.width, 1, outPixels );
         }
-        return dst;
     }
 
 
@@ -2875,30 +4798,6 @@ private class Skew {
     }
 */
 
-    /**
-     * A convenience method for getting ARGB pixels from an image. This tries to avoid the performance
-     * penalty of BufferedImage.getRGB unmanaging the image.
-     */
-    public int[] getRGB( BufferedImage image, int x, int y, int width, int height, int[] pixels ) {
-        int type = image.getType();
-        if ( type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB )
-            return (int [])image.getRaster().getDataElements( x, y, width, height, pixels );
-        return image.getRGB( x, y, width, height, pixels, 0, width );
-    }
-
-    /**
-     * A convenience method for setting ARGB pixels in an image. This tries to avoid the performance
-     * penalty of BufferedImage.setRGB unmanaging the image.
-     */
-    public void setRGB( BufferedImage image, int x, int y, int width, int height, int[] pixels ) {
-        int type = image.getType();
-        if (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
-            image.getRaster().setDataElements( x, y, width, height, pixels );
-        else
-            image.setRGB( x, y, width, height, pixels, 0, width );
-    }
-
-
 
     /**
      * Clamp a value to an interval.
@@ -3019,4 +4918,469 @@ private class Skew {
 
 } //end skew class
 
+
+
+//***************************************************************************
+//**  Resampler Class
+//***************************************************************************
+/**
+ *   Used to resize images using separable filters. Pixels are read and
+ *   written directly from the raster as ints or bytes. Images with other
+ *   pixel layouts are converted to TYPE_INT_ARGB first. Each channel is
+ *   filtered independently so the channel order doesn't matter. Colors are
+ *   premultiplied by alpha while filtering to avoid dark fringes around
+ *   transparent pixels.
+ *
+ ***************************************************************************/
+
+private static class Resampler {
+
+    private final BufferedImage src;
+    private final int width;
+    private final int height;
+    private final int numChannels;
+    private final boolean packed;
+    private final int alpha;
+    private final boolean premultiply;
+
+
+  //**************************************************************************
+  //** resize
+  //**************************************************************************
+  /** Returns a resized copy of an image. See Image.resize() for a list of
+   *  methods.
+   */
+    public static BufferedImage resize(BufferedImage img, int width, int height, int method){
+
+        int outputType = img.getType();
+        if (outputType<=0 || outputType==BufferedImage.TYPE_BYTE_BINARY){
+            outputType = BufferedImage.TYPE_INT_ARGB;
+        }
+
+        if (!isSupported(img)) img = convert(img, BufferedImage.TYPE_INT_ARGB);
+
+
+        if (method==BILINEAR){
+
+          //Halve the image until it is less than twice the target size
+            while (img.getWidth()/2>=width && img.getHeight()/2>=height){
+                img = new Resampler(img).halve();
+            }
+            img = new Resampler(img).resample(width, height, BILINEAR, false);
+        }
+        else{
+
+          //Halve the image until it is less than 3 times the target size. The
+          //remaining reduction is done using the selected filter. This is
+          //much faster than filtering the full size image with a very wide
+          //kernel and the difference in quality is negligible.
+            if (method!=BICUBIC) method = LANCZOS3;
+            while (img.getWidth()/2>=width*3 && img.getHeight()/2>=height*3){
+                img = new Resampler(img).halve();
+            }
+            img = new Resampler(img).resample(width, height, method, true);
+        }
+
+
+        if (img.getType()!=outputType) img = convert(img, outputType);
+        return img;
+    }
+
+
+  //**************************************************************************
+  //** isSupported
+  //**************************************************************************
+  /** Returns true if the pixels in the image can be read directly from the
+   *  raster.
+   */
+    private static boolean isSupported(BufferedImage img){
+        switch (img.getType()){
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_ARGB_PRE:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+
+  //**************************************************************************
+  //** convert
+  //**************************************************************************
+    private static BufferedImage convert(BufferedImage img, int type){
+        BufferedImage bi = new BufferedImage(img.getWidth(), img.getHeight(), type);
+        Graphics2D g2d = bi.createGraphics();
+        g2d.drawImage(img, 0, 0, null);
+        g2d.dispose();
+        return bi;
+    }
+
+
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+    private Resampler(BufferedImage src){
+        this.src = src;
+        this.width = src.getWidth();
+        this.height = src.getHeight();
+        int type = src.getType();
+        packed = (type==BufferedImage.TYPE_INT_RGB || type==BufferedImage.TYPE_INT_ARGB ||
+                  type==BufferedImage.TYPE_INT_ARGB_PRE || type==BufferedImage.TYPE_INT_BGR);
+        numChannels = packed ? 4 : src.getRaster().getNumDataElements();
+
+        if (type==BufferedImage.TYPE_INT_ARGB || type==BufferedImage.TYPE_INT_ARGB_PRE) alpha = 3;
+        else if (type==BufferedImage.TYPE_4BYTE_ABGR || type==BufferedImage.TYPE_4BYTE_ABGR_PRE) alpha = 0;
+        else alpha = -1;
+
+        premultiply = (type==BufferedImage.TYPE_INT_ARGB || type==BufferedImage.TYPE_4BYTE_ABGR);
+    }
+
+
+  //**************************************************************************
+  //** resample
+  //**************************************************************************
+  /** Used to resample the image. Output rows are split into bands that are
+   *  processed in parallel. For each band, the source rows needed by the
+   *  band are resampled horizontally into a temporary buffer. The buffer is
+   *  then resampled vertically into the output image. Note that bands
+   *  overlap by the height of the filter so a few rows are resampled twice.
+   *  @param scaleKernel If true, the filter is widened when downsampling
+   *  so that every input pixel contributes to the output.
+   */
+    private BufferedImage resample(final int dstWidth, final int dstHeight, int method, boolean scaleKernel){
+
+        final Weights xWeights = new Weights(width, dstWidth, method, scaleKernel);
+        final Weights yWeights = new Weights(height, dstHeight, method, scaleKernel);
+        final int rowLength = dstWidth*numChannels;
+        final BufferedImage dst = new BufferedImage(dstWidth, dstHeight, src.getType());
+
+        processRows(dstHeight, new RowProcessor(){
+            public void process(int startRow, int endRow){
+
+              //Find source rows needed for this band
+                int firstRow = height;
+                int lastRow = 0;
+                for (int y=startRow; y<endRow; y++){
+                    firstRow = Math.min(firstRow, yWeights.start[y]);
+                    lastRow = Math.max(lastRow, yWeights.start[y]+yWeights.weights[y].length);
+                }
+
+
+              //Resample source rows horizontally
+                float[] tmp = new float[(lastRow-firstRow)*rowLength];
+                int[] row = new int[width*numChannels];
+                Object buffer = null;
+                int offset = 0;
+                for (int y=firstRow; y<lastRow; y++){
+                    buffer = readRow(src.getRaster(), y, width, buffer, row);
+                    offset = resampleRow(row, tmp, offset, xWeights, dstWidth);
+                }
+
+
+              //Resample columns
+                float[] sums = new float[rowLength];
+                buffer = null;
+                for (int y=startRow; y<endRow; y++){
+                    java.util.Arrays.fill(sums, 0);
+                    int start = yWeights.start[y]-firstRow;
+                    float[] w = yWeights.weights[y];
+                    for (int k=0; k<w.length; k++){
+                        float f = w[k];
+                        int i = (start+k)*rowLength;
+                        for (int j=0; j<rowLength; j++){
+                            sums[j] += f*tmp[i++];
+                        }
+                    }
+                    buffer = writeRow(dst.getRaster(), y, dstWidth, buffer, sums);
+                }
+            }
+        });
+
+        return dst;
+    }
+
+
+  //**************************************************************************
+  //** halve
+  //**************************************************************************
+  /** Returns a copy of the image at half the size. Each output pixel is the
+   *  average of a 2x2 block of input pixels.
+   */
+    private BufferedImage halve(){
+        final int dstWidth = width/2;
+        final int dstHeight = height/2;
+        final BufferedImage dst = new BufferedImage(dstWidth, dstHeight, src.getType());
+
+        processRows(dstHeight, new RowProcessor(){
+            public void process(int startRow, int endRow){
+                int[] row1 = new int[width*numChannels];
+                int[] row2 = new int[width*numChannels];
+                float[] out = new float[dstWidth*numChannels];
+                Object buffer1 = null, buffer2 = null, buffer3 = null;
+                int stride = numChannels*2;
+                for (int y=startRow; y<endRow; y++){
+                    buffer1 = readRow(src.getRaster(), y*2, width, buffer1, row1);
+                    buffer2 = readRow(src.getRaster(), y*2+1, width, buffer2, row2);
+                    for (int x=0, i=0, j=0; x<dstWidth; x++, j+=stride){
+                        for (int c=0; c<numChannels; c++){
+                            int k = j+c;
+                            out[i++] = (row1[k] + row1[k+numChannels] +
+                                        row2[k] + row2[k+numChannels])*0.25f;
+                        }
+                    }
+                    buffer3 = writeRow(dst.getRaster(), y, dstWidth, buffer3, out);
+                }
+            }
+        });
+
+        return dst;
+    }
+
+
+  //**************************************************************************
+  //** resampleRow
+  //**************************************************************************
+  /** Used to resample a row of channel values horizontally. Common channel
+   *  counts are unrolled. Returns the offset of the next row in the output
+   *  array.
+   */
+    private int resampleRow(int[] row, float[] out, int offset, Weights weights, int dstWidth){
+        for (int x=0; x<dstWidth; x++){
+            int idx = weights.start[x]*numChannels;
+            float[] w = weights.weights[x];
+            if (numChannels==4){
+                float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+                for (int k=0; k<w.length; k++){
+                    float f = w[k];
+                    s0 += f*row[idx];
+                    s1 += f*row[idx+1];
+                    s2 += f*row[idx+2];
+                    s3 += f*row[idx+3];
+                    idx += 4;
+                }
+                out[offset++] = s0;
+                out[offset++] = s1;
+                out[offset++] = s2;
+                out[offset++] = s3;
+            }
+            else if (numChannels==3){
+                float s0 = 0, s1 = 0, s2 = 0;
+                for (int k=0; k<w.length; k++){
+                    float f = w[k];
+                    s0 += f*row[idx];
+                    s1 += f*row[idx+1];
+                    s2 += f*row[idx+2];
+                    idx += 3;
+                }
+                out[offset++] = s0;
+                out[offset++] = s1;
+                out[offset++] = s2;
+            }
+            else if (numChannels==1){
+                float s0 = 0;
+                for (int k=0; k<w.length; k++){
+                    s0 += w[k]*row[idx++];
+                }
+                out[offset++] = s0;
+            }
+            else{
+                for (int c=0; c<numChannels; c++){
+                    float sum = 0;
+                    int i = idx+c;
+                    for (int k=0; k<w.length; k++){
+                        sum += w[k]*row[i];
+                        i += numChannels;
+                    }
+                    out[offset++] = sum;
+                }
+            }
+        }
+        return offset;
+    }
+
+
+  //**************************************************************************
+  //** readRow
+  //**************************************************************************
+  /** Used to read a row of pixels into an array of channel values.
+   */
+    private Object readRow(WritableRaster raster, int y, int w, Object buffer, int[] row){
+        buffer = raster.getDataElements(0, y, w, 1, buffer);
+        if (packed){
+            int[] pixels = (int[]) buffer;
+            for (int x=0, i=0; x<w; x++){
+                int p = pixels[x];
+                row[i++] = p & 0xff;
+                row[i++] = (p >> 8) & 0xff;
+                row[i++] = (p >> 16) & 0xff;
+                row[i++] = (p >>> 24);
+            }
+        }
+        else{
+            byte[] bytes = (byte[]) buffer;
+            for (int i=0; i<row.length; i++){
+                row[i] = bytes[i] & 0xff;
+            }
+        }
+
+        if (premultiply){
+            for (int i=0; i<row.length; i+=numChannels){
+                int a = row[i+alpha];
+                if (a==255) continue;
+                for (int c=0; c<numChannels; c++){
+                    if (c!=alpha){
+                        int t = row[i+c]*a + 128;
+                        row[i+c] = (t + (t >> 8)) >> 8; //t/255
+                    }
+                }
+            }
+        }
+        return buffer;
+    }
+
+
+  //**************************************************************************
+  //** writeRow
+  //**************************************************************************
+  /** Used to write a row of channel values to the raster.
+   */
+    private Object writeRow(WritableRaster raster, int y, int w, Object buffer, float[] row){
+        if (buffer==null) buffer = packed ? new int[w] : new byte[w*numChannels];
+
+        if (packed){
+            int[] pixels = (int[]) buffer;
+            for (int x=0, i=0; x<w; x++, i+=4){
+                int c0 = clamp(row[i]);
+                int c1 = clamp(row[i+1]);
+                int c2 = clamp(row[i+2]);
+                int c3 = clamp(row[i+3]);
+                if (premultiply && c3<255) {
+                    c0 = unpremultiply(c0, c3);
+                    c1 = unpremultiply(c1, c3);
+                    c2 = unpremultiply(c2, c3);
+                }
+                pixels[x] = (c3 << 24) | (c2 << 16) | (c1 << 8) | c0;
+            }
+        }
+        else{
+            byte[] bytes = (byte[]) buffer;
+            for (int i=0; i<bytes.length; i+=numChannels){
+                int a = alpha<0 ? 255 : clamp(row[i+alpha]);
+                for (int c=0; c<numChannels; c++){
+                    int v = clamp(row[i+c]);
+                    if (premultiply && c!=alpha && a<255) v = unpremultiply(v, a);
+                    bytes[i+c] = (byte) v;
+                }
+            }
+        }
+
+        raster.setDataElements(0, y, w, 1, buffer);
+        return buffer;
+    }
+
+    private static int clamp(float f){
+        int i = (int)(f+0.5f);
+        if (i<0) return 0;
+        if (i>255) return 255;
+        return i;
+    }
+
+    private static int unpremultiply(int c, int a){
+        if (a==0) return 0;
+        int v = (c*255+a/2)/a;
+        return v>255 ? 255 : v;
+    }
+
+
+  //**************************************************************************
+  //** Weights Class
+  //**************************************************************************
+  /** Used to compute filter weights for every pixel in a row or column.
+   */
+    private static class Weights {
+
+        private final int[] start;
+        private final float[][] weights;
+
+        public Weights(int srcLength, int dstLength, int method, boolean scaleKernel){
+            start = new int[dstLength];
+            weights = new float[dstLength][];
+
+            double scale = (double) dstLength/srcLength;
+            double filterScale = (scaleKernel && scale<1) ? 1/scale : 1;
+            double support = getSupport(method)*filterScale;
+
+            for (int i=0; i<dstLength; i++){
+                double center = (i+0.5)/scale;
+                int left = Math.max(0, (int)Math.floor(center-support));
+                int right = Math.min(srcLength-1, (int)Math.ceil(center+support));
+                if (right<left) right = left;
+
+                float[] w = new float[right-left+1];
+                double total = 0;
+                for (int j=left; j<=right; j++){
+                    double f = getWeight(method, ((j+0.5)-center)/filterScale);
+                    w[j-left] = (float) f;
+                    total += f;
+                }
+
+
+              //Remove zero weights from the ends
+                int first = 0, last = w.length-1;
+                while (first<last && w[first]==0) first++;
+                while (last>first && w[last]==0) last--;
+                if (first>0 || last<w.length-1){
+                    w = java.util.Arrays.copyOfRange(w, first, last+1);
+                    left += first;
+                }
+
+
+              //Normalize weights. Fall back to nearest neighbor if all the
+              //weights are zero.
+                if (total==0){
+                    w = new float[]{1};
+                    left = Math.min(srcLength-1, Math.max(0, (int)center));
+                }
+                else{
+                    for (int j=0; j<w.length; j++) w[j] /= total;
+                }
+
+                start[i] = left;
+                weights[i] = w;
+            }
+        }
+
+        private static double getSupport(int method){
+            if (method==BILINEAR) return 1;
+            if (method==BICUBIC) return 2;
+            return 3;
+        }
+
+        private static double getWeight(int method, double x){
+            if (x<0) x = -x;
+            if (method==BILINEAR){
+                return x<1 ? 1-x : 0;
+            }
+            else if (method==BICUBIC){ //Catmull-Rom (a=-0.5)
+                if (x<1) return (1.5*x - 2.5)*x*x + 1;
+                if (x<2) return ((-0.5*x + 2.5)*x - 4)*x + 2;
+                return 0;
+            }
+            else{ //Lanczos3
+                if (x==0) return 1;
+                if (x>=3) return 0;
+                double px = Math.PI*x;
+                return 3*Math.sin(px)*Math.sin(px/3)/(px*px);
+            }
+        }
+    }
+
+} //end resampler class
+
 } //end image class
\ No newline at end of file
@@ -0,0 +1,405 @@
+package javaxt.io;
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.IOException;
+
+//******************************************************************************
+//**  ImageCache Class
+//******************************************************************************
+/**
+ *   Used to cache derivatives of images (e.g. thumbnails). Derivatives are
+ *   identified by the source file (path, size, and last modified date) and
+ *   the output used to create the derivative (format, quality, and chain of
+ *   operations). Derivatives are stored in memory, up to a given number of
+ *   bytes, and optionally in a directory on disk. When the memory limit is
+ *   reached, the least recently used derivatives are removed from memory.
+ *   Concurrent requests for the same derivative are only computed once.
+ *   Example:
+ <pre>
+    ImageCache cache = new ImageCache(64*1024*1024, new Directory("/temp/cache"));
+    ImagePipeline.Output thumbnail = new ImagePipeline.Output("jpg")
+        .rotate().resize(150, 150, true).setOutputQuality(0.8f);
+
+    byte[] bytes = cache.get(new java.io.File("/photos/IMG_1234.jpg"), thumbnail);
+ </pre>
+ *
+ *   Derivatives on disk are never deleted by the cache. Derivatives of files
+ *   that have been modified are simply stored under a new key. Use the
+ *   clear() method to remove them.
+ *
+ ******************************************************************************/
+
+public class ImageCache {
+
+    private final long maxMemory;
+    private final java.io.File directory;
+    private long memoryInUse = 0;
+    private final LinkedHashMap<String, byte[]> cache =
+        new LinkedHashMap<String, byte[]>(16, 0.75f, true); //access order
+    private final ConcurrentHashMap<String, FutureTask<byte[]>> loading =
+        new ConcurrentHashMap<String, FutureTask<byte[]>>();
+    private final Stats stats = new Stats();
+
+
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+  /** Creates a memory-only cache.
+   *  @param maxMemory Maximum number of bytes to store in memory
+   */
+    public ImageCache(long maxMemory){
+        this(maxMemory, null);
+    }
+
+
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+  /** Creates a cache backed by a directory.
+   *  @param maxMemory Maximum number of bytes to store in memory
+   *  @param directory Directory used to store derivatives on disk. Optional.
+   */
+    public ImageCache(long maxMemory, Directory directory){
+        this.maxMemory = Math.max(0, maxMemory);
+        this.directory = directory==null ? null : directory.toFile();
+    }
+
+
+  //**************************************************************************
+  //** get
+  //**************************************************************************
+  /** Returns a derivative of an image. The derivative is created if it is
+   *  not found in memory or on disk. If another thread is creating the same
+   *  derivative, waits for it to finish instead of creating it again.
+   *  Returns a copy of the cached bytes so callers can't modify the cache.
+   *  @param file Source image
+   *  @param output Used to create the derivative. See ImagePipeline.Output
+   *  @throws IOException if the derivative could not be created
+   */
+    public byte[] get(final java.io.File file, final ImagePipeline.Output output) throws IOException {
+        final String key = getKey(file, output);
+
+
+      //Check memory
+        byte[] data = getData(key);
+        if (data!=null){
+            stats.hit();
+            return data.clone();
+        }
+
+
+      //Load the derivative or wait for another thread to load it
+        FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>(){
+            public byte[] call() throws Exception {
+                return load(key, file, output);
+            }
+        });
+        FutureTask<byte[]> t = loading.putIfAbsent(key, task);
+        if (t==null){
+            try{
+                task.run();
+            }
+            finally{
+                loading.remove(key, task);
+            }
+            t = task;
+        }
+        else{
+            stats.coalesce();
+        }
+
+
+        try{
+            return t.get().clone();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        catch(ExecutionException e){
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+
+  //**************************************************************************
+  //** remove
+  //**************************************************************************
+  /** Used to remove a derivative from memory and disk.
+   */
+    public void remove(java.io.File file, ImagePipeline.Output output){
+        String key = getKey(file, output);
+        synchronized(cache){
+            byte[] data = cache.remove(key);
+            if (data!=null) memoryInUse-=data.length;
+        }
+        if (directory!=null) getFile(key, output).delete();
+    }
+
+
+  //**************************************************************************
+  //** clear
+  //**************************************************************************
+  /** Used to remove all derivatives from memory and disk. Only files created
+   *  by the cache are deleted (see getFile) so other files in the directory
+   *  are not affected.
+   */
+    public void clear(){
+        synchronized(cache){
+            cache.clear();
+            memoryInUse = 0;
+        }
+        if (directory!=null){
+            java.io.File[] dirs = directory.listFiles();
+            if (dirs!=null){
+                for (java.io.File dir : dirs){
+                    if (!dir.isDirectory() || !dir.getName().matches("[0-9a-f]{2}")) continue;
+                    java.io.File[] files = dir.listFiles();
+                    if (files!=null){
+                        for (java.io.File f : files){
+                            String name = f.getName();
+                            if (f.isFile() && name.startsWith(dir.getName()) &&
+                                name.matches("[0-9a-f]{40}\\.[^.]+(\\d+\\.tmp)?")){ //derivative or temp file
+                                f.delete();
+                            }
+                        }
+                    }
+                    dir.delete(); //only succeeds if the directory is empty
+                }
+            }
+        }
+    }
+
+
+  //**************************************************************************
+  //** getStats
+  //**************************************************************************
+  /** Returns cache statistics (e.g. hit rate and evictions).
+   */
+    public Stats getStats(){
+        return stats;
+    }
+
+
+  //**************************************************************************
+  //** getMemoryUsage
+  //**************************************************************************
+  /** Returns the number of bytes stored in memory.
+   */
+    public long getMemoryUsage(){
+        synchronized(cache){
+            return memoryInUse;
+        }
+    }
+
+
+  //**************************************************************************
+  //** getSize
+  //**************************************************************************
+  /** Returns the number of derivatives stored in memory.
+   */
+    public int getSize(){
+        synchronized(cache){
+            return cache.size();
+        }
+    }
+
+
+  //**************************************************************************
+  //** load
+  //**************************************************************************
+  /** Used to load a derivative from disk or create a new one. Only one
+   *  thread calls this method for a given key at a time.
+   */
+    private byte[] load(String key, java.io.File file, ImagePipeline.Output output) throws IOException {
+
+      //Check memory again in case another thread finished loading the
+      //derivative after the first check
+        byte[] data = getData(key);
+        if (data!=null){
+            stats.hit();
+            return data;
+        }
+
+
+      //Check disk
+        java.io.File cacheFile = directory==null ? null : getFile(key, output);
+        if (cacheFile!=null && cacheFile.isFile()){
+            data = java.nio.file.Files.readAllBytes(cacheFile.toPath());
+            stats.diskHit();
+            put(key, data);
+            return data;
+        }
+
+
+      //Create derivative
+        if (!file.isFile()) throw new java.io.FileNotFoundException(file.toString());
+        int[] size = output.getDecodeSize();
+        Image src = size==null ? new Image(file) : Image.decode(file, size[0], size[1]);
+        if (src.getBufferedImage()==null) throw new IOException("Failed to decode " + file);
+        data = output.encode(output.apply(src, null));
+        if (data==null) throw new IOException("Failed to encode " + file);
+        stats.miss();
+
+
+      //Save derivative to disk. The file is written to a temp file first so
+      //other processes never see a partial file.
+        if (cacheFile!=null){
+            try{
+                cacheFile.getParentFile().mkdirs();
+                java.io.File tmp = java.io.File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+                java.nio.file.Files.write(tmp.toPath(), data);
+                try{
+                    java.nio.file.Files.move(tmp.toPath(), cacheFile.toPath(),
+                    java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+                }
+                catch(IOException e){
+                    java.nio.file.Files.move(tmp.toPath(), cacheFile.toPath(),
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            catch(IOException e){
+                //Failed to write to disk. Not fatal.
+            }
+        }
+
+        put(key, data);
+        return data;
+    }
+
+
+  //**************************************************************************
+  //** getData
+  //**************************************************************************
+  /** Returns a derivative from memory or null if it is not in memory.
+   */
+    private byte[] getData(String key){
+        synchronized(cache){
+            return cache.get(key);
+        }
+    }
+
+
+  //**************************************************************************
+  //** put
+  //**************************************************************************
+  /** Used to add a derivative to memory. Removes the least recently used
+   *  derivatives until the cache fits in the memory limit. Derivatives that
+   *  are larger than the limit are not stored in memory.
+   */
+    private void put(String key, byte[] data){
+        if (data.length>maxMemory) return;
+        synchronized(cache){
+            byte[] prev = cache.put(key, data);
+            if (prev!=null) memoryInUse-=prev.length;
+            memoryInUse+=data.length;
+
+            Iterator<Map.Entry<String, byte[]>> it = cache.entrySet().iterator();
+            while (memoryInUse>maxMemory && it.hasNext()){
+                byte[] eldest = it.next().getValue();
+                it.remove();
+                memoryInUse-=eldest.length;
+                stats.evict(eldest.length);
+            }
+        }
+    }
+
+
+  //**************************************************************************
+  //** getKey
+  //**************************************************************************
+  /** Returns a key for a derivative using the path, size, and date of the
+   *  source file and a description of the output.
+   */
+    private static String getKey(java.io.File file, ImagePipeline.Output output){
+        return file.getAbsolutePath() + "|" + file.length() + "|" +
+        file.lastModified() + "|" + output.toString();
+    }
+
+
+  //**************************************************************************
+  //** getFile
+  //**************************************************************************
+  /** Returns the path to a derivative on disk. Files are named using a
+   *  SHA-1 hash of the key and stored in subdirectories named after the
+   *  first 2 characters of the hash.
+   */
+    private java.io.File getFile(String key, ImagePipeline.Output output){
+        try{
+            java.security.MessageDigest md = java.security.MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(key.getBytes("UTF-8"));
+            StringBuilder hash = new StringBuilder();
+            for (byte b : digest){
+                hash.append(String.format("%02x", b & 0xff));
+            }
+            String name = hash.toString();
+            return new java.io.File(directory, name.substring(0, 2) +
+            java.io.File.separator + name + "." + output.getFormat());
+        }
+        catch(Exception e){
+            throw new RuntimeException(e);
+        }
+    }
+
+
+  //**************************************************************************
+  //** Stats Class
+  //**************************************************************************
+  /** Used to track cache hits, misses, and evictions.
+   */
+    public static class Stats {
+
+        private long hits = 0;
+        private long diskHits = 0;
+        private long misses = 0;
+        private long coalesced = 0;
+        private long evictions = 0;
+        private long evictedBytes = 0;
+
+        private synchronized void hit(){ hits++; }
+        private synchronized void diskHit(){ diskHits++; }
+        private synchronized void miss(){ misses++; }
+        private synchronized void coalesce(){ coalesced++; }
+        private synchronized void evict(long bytes){
+            evictions++;
+            evictedBytes+=bytes;
+        }
+
+      /** Returns the number of derivatives found in memory. */
+        public synchronized long getHits(){ return hits; }
+
+      /** Returns the number of derivatives found on disk. */
+        public synchronized long getDiskHits(){ return diskHits; }
+
+      /** Returns the number of derivatives that had to be created. */
+        public synchronized long getMisses(){ return misses; }
+
+      /** Returns the number of requests that waited for another thread to
+       *  load the same derivative.
+       */
+        public synchronized long getCoalesced(){ return coalesced; }
+
+      /** Returns the number of derivatives removed from memory. */
+        public synchronized long getEvictions(){ return evictions; }
+
+      /** Returns the number of bytes removed from memory. */
+        public synchronized long getEvictedBytes(){ return evictedBytes; }
+
+      /** Returns the percentage of derivatives found in memory or on disk
+       *  (0-1). Requests that waited for another thread are not included.
+       */
+        public synchronized double getHitRate(){
+            long total = hits + diskHits + misses;
+            return total==0 ? 0 : (double) (hits + diskHits) / total;
+        }
+
+        public synchronized String toString(){
+            return "Hits: " + hits + " (memory), " + diskHits + " (disk), " +
+            "Misses: " + misses + ", Coalesced: " + coalesced + ", " +
+            "Evictions: " + evictions + " (" + evictedBytes + " bytes), " +
+            "Hit Rate: " + String.format("%.1f%%", getHitRate()*100);
+        }
+    }
+}
@@ -0,0 +1,614 @@
+package javaxt.io;
+import java.util.*;
+
+//******************************************************************************
+//**  ImagePipeline Class
+//******************************************************************************
+/**
+ *   Used to create derivatives (e.g. thumbnails, previews, web images) from
+ *   a large number of images. Each image is decoded once and every output is
+ *   created from the decoded image using a chain of operations (resize, crop,
+ *   rotate, sharpen, etc). When every output starts with a resize, images
+ *   are decoded at a reduced resolution (see ImageReadParam subsampling).
+ *   Images are processed concurrently. The number of images in memory is
+ *   limited by a memory budget so large bursts of images won't exhaust the
+ *   heap. Example:
+ <pre>
+    ImagePipeline pipeline = new ImagePipeline(4, 512*1024*1024L);
+    pipeline.addOutput(new Directory("/data/thumbnails"), "jpg")
+        .rotate().resize(150, 150, true).sharpen().setOutputQuality(0.8f);
+    pipeline.addOutput(new Directory("/data/web"), "jpg")
+        .rotate().resize(1200, 1200, true).setOutputQuality(0.9f);
+
+    for (java.io.File file : files){
+        pipeline.add(file);
+    }
+
+    ImagePipeline.Report report = pipeline.done();
+    System.out.println(report);
+ </pre>
+ *
+ ******************************************************************************/
+
+public class ImagePipeline {
+
+    private final int numThreads;
+    private final long maxMemory;
+    private long memoryInUse = 0;
+    private final Object memoryLock = new Object();
+    private final ArrayList<Output> outputs = new ArrayList<Output>();
+    private int[] decodeSize;
+    private javaxt.utils.ThreadPool pool;
+    private final Report report = new Report();
+    private long startTime;
+
+
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+  /** Creates a new instance of this class.
+   *  @param numThreads Number of images to process concurrently
+   *  @param maxMemory Approximate number of bytes that can be used to store
+   *  decoded images. Images are not decoded until there is enough room in
+   *  the budget. Images that are larger than the budget are processed one
+   *  at a time. If zero or less, memory is not limited.
+   */
+    public ImagePipeline(int numThreads, long maxMemory){
+        this.numThreads = Math.max(1, numThreads);
+        this.maxMemory = maxMemory;
+    }
+
+
+  //**************************************************************************
+  //** addOutput
+  //**************************************************************************
+  /** Used to add an output to the pipeline. Returns an Output that can be
+   *  used to define a chain of operations to perform on each image. Outputs
+   *  must be added before any images are added to the pipeline.
+   *  @param directory Directory used to save the derivatives. Files are
+   *  named after the input file (e.g. "IMG_1234.jpg").
+   *  @param format Output file format/extension (e.g. "jpg", "png")
+   */
+    public synchronized Output addOutput(Directory directory, String format){
+        if (pool!=null) throw new IllegalStateException("Pipeline has already started");
+        Output output = new Output(directory, format);
+        outputs.add(output);
+        return output;
+    }
+
+
+  //**************************************************************************
+  //** add
+  //**************************************************************************
+  /** Used to add an image to the pipeline. Blocks if the queue is full.
+   */
+    public void add(java.io.File file){
+        getPool().add(file);
+    }
+
+
+  //**************************************************************************
+  //** done
+  //**************************************************************************
+  /** Used to notify the pipeline that no more images will be added. Blocks
+   *  until all the images have been processed and returns a report.
+   */
+    public Report done(){
+        javaxt.utils.ThreadPool pool = getPool();
+        pool.done();
+        try{
+            pool.join();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        report.setElapsedTime(System.currentTimeMillis()-startTime);
+        return report;
+    }
+
+
+  //**************************************************************************
+  //** getReport
+  //**************************************************************************
+  /** Returns statistics for the images that have been processed so far.
+   */
+    public Report getReport(){
+        return report;
+    }
+
+
+  //**************************************************************************
+  //** getPool
+  //**************************************************************************
+  /** Returns the thread pool used to process images. Creates the pool on the
+   *  first call. The queue is capped so callers can't get too far ahead of
+   *  the workers.
+   */
+    private synchronized javaxt.utils.ThreadPool getPool(){
+        if (pool==null){
+            decodeSize = getDecodeSize();
+            startTime = System.currentTimeMillis();
+            pool = new javaxt.utils.ThreadPool(numThreads, numThreads*2){
+                public void process(Object obj){
+                    ImagePipeline.this.process((java.io.File) obj);
+                }
+            }.start();
+        }
+        return pool;
+    }
+
+
+  //**************************************************************************
+  //** getDecodeSize
+  //**************************************************************************
+  /** Returns the minimum width and height needed to create all the outputs.
+   *  Returns null if the images should be decoded at full resolution (e.g.
+   *  an output doesn't start with a resize).
+   */
+    private int[] getDecodeSize(){
+        int width = 0;
+        int height = 0;
+        for (Output output : outputs){
+            int[] size = output.getDecodeSize();
+            if (size==null) return null;
+            width = Math.max(width, size[0]);
+            height = Math.max(height, size[1]);
+        }
+        return (width>0 && height>0) ? new int[]{width, height} : null;
+    }
+
+
+  //**************************************************************************
+  //** process
+  //**************************************************************************
+  /** Used to decode an image and create all the outputs.
+   */
+    private void process(java.io.File file){
+
+      //Estimate the memory needed to decode the image and wait for room in
+      //the budget. The estimate includes the decoded image (4 bytes per
+      //pixel) and a working copy for the outputs.
+        long t = System.nanoTime();
+        long bytes;
+        try{
+            int[] size = getSize(file);
+            int width = size[0];
+            int height = size[1];
+            if (decodeSize!=null){
+                int n = Image.getSubsampling(width, height, decodeSize[0], decodeSize[1]);
+                width = (width+n-1)/n;
+                height = (height+n-1)/n;
+            }
+            bytes = (long) width * height * 8;
+        }
+        catch(Exception e){
+            report.fail(file, e);
+            return;
+        }
+        bytes = acquire(bytes);
+        report.add("wait", t);
+
+
+        try{
+
+          //Decode image
+            t = System.nanoTime();
+            Image src = decodeSize==null ? new Image(file) :
+                Image.decode(file, decodeSize[0], decodeSize[1]);
+            if (src.getBufferedImage()==null) throw new java.io.IOException("Failed to decode " + file);
+            report.add("decode", t);
+
+
+          //Create outputs
+            for (Output output : outputs){
+                Image image = output.apply(src, report);
+
+
+              //Encode image
+                t = System.nanoTime();
+                byte[] data = output.encode(image);
+                if (data==null) throw new java.io.IOException("Failed to encode " + file);
+                report.add("encode", t);
+
+
+              //Save image
+                t = System.nanoTime();
+                java.io.File out = output.getFile(file);
+                out.getParentFile().mkdirs();
+                java.io.FileOutputStream outputStream = new java.io.FileOutputStream(out);
+                try{
+                    outputStream.write(data);
+                }
+                finally{
+                    outputStream.close();
+                }
+                report.add("write", t);
+            }
+
+            report.success();
+        }
+        catch(Throwable e){
+            report.fail(file, e);
+        }
+        finally{
+            release(bytes);
+        }
+    }
+
+
+  //**************************************************************************
+  //** isShared
+  //**************************************************************************
+  /** Returns true if an image shares pixels with the source image (e.g. the
+   *  image has not been modified or it was cropped).
+   */
+    private static boolean isShared(Image image, Image src){
+        return image.getBufferedImage().getRaster().getDataBuffer() ==
+               src.getBufferedImage().getRaster().getDataBuffer();
+    }
+
+
+  //**************************************************************************
+  //** acquire
+  //**************************************************************************
+  /** Used to reserve memory for an image. Blocks until there is enough room
+   *  in the budget. Returns the number of bytes reserved.
+   */
+    private long acquire(long bytes){
+        if (maxMemory<=0) return 0;
+        bytes = Math.min(bytes, maxMemory);
+        synchronized(memoryLock){
+            while (memoryInUse>0 && memoryInUse+bytes>maxMemory){
+                try{
+                    memoryLock.wait();
+                }
+                catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            memoryInUse+=bytes;
+        }
+        return bytes;
+    }
+
+
+  //**************************************************************************
+  //** release
+  //**************************************************************************
+  /** Used to return memory to the budget.
+   */
+    private void release(long bytes){
+        if (bytes==0) return;
+        synchronized(memoryLock){
+            memoryInUse-=bytes;
+            memoryLock.notifyAll();
+        }
+    }
+
+
+  //**************************************************************************
+  //** getSize
+  //**************************************************************************
+  /** Returns the width and height of an image. Only the image header is read.
+   */
+    private static int[] getSize(java.io.File file) throws java.io.IOException {
+        javax.imageio.stream.ImageInputStream stream = javax.imageio.ImageIO.createImageInputStream(file);
+        if (stream==null) throw new java.io.IOException("Failed to open " + file);
+        try{
+            Iterator<javax.imageio.ImageReader> it = javax.imageio.ImageIO.getImageReaders(stream);
+            if (!it.hasNext()) throw new java.io.IOException("Unsupported image format");
+            javax.imageio.ImageReader reader = it.next();
+            try{
+                reader.setInput(stream, true, true);
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            }
+            finally{
+                reader.dispose();
+            }
+        }
+        finally{
+            stream.close();
+        }
+    }
+
+
+  //**************************************************************************
+  //** Output Class
+  //**************************************************************************
+  /** Used to define a chain of operations used to create a derivative.
+   *  Operations are applied in the order they are added.
+   */
+    public static class Output {
+
+        private Directory directory;
+        private String format;
+        private Float outputQuality;
+        private ArrayList<Operation> operations = new ArrayList<Operation>();
+
+        private Output(Directory directory, String format){
+            this.directory = directory;
+            this.format = format.toLowerCase();
+            if (this.format.startsWith(".")) this.format = this.format.substring(1);
+        }
+
+      /** Creates an Output that isn't associated with a pipeline (e.g. to
+       *  use with an ImageCache).
+       *  @param format Output format (e.g. "jpg", "png")
+       */
+        public Output(String format){
+            this(null, format);
+        }
+
+      /** Used to resize the image. See Image.resize(). */
+        public Output resize(final int width, final int height, final boolean maintainRatio){
+            operations.add(new Operation("resize", false, new int[]{width, height},
+            "resize(" + width + "," + height + "," + maintainRatio + ")"){
+                void apply(Image image, Image src){
+                    image.resize(width, height, maintainRatio);
+                }
+            });
+            return this;
+        }
+
+      /** Used to crop the image. See Image.crop(). */
+        public Output crop(final int x, final int y, final int width, final int height){
+            operations.add(new Operation("crop", false, null,
+            "crop(" + x + "," + y + "," + width + "," + height + ")"){
+                void apply(Image image, Image src){
+                    image.crop(x, y, width, height);
+                }
+            });
+            return this;
+        }
+
+      /** Used to rotate the image. See Image.rotate(double). */
+        public Output rotate(final double degrees){
+            operations.add(new Operation("rotate", false, null, "rotate(" + degrees + ")"){
+                void apply(Image image, Image src){
+                    image.rotate(degrees);
+                }
+            });
+            return this;
+        }
+
+      /** Used to rotate the image using the EXIF orientation tag found in
+       *  the source image. See Image.rotate().
+       */
+        public Output rotate(){
+            operations.add(new Operation("rotate", false, null, "rotate()"){
+                void apply(Image image, Image src){
+                    try{
+                        image.setOrientation((Integer) src.getExifTags().get(0x0112));
+                    }
+                    catch(Exception e){
+                        //Failed to parse exif orientation.
+                    }
+                }
+            });
+            return this;
+        }
+
+      /** Used to flip the image. See Image.flip(). */
+        public Output flip(){
+            operations.add(new Operation("flip", false, null, "flip()"){
+                void apply(Image image, Image src){
+                    image.flip();
+                }
+            });
+            return this;
+        }
+
+      /** Used to sharpen the image. See Image.sharpen(). */
+        public Output sharpen(){
+            operations.add(new Operation("sharpen", true, null, "sharpen()"){
+                void apply(Image image, Image src){
+                    image.sharpen();
+                }
+            });
+            return this;
+        }
+
+      /** Used to set the output quality. See Image.setOutputQuality(). */
+        public Output setOutputQuality(float quality){
+            outputQuality = quality;
+            return this;
+        }
+
+      /** Used to apply the operations to a source image. The source image
+       *  is not modified.
+       *  @param report Optional. Used to record the time spent in each
+       *  operation.
+       */
+        Image apply(Image src, Report report){
+            Image image = new Image(src.getBufferedImage());
+            for (Operation operation : operations){
+
+              //Copy the image before modifying pixels in place so the
+              //source image is unchanged for other outputs
+                long t = System.nanoTime();
+                if (operation.updatesPixels && isShared(image, src)){
+                    image = image.copy();
+                }
+
+                operation.apply(image, src);
+                if (report!=null) report.add(operation.name, t);
+            }
+            return image;
+        }
+
+      /** Returns an image as a byte array using the output format and
+       *  quality. Returns null if the image could not be encoded.
+       */
+        byte[] encode(Image image){
+            if (outputQuality!=null) image.setOutputQuality(outputQuality);
+            return image.getByteArray(format);
+        }
+
+      /** Returns the output format (e.g. "jpg"). */
+        public String getFormat(){
+            return format;
+        }
+
+      /** Returns a description of the output format and operations. Outputs
+       *  with the same description create the same images.
+       */
+        public String toString(){
+            StringBuilder str = new StringBuilder(format);
+            if (outputQuality!=null) str.append("@" + outputQuality);
+            for (Operation operation : operations){
+                str.append("|");
+                str.append(operation.key);
+            }
+            return str.toString();
+        }
+
+      /** Returns the output file for a given input file. */
+        private java.io.File getFile(java.io.File input){
+            String name = input.getName();
+            int idx = name.lastIndexOf(".");
+            if (idx>0) name = name.substring(0, idx);
+            return new java.io.File(directory.toFile(), name + "." + format);
+        }
+
+      /** Returns the minimum width and height needed to create this output,
+       *  or null if the image is needed at full resolution. Rotations can
+       *  be skipped but the width and height may be swapped.
+       */
+        int[] getDecodeSize(){
+            boolean rotated = false;
+            for (Operation operation : operations){
+                if (operation.name.equals("rotate") || operation.name.equals("flip")){
+                    rotated = true;
+                    continue;
+                }
+                if (operation.size==null) return null;
+                int width = operation.size[0];
+                int height = operation.size[1];
+                if (rotated) width = height = Math.max(width, height);
+                return new int[]{width, height};
+            }
+            return null;
+        }
+    }
+
+
+  //**************************************************************************
+  //** Operation Class
+  //**************************************************************************
+  /** Used to represent an individual operation in an Output.
+   */
+    private static abstract class Operation {
+        private final String name;
+        private final boolean updatesPixels;
+        private final int[] size;
+        private final String key;
+
+      /** @param updatesPixels True if the operation updates pixels in place
+       *  @param size Width and height of the image created by the operation,
+       *  if known
+       *  @param key Description of the operation and its parameters
+       */
+        public Operation(String name, boolean updatesPixels, int[] size, String key){
+            this.name = name;
+            this.updatesPixels = updatesPixels;
+            this.size = size;
+            this.key = key;
+        }
+
+        abstract void apply(Image image, Image src);
+    }
+
+
+  //**************************************************************************
+  //** Report Class
+  //**************************************************************************
+  /** Used to report the number of images processed and the time spent in
+   *  each stage of the pipeline. Stages include "wait" (time spent waiting
+   *  for memory), "decode", "encode", "write", and the name of each
+   *  operation (e.g. "resize"). Times are summed across threads.
+   */
+    public static class Report {
+
+        private long numImages = 0;
+        private long elapsedTime = 0;
+        private final LinkedHashMap<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+        private final LinkedHashMap<String, long[]> stages = new LinkedHashMap<String, long[]>();
+
+        private synchronized void add(String stage, long startTime){
+            long[] stats = stages.get(stage);
+            if (stats==null){
+                stats = new long[2];
+                stages.put(stage, stats);
+            }
+            stats[0]++;
+            stats[1]+=System.nanoTime()-startTime;
+        }
+
+        private synchronized void success(){
+            numImages++;
+        }
+
+        private synchronized void fail(java.io.File file, Throwable error){
+            failures.put(file.toString(), error);
+        }
+
+        private synchronized void setElapsedTime(long elapsedTime){
+            this.elapsedTime = elapsedTime;
+        }
+
+      /** Returns the number of images that were processed successfully. */
+        public synchronized long getImagesProcessed(){ return numImages; }
+
+      /** Returns a list of images that could not be processed. */
+        public synchronized String[] getFailures(){
+            return failures.keySet().toArray(new String[failures.size()]);
+        }
+
+      /** Returns the error that caused an image to fail (e.g. an IOException
+       *  or an OutOfMemoryError). Returns null if the image didn't fail.
+       *  @param file Path to the image. See getFailures()
+       */
+        public synchronized Throwable getError(String file){
+            return failures.get(file);
+        }
+
+      /** Returns the names of the stages in the pipeline. */
+        public synchronized String[] getStages(){
+            return stages.keySet().toArray(new String[stages.size()]);
+        }
+
+      /** Returns the number of times a stage was executed. */
+        public synchronized long getCount(String stage){
+            long[] stats = stages.get(stage);
+            return stats==null ? 0 : stats[0];
+        }
+
+      /** Returns the total time spent in a stage, in milliseconds. */
+        public synchronized double getTime(String stage){
+            long[] stats = stages.get(stage);
+            return stats==null ? 0 : stats[1]/1000000.0;
+        }
+
+      /** Returns the number of milliseconds it took to process all the
+       *  images. Only set after the pipeline is done.
+       */
+        public synchronized long getElapsedTime(){ return elapsedTime; }
+
+        public synchronized String toString(){
+            StringBuilder str = new StringBuilder();
+            str.append("Processed " + numImages + " images, " + failures.size() +
+            " failures in " + elapsedTime + "ms");
+            for (Map.Entry<String, long[]> entry : stages.entrySet()){
+                long[] stats = entry.getValue();
+                double total = stats[1]/1000000.0;
+                str.append(String.format("\r\n - %s: %.1fms total, %.2fms avg (%d)",
+                entry.getKey(), total, total/stats[0], stats[0]));
+            }
+            for (Map.Entry<String, Throwable> entry : failures.entrySet()){
+                str.append("\r\n - failed: " + entry.getKey() + " (" + entry.getValue() + ")");
+            }
+            return str.toString();
+        }
+    }
+}
@@ -28,6 +28,23 @@ public class Jar {
 
     private java.io.File file;
     private java.lang.Package Package;
+    private java.net.URLClassLoader classLoader;
+
+  //Used when the jar file is open (see open method)
+    private ZipFile zipFile;
+    private java.util.ArrayList<ZipEntry> zipEntries;
+    private java.util.HashMap<String, ZipEntry> zipIndex;
+    private final java.util.LinkedHashMap<String, byte[]> cache =
+        new java.util.LinkedHashMap<String, byte[]>(16, 0.75f, true); //access order
+    private long cacheSize = 0;
+    private long maxCacheSize = 0;
+
+    private static final java.util.LinkedHashMap<String, ClassIndex> classIndexes =
+    new java.util.LinkedHashMap<String, ClassIndex>(16, 0.75f, true){
+        protected boolean removeEldestEntry(java.util.Map.Entry<String, ClassIndex> eldest){
+            return size()>16;
+        }
+    };
 
 
   //**************************************************************************
@@ -233,7 +250,17 @@ public class Jar {
         java.util.ArrayList<Entry> entries = new java.util.ArrayList<Entry>();
         try{
 
-            if (file.isDirectory()){
+            java.util.ArrayList<ZipEntry> zipEntries;
+            synchronized(this){
+                zipEntries = this.zipEntries;
+            }
+
+            if (zipEntries!=null){
+                for (ZipEntry zipEntry : zipEntries){
+                    entries.add(new Entry(zipEntry));
+                }
+            }
+            else if (file.isDirectory()){
                 Directory dir = new Directory(file);
                 java.util.List items = dir.getChildren(true);
                 for (int i=0; i<items.size(); i++){
@@ -299,6 +326,15 @@ public class Jar {
                 }
 
 
+              //Find entry using the index
+                synchronized(this){
+                    if (zipIndex!=null){
+                        ZipEntry zipEntry = zipIndex.get(Entry.toLowerCase());
+                        return zipEntry==null ? null : new Entry(zipEntry);
+                    }
+                }
+
+
               //Find entry in the jar file
                 in = new ZipInputStream(new FileInputStream(file));
                 ZipEntry zipEntry = null;
@@ -338,39 +374,420 @@ public class Jar {
     }
 
 
+  //**************************************************************************
+  //** open
+  //**************************************************************************
+  /** Used to open the jar file and index its entries. While the jar file is
+   *  open, getEntry() uses a hash index instead of scanning the jar file,
+   *  and entries are read from a shared ZipFile instead of reopening the
+   *  jar file for every read. ZipFiles are thread safe so entries can be
+   *  read and extracted in parallel. Recently used entries are cached in
+   *  memory. Call close() when done. Has no effect on directories.
+   *  @param maxCacheSize Maximum number of bytes to cache in memory. Use 0
+   *  to disable the cache.
+   */
+    public synchronized void open(long maxCacheSize) throws java.io.IOException {
+        close();
+        if (file.isDirectory()) return;
+
+        ZipFile zip = new ZipFile(file);
+        java.util.ArrayList<ZipEntry> list = new java.util.ArrayList<ZipEntry>(zip.size());
+        java.util.HashMap<String, ZipEntry> map = new java.util.HashMap<String, ZipEntry>(zip.size()*2);
+        java.util.Enumeration<? extends ZipEntry> it = zip.entries();
+        while (it.hasMoreElements()){
+            ZipEntry entry = it.nextElement();
+            list.add(entry);
+            String key = entry.getName().toLowerCase();
+            if (!map.containsKey(key)) map.put(key, entry); //first match wins
+        }
+
+        zipFile = zip;
+        zipEntries = list;
+        zipIndex = map;
+        this.maxCacheSize = Math.max(0, maxCacheSize);
+    }
+
+
+  //**************************************************************************
+  //** close
+  //**************************************************************************
+  /** Used to close the jar file and clear the index and cache. See open().
+   */
+    public synchronized void close(){
+        if (zipFile!=null){
+            try{ zipFile.close(); }
+            catch(Exception e){}
+        }
+        zipFile = null;
+        zipEntries = null;
+        zipIndex = null;
+        synchronized(cache){
+            cache.clear();
+            cacheSize = 0;
+        }
+    }
+
+
+  //**************************************************************************
+  //** isOpen
+  //**************************************************************************
+  /** Returns true if the jar file is open. See open().
+   */
+    public synchronized boolean isOpen(){
+        return zipFile!=null;
+    }
+
+
+  //**************************************************************************
+  //** extract
+  //**************************************************************************
+  /** Used to extract all the files in the jar file to a directory. Entries
+   *  are extracted in parallel using a shared ZipFile. If the jar file is
+   *  not open, it is opened for the duration of the extraction.
+   */
+    public void extract(Directory destination, int numThreads) throws java.io.IOException {
+        if (file.isDirectory()){
+            new Directory(file).copyTo(destination, true);
+            return;
+        }
+
+        boolean isOpen = isOpen();
+        if (!isOpen) open(0);
+        try{
+            final java.io.File dir = destination.toFile().getCanonicalFile();
+            final java.util.ArrayList<String> errors = new java.util.ArrayList<String>();
+            javaxt.utils.ThreadPool pool = new javaxt.utils.ThreadPool(numThreads, numThreads*2){
+                public void process(Object obj){
+                    Entry entry = (Entry) obj;
+                    String name = entry.getName();
+                    if (name.endsWith("/")) return;
+                    try{
+                        entry.extract(getOutputFile(dir, name));
+                    }
+                    catch(Exception e){
+                        synchronized(errors){
+                            errors.add(name + " (" + e + ")");
+                        }
+                    }
+                }
+            }.start();
+            for (Entry entry : getEntries()){
+                pool.add(entry);
+            }
+            pool.done();
+            pool.join();
+
+            if (!errors.isEmpty()){
+                throw new java.io.IOException("Failed to extract " + errors.size() +
+                " entries: " + errors);
+            }
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new java.io.IOException("Interrupted");
+        }
+        finally{
+            if (!isOpen) close();
+        }
+    }
+
+
+  //**************************************************************************
+  //** getOutputFile
+  //**************************************************************************
+  /** Returns the path to extract an entry to. Throws an exception if the
+   *  entry would be extracted outside of the directory (e.g. "../../file").
+   *  @param dir Canonical path to the output directory
+   */
+    private static java.io.File getOutputFile(java.io.File dir, String name) throws java.io.IOException {
+        java.io.File f = new java.io.File(dir, name).getCanonicalFile();
+        String root = dir.getPath();
+        if (!root.endsWith(java.io.File.separator)) root += java.io.File.separator;
+        if (!f.getPath().startsWith(root)){
+            throw new java.io.IOException("Entry is outside of the target directory: " + name);
+        }
+        return f;
+    }
+
+
+  //**************************************************************************
+  //** getInputStream
+  //**************************************************************************
+  /** Returns an InputStream for an entry using the shared ZipFile. Returns
+   *  null if the jar file is not open.
+   */
+    private synchronized java.io.InputStream getInputStream(ZipEntry entry) throws java.io.IOException {
+        if (zipFile==null) return null;
+        return zipFile.getInputStream(entry);
+    }
+
+
+  //**************************************************************************
+  //** getBytes
+  //**************************************************************************
+  /** Returns the uncompressed bytes for an entry using the shared ZipFile.
+   *  Entries are cached in memory using an LRU cache. Returns a copy of the
+   *  cached bytes so callers can't modify the cache. Returns null if the jar
+   *  file is not open.
+   */
+    private byte[] getBytes(ZipEntry entry) throws java.io.IOException {
+        String name = entry.getName();
+        synchronized(cache){
+            byte[] b = cache.get(name);
+            if (b!=null) return b.clone();
+        }
+
+        java.io.InputStream is = getInputStream(entry);
+        if (is==null) return null;
+        byte[] b;
+        try{
+            long size = entry.getSize();
+            ByteArrayOutputStream bas = new ByteArrayOutputStream(size>0 && size<Integer.MAX_VALUE ? (int) size : 1024);
+            byte[] buf = new byte[8192];
+            int x;
+            while ((x=is.read(buf))>-1){
+                bas.write(buf, 0, x);
+            }
+            b = bas.toByteArray();
+        }
+        finally{
+            is.close();
+        }
+
+        if (b.length<=maxCacheSize){
+            synchronized(cache){
+                byte[] prev = cache.put(name, b);
+                if (prev!=null) cacheSize-=prev.length;
+                cacheSize+=b.length;
+                java.util.Iterator<byte[]> it = cache.values().iterator();
+                while (cacheSize>maxCacheSize && it.hasNext()){
+                    cacheSize-=it.next().length;
+                    it.remove();
+                }
+            }
+            b = b.clone();
+        }
+        return b;
+    }
+
+
   //**************************************************************************
   //** getClasses
   //**************************************************************************
   /** Returns all the classes in the jar file. Returns an empty array if the
    *  jar file has not been loaded or if there are no classes in the file.
+   *  Note that every class in the jar file is loaded and initialized. Use
+   *  getClasses(Class) to load a subset of the classes.
    */
     public Class[] getClasses(){
         java.util.ArrayList<Class> classes = new java.util.ArrayList<Class>();
-        java.net.URLClassLoader child = null;
         for (Jar.Entry entry : getEntries()){
             String name = entry.getName();
             if (name.endsWith(".class")){
                 name = name.substring(0, name.length()-6).replace("/", ".");
-                try{
-                    classes.add(Class.forName(name));
+                Class<?> c = loadClass(name, true);
+                if (c!=null) classes.add(c);
+            }
+        }
+        return classes.toArray(new Class[classes.size()]);
+    }
+
+
+  //**************************************************************************
+  //** getClasses
+  //**************************************************************************
+  /** Returns classes in the jar file that extend or implement a given class
+   *  or interface. If the given class is an annotation, returns classes that
+   *  are annotated with the annotation. Unlike getClasses(), only matching
+   *  classes are loaded. See getClassNames(Class) for more information.
+   */
+    public Class<?>[] getClasses(Class<?> type){
+        java.util.ArrayList<Class<?>> classes = new java.util.ArrayList<Class<?>>();
+        for (String name : getClassNames(type)){
+            Class<?> c = loadClass(name, true);
+            if (c!=null) classes.add(c);
+        }
+        return classes.toArray(new Class<?>[classes.size()]);
+    }
+
+
+  //**************************************************************************
+  //** getClassNames
+  //**************************************************************************
+  /** Returns the names of all the classes in the jar file. Class names are
+   *  read from the class files without loading any classes.
+   */
+    public String[] getClassNames(){
+        java.util.Set<String> names = getClassIndex().classes.keySet();
+        return names.toArray(new String[names.size()]);
+    }
+
+
+  //**************************************************************************
+  //** getClassNames
+  //**************************************************************************
+  /** Returns the names of classes in the jar file that extend or implement
+   *  a given class or interface (see Class.isAssignableFrom). If the given
+   *  class is an annotation, returns the names of classes that are annotated
+   *  with the annotation. Annotations are not inherited.
+   *
+   *  Class files are scanned in parallel. Only the class name, super class,
+   *  interfaces, and class annotations are read from each class file. Super
+   *  classes and interfaces that are not found in the jar file are loaded
+   *  (without initialization) to check whether they extend the given class.
+   *  The scan results are cached using a checksum of the jar file entries.
+   */
+    public String[] getClassNames(Class<?> type){
+        ClassIndex index = getClassIndex();
+        String target = type.getName();
+        boolean isAnnotation = type.isAnnotation();
+        java.util.ArrayList<String> names = new java.util.ArrayList<String>();
+        java.util.HashMap<String, Boolean> results = new java.util.HashMap<String, Boolean>();
+        for (ClassInfo info : index.classes.values()){
+            if (isAnnotation){
+                for (String annotation : info.annotations){
+                    if (annotation.equals(target)){
+                        names.add(info.name);
+                        break;
+                    }
                 }
-                catch(Exception e){
-                    try{
-                        if (child==null){
-                            child = new java.net.URLClassLoader(
-                                new java.net.URL[] {file.toURI().toURL()},
-                                this.getClass().getClassLoader()
-                            );
-                        }
-                        classes.add(Class.forName(name, true, child));
+            }
+            else{
+                if (isAssignableFrom(type, info.name, index, results)){
+                    names.add(info.name);
+                }
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+
+  //**************************************************************************
+  //** isAssignableFrom
+  //**************************************************************************
+  /** Returns true if a class extends or implements a given type. Walks the
+   *  class hierarchy found in the ClassIndex. Classes that are not in the
+   *  index are loaded without initialization.
+   *  @param results Used to cache results for individual class names
+   */
+    private boolean isAssignableFrom(Class<?> type, String name, ClassIndex index,
+        java.util.HashMap<String, Boolean> results){
+
+        if (name==null) return false;
+        if (name.equals(type.getName())) return true;
+
+        Boolean result = results.get(name);
+        if (result!=null) return result;
+        results.put(name, false); //in case of circular references
+
+        ClassInfo info = index.classes.get(name);
+        if (info==null){
+            try{
+                Class<?> c = loadClass(name, false);
+                result = c!=null && type.isAssignableFrom(c);
+            }
+            catch(LinkageError e){
+                result = false;
+            }
+        }
+        else{
+            result = isAssignableFrom(type, info.superName, index, results);
+            for (int i=0; i<info.interfaces.length && !result; i++){
+                result = isAssignableFrom(type, info.interfaces[i], index, results);
+            }
+        }
+
+        results.put(name, result);
+        return result;
+    }
+
+
+  //**************************************************************************
+  //** loadClass
+  //**************************************************************************
+  /** Returns a class with a given name. If the class is not found using the
+   *  class loader for this class, the class is loaded from the jar file.
+   *  Returns null if the class could not be loaded.
+   */
+    private Class<?> loadClass(String name, boolean initialize){
+        try{
+            return Class.forName(name, initialize, this.getClass().getClassLoader());
+        }
+        catch(Exception e){
+            try{
+                synchronized(this){
+                    if (classLoader==null){
+                        classLoader = new java.net.URLClassLoader(
+                            new java.net.URL[] {file.toURI().toURL()},
+                            this.getClass().getClassLoader()
+                        );
                     }
-                    catch(Exception e2){
-                        //e2.printStackTrace();
+                }
+                return Class.forName(name, initialize, classLoader);
+            }
+            catch(Exception e2){
+                //e2.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+
+  //**************************************************************************
+  //** getClassIndex
+  //**************************************************************************
+  /** Returns a ClassIndex for the jar file. Indexes for zipped jar files are
+   *  cached using a SHA-256 hash of the entries in the jar file (names, sizes,
+   *  and CRC-32 values). The hash is computed from the zip directory so the
+   *  jar file doesn't have to be read.
+   */
+    private ClassIndex getClassIndex(){
+        try{
+            if (file.isDirectory()){
+                java.util.ArrayList<java.io.File> files = new java.util.ArrayList<java.io.File>();
+                for (Entry entry : getEntries()){
+                    if (entry.getName().endsWith(".class")) files.add(entry.getFile());
+                }
+                return new ClassIndex(files.toArray(), null);
+            }
+            else{
+                ZipFile zip = new ZipFile(file);
+                try{
+                    java.util.ArrayList<ZipEntry> entries = new java.util.ArrayList<ZipEntry>();
+                    java.security.MessageDigest md = java.security.MessageDigest.getInstance("SHA-256");
+                    java.util.Enumeration<? extends ZipEntry> it = zip.entries();
+                    while (it.hasMoreElements()){
+                        ZipEntry entry = it.nextElement();
+                        byte[] name = entry.getName().getBytes("UTF-8");
+                        md.update(name);
+                        md.update(java.nio.ByteBuffer.allocate(20).putInt(name.length)
+                        .putLong(entry.getSize()).putLong(entry.getCrc()).array());
+                        if (entry.getName().endsWith(".class")) entries.add(entry);
                     }
+
+                    StringBuilder key = new StringBuilder();
+                    for (byte b : md.digest()){
+                        key.append(String.format("%02x", b & 0xff));
+                    }
+                    synchronized(classIndexes){
+                        ClassIndex index = classIndexes.get(key.toString());
+                        if (index!=null) return index;
+                    }
+
+                    ClassIndex index = new ClassIndex(entries.toArray(), zip);
+                    synchronized(classIndexes){
+                        classIndexes.put(key.toString(), index);
+                    }
+                    return index;
+                }
+                finally{
+                    zip.close();
                 }
             }
         }
-        return classes.toArray(new Class[classes.size()]);
+        catch(Exception e){
+            return new ClassIndex();
+        }
     }
 
 
@@ -553,11 +970,18 @@ public class Jar {
         }
 
 
+      /** Returns the uncompressed contents of the entry. If the jar file is
+       *  open, the entry is read from the shared ZipFile and cached (see
+       *  Jar.open). Returns null if the entry could not be read.
+       */
         public byte[] getBytes(){
             ZipFile zip = null;
             try{
 
                 if (fileEntry==null){
+                    byte[] bytes = Jar.this.getBytes(zipEntry);
+                    if (bytes!=null) return bytes;
+
                     zip = new ZipFile(file);
                     java.io.DataInputStream is = new java.io.DataInputStream(zip.getInputStream(zipEntry));
 
@@ -590,10 +1014,45 @@ public class Jar {
       /** Used to extract the zip entry to a file. */
         public void extractFile(java.io.File destination){
             try{
-                if (fileEntry==null){
-                    destination.getParentFile().mkdirs();
+                extract(destination);
+            }
+            catch(Exception e){
+                e.printStackTrace();
+            }
+        }
+
+
+      /** Used to extract the zip entry to a file. Unlike extractFile(),
+       *  errors are thrown to the caller.
+       */
+        private void extract(java.io.File destination) throws java.io.IOException {
+            if (fileEntry==null){
+                destination.getParentFile().mkdirs();
+
+
+              //Use the shared ZipFile if the jar file is open
+                java.io.InputStream is = getInputStream(zipEntry);
+                if (is!=null){
                     FileOutputStream out = new FileOutputStream(destination);
-                    ZipInputStream in = new ZipInputStream(new FileInputStream(file));
+                    try{
+                        byte[] buf = new byte[8192];
+                        int len;
+                        while ((len = is.read(buf)) > 0) {
+                            out.write(buf, 0, len);
+                        }
+                    }
+                    finally{
+                        is.close();
+                        out.close();
+                    }
+                    return;
+                }
+
+
+                FileOutputStream out = new FileOutputStream(destination);
+                ZipInputStream in = null;
+                try{
+                    in = new ZipInputStream(new FileInputStream(file));
                     ZipEntry zipEntry = null;
                     while((zipEntry = in.getNextEntry())!=null){
                         if (zipEntry.getName().equals(this.zipEntry.getName())){
@@ -606,27 +1065,38 @@ public class Jar {
                             break;
                         }
                     }
-                    in.close();
+                }
+                finally{
+                    if (in!=null) in.close();
                     out.close();
                 }
-                else{
+            }
+            else{
 
-                  //Simply copy the file to the destination
-                    if (destination.isFile()){
-                        new File(fileEntry).copyTo(new File(destination),false);
-                    }
-                    else{
-                        new File(fileEntry).copyTo(new Directory(destination),false);
-                    }
+              //Simply copy the file to the destination
+                boolean copied;
+                if (destination.isFile()){
+                    copied = new File(fileEntry).copyTo(new File(destination),true);
                 }
-            }
-            catch(Exception e){
-                e.printStackTrace();
+                else{
+                    copied = new File(fileEntry).copyTo(new Directory(destination),true);
+                }
+                if (!copied) throw new java.io.IOException("Failed to copy " + fileEntry);
             }
         }
 
 
         public void setText(String text){
+
+          //Close the jar file while it is being updated
+            long maxCacheSize = -1;
+            synchronized(Jar.this){
+                if (isOpen()){
+                    maxCacheSize = Jar.this.maxCacheSize;
+                    close();
+                }
+            }
+
             try{
                 if (fileEntry==null){
                     ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
@@ -679,6 +1149,11 @@ public class Jar {
             }
             catch(Exception e){
             }
+
+            if (maxCacheSize>=0){
+                try{ open(maxCacheSize); }
+                catch(Exception e){}
+            }
         }
 
       /** Used to extract the contents to a string. */
@@ -694,6 +1169,11 @@ public class Jar {
         public String getText(String charsetName){
             try{
                 if (fileEntry==null){
+                    if (isOpen()){
+                        byte[] b = getBytes();
+                        return b==null ? null : new String(b, charsetName);
+                    }
+
                     ByteArrayOutputStream out = new ByteArrayOutputStream();
                     ZipInputStream in = new ZipInputStream(new FileInputStream(file));
                     ZipEntry zipEntry = null;
@@ -725,4 +1205,210 @@ public class Jar {
             return getName();
         }
     }
-}
\ No newline at end of file
+
+
+  //**************************************************************************
+  //** ClassIndex Class
+  //**************************************************************************
+  /** Used to store ClassInfo for all the classes in a jar file. Class files
+   *  are read and parsed in parallel.
+   */
+    private static class ClassIndex {
+        private final java.util.LinkedHashMap<String, ClassInfo> classes =
+        new java.util.LinkedHashMap<String, ClassInfo>();
+
+        private ClassIndex(){}
+
+      /** @param entries Array of ZipEntries or Files
+       *  @param zip ZipFile used to read ZipEntries. ZipFiles are thread safe.
+       */
+        private ClassIndex(final Object[] entries, final ZipFile zip) throws InterruptedException {
+            final ClassInfo[] info = new ClassInfo[entries.length];
+            int numThreads = Math.min(Runtime.getRuntime().availableProcessors(), entries.length/64+1);
+
+            javaxt.utils.ThreadPool pool = new javaxt.utils.ThreadPool(numThreads, numThreads*64){
+                public void process(Object obj){
+                    int i = (Integer) obj;
+                    try{
+                        java.io.InputStream is = (zip==null) ?
+                            new FileInputStream((java.io.File) entries[i]) :
+                            zip.getInputStream((ZipEntry) entries[i]);
+                        try{
+                            info[i] = ClassInfo.parse(is);
+                        }
+                        finally{
+                            is.close();
+                        }
+                    }
+                    catch(Exception e){
+                        //Not a valid class file
+                    }
+                }
+            }.start();
+
+            for (int i=0; i<entries.length; i++){
+                pool.add(i);
+            }
+            pool.done();
+            pool.join();
+
+            for (ClassInfo c : info){
+                if (c!=null) classes.put(c.name, c);
+            }
+        }
+    }
+
+
+  //**************************************************************************
+  //** ClassInfo Class
+  //**************************************************************************
+  /** Used to represent the name, super class, interfaces, and annotations of
+   *  a class. Parsed directly from a class file without loading the class.
+   *  Only the constant pool, class header, and class attributes are read.
+   *  Fields and methods are skipped.
+   */
+    private static class ClassInfo {
+        private String name;
+        private String superName;
+        private String[] interfaces;
+        private String[] annotations;
+
+        private static ClassInfo parse(java.io.InputStream is) throws java.io.IOException {
+            java.io.DataInputStream in = new java.io.DataInputStream(
+                new java.io.BufferedInputStream(is, 8192)
+            );
+
+            if (in.readInt()!=0xCAFEBABE) throw new java.io.IOException("Invalid class file");
+            in.readUnsignedShort(); //minor version
+            in.readUnsignedShort(); //major version
+
+
+          //Parse constant pool. Only utf8 strings and class references are
+          //stored. Everything else is skipped.
+            int count = in.readUnsignedShort();
+            String[] utf8 = new String[count];
+            int[] classRefs = new int[count];
+            for (int i=1; i<count; i++){
+                int tag = in.readUnsignedByte();
+                switch (tag){
+                    case 1: //Utf8
+                        utf8[i] = in.readUTF();
+                        break;
+                    case 7: //Class
+                        classRefs[i] = in.readUnsignedShort();
+                        break;
+                    case 8: case 16: case 19: case 20: //String, MethodType, Module, Package
+                        skip(in, 2);
+                        break;
+                    case 15: //MethodHandle
+                        skip(in, 3);
+                        break;
+                    case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                        skip(in, 4);
+                        break;
+                    case 5: case 6: //Long and Double take up 2 slots
+                        skip(in, 8);
+                        i++;
+                        break;
+                    default:
+                        throw new java.io.IOException("Invalid constant pool tag: " + tag);
+                }
+            }
+
+
+          //Parse class header
+            ClassInfo info = new ClassInfo();
+            in.readUnsignedShort(); //access flags
+            info.name = getClassName(in.readUnsignedShort(), utf8, classRefs);
+            info.superName = getClassName(in.readUnsignedShort(), utf8, classRefs);
+            info.interfaces = new String[in.readUnsignedShort()];
+            for (int i=0; i<info.interfaces.length; i++){
+                info.interfaces[i] = getClassName(in.readUnsignedShort(), utf8, classRefs);
+            }
+
+
+          //Skip fields and methods
+            for (int i=0; i<2; i++){
+                int n = in.readUnsignedShort();
+                for (int j=0; j<n; j++){
+                    skip(in, 6); //access flags, name, descriptor
+                    skipAttributes(in);
+                }
+            }
+
+
+          //Parse class annotations
+            java.util.ArrayList<String> annotations = new java.util.ArrayList<String>();
+            int n = in.readUnsignedShort();
+            for (int i=0; i<n; i++){
+                String attr = utf8[in.readUnsignedShort()];
+                int len = in.readInt();
+                if ("RuntimeVisibleAnnotations".equals(attr) ||
+                    "RuntimeInvisibleAnnotations".equals(attr)){
+                    int numAnnotations = in.readUnsignedShort();
+                    for (int j=0; j<numAnnotations; j++){
+                        String desc = utf8[in.readUnsignedShort()];
+                        if (desc.startsWith("L") && desc.endsWith(";")){
+                            annotations.add(desc.substring(1, desc.length()-1).replace('/', '.'));
+                        }
+                        skipElementValuePairs(in);
+                    }
+                }
+                else{
+                    skip(in, len);
+                }
+            }
+            info.annotations = annotations.toArray(new String[annotations.size()]);
+
+            return info;
+        }
+
+        private static String getClassName(int idx, String[] utf8, int[] classRefs){
+            if (idx==0) return null; //e.g. java.lang.Object has no super class
+            return utf8[classRefs[idx]].replace('/', '.');
+        }
+
+        private static void skipAttributes(java.io.DataInputStream in) throws java.io.IOException {
+            int n = in.readUnsignedShort();
+            for (int i=0; i<n; i++){
+                skip(in, 2);
+                skip(in, in.readInt());
+            }
+        }
+
+        private static void skipElementValuePairs(java.io.DataInputStream in) throws java.io.IOException {
+            int n = in.readUnsignedShort();
+            for (int i=0; i<n; i++){
+                skip(in, 2); //element name
+                skipElementValue(in);
+            }
+        }
+
+        private static void skipElementValue(java.io.DataInputStream in) throws java.io.IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag){
+                case 'e': //enum
+                    skip(in, 4);
+                    break;
+                case '@': //annotation
+                    skip(in, 2);
+                    skipElementValuePairs(in);
+                    break;
+                case '[': //array
+                    int n = in.readUnsignedShort();
+                    for (int i=0; i<n; i++) skipElementValue(in);
+                    break;
+                default: //constants and classes
+                    skip(in, 2);
+            }
+        }
+
+        private static void skip(java.io.DataInputStream in, int n) throws java.io.IOException {
+            while (n>0){
+                int skipped = in.skipBytes(n);
+                if (skipped<=0) throw new java.io.EOFException();
+                n-=skipped;
+            }
+        }
+    }
+}
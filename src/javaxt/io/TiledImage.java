@@ -0,0 +1,472 @@
+package javaxt.io;
+import java.util.*;
+import java.io.IOException;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+
+//******************************************************************************
+//**  TiledImage Class
+//******************************************************************************
+/**
+ *   Used to process images that are too large to decode in memory (e.g. large
+ *   scans and aerial mosaics). Unlike the javaxt.io.Image class, pixels are
+ *   not decoded up front. Instead, regions of the image are read on demand
+ *   using ImageReader source regions and processed independently in
+ *   parallel. Only a handful of tiles are held in memory at any given time.
+ *   Example:
+ <pre>
+    TiledImage image = new TiledImage(new java.io.File("/data/mosaic.tif"));
+
+  //Create a preview
+    image.resize(2048, 2048, true).saveAs("/data/preview.jpg");
+
+  //Extract a large region. Pixels are written to the output file as tiles
+  //are read if the output format supports it (e.g. TIFF).
+    image.crop(10000, 10000, 20000, 20000, new java.io.File("/data/crop.tif"));
+ </pre>
+ *
+ *   Note that tiles are read in horizontal bands spanning the full width of
+ *   the requested region. Formats that store tiles or strips (e.g. TIFF) can
+ *   read bands directly. Sequential formats (e.g. JPEG, PNG) have to decode
+ *   every row above a band so they are much slower to process this way.
+ *
+ ******************************************************************************/
+
+public class TiledImage {
+
+    private java.io.File file;
+    private int width;
+    private int height;
+    private ImageTypeSpecifier imageType;
+    private int tileSize = 1024;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+  /** Creates a new instance of this class. Only the image header is read.
+   *  @throws IOException if the file is not a supported image format
+   */
+    public TiledImage(java.io.File file) throws IOException {
+        this.file = file;
+        Reader reader = new Reader(file);
+        try{
+            width = reader.reader.getWidth(0);
+            height = reader.reader.getHeight(0);
+            imageType = reader.reader.getImageTypes(0).next();
+        }
+        finally{
+            reader.close();
+        }
+    }
+
+
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+    public TiledImage(String path) throws IOException {
+        this(new java.io.File(path));
+    }
+
+
+  //**************************************************************************
+  //** getFile
+  //**************************************************************************
+    public java.io.File getFile(){
+        return file;
+    }
+
+
+  //**************************************************************************
+  //** getWidth
+  //**************************************************************************
+    public int getWidth(){
+        return width;
+    }
+
+
+  //**************************************************************************
+  //** getHeight
+  //**************************************************************************
+    public int getHeight(){
+        return height;
+    }
+
+
+  //**************************************************************************
+  //** setTileSize
+  //**************************************************************************
+  /** Used to set the approximate size of the tiles read from the image. Each
+   *  tile has roughly tileSize*tileSize pixels. Defaults to 1024.
+   */
+    public void setTileSize(int tileSize){
+        this.tileSize = Math.max(16, tileSize);
+    }
+
+
+  //**************************************************************************
+  //** getTileSize
+  //**************************************************************************
+    public int getTileSize(){
+        return tileSize;
+    }
+
+
+  //**************************************************************************
+  //** setNumThreads
+  //**************************************************************************
+  /** Used to set the number of tiles to read and process concurrently.
+   *  Defaults to the number of available processors.
+   */
+    public void setNumThreads(int numThreads){
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+
+  //**************************************************************************
+  //** getNumThreads
+  //**************************************************************************
+    public int getNumThreads(){
+        return numThreads;
+    }
+
+
+  //**************************************************************************
+  //** read
+  //**************************************************************************
+  /** Used to read a region of the image.
+   *  @param subsampling Used to read every nth row and column. Use 1 to read
+   *  the region at full resolution.
+   */
+    public BufferedImage read(int x, int y, int width, int height, int subsampling) throws IOException {
+        Rectangle rect = getRegion(x, y, width, height);
+        Reader reader = new Reader(file);
+        try{
+            return reader.read(rect, subsampling);
+        }
+        finally{
+            reader.close();
+        }
+    }
+
+
+  //**************************************************************************
+  //** forEachTile
+  //**************************************************************************
+  /** Used to read every tile in the image at full resolution and pass it to
+   *  a TileProcessor. Tiles are processed in parallel so the TileProcessor
+   *  must be thread safe.
+   */
+    public void forEachTile(TileProcessor processor) throws IOException {
+        Rectangle rect = new Rectangle(0, 0, width, height);
+        processTiles(getTiles(rect, 1), 1, processor);
+    }
+
+
+  //**************************************************************************
+  //** TileProcessor Interface
+  //**************************************************************************
+  /** Used to process individual tiles in the image.
+   */
+    public static interface TileProcessor {
+
+      /** Called whenever a tile is read.
+       *  @param rect The position and size of the tile in the source image
+       *  @param tile Pixels in the tile. If the image was read using
+       *  subsampling, the tile is smaller than the rect.
+       */
+        public void process(Rectangle rect, BufferedImage tile) throws Exception;
+    }
+
+
+  //**************************************************************************
+  //** copyRect
+  //**************************************************************************
+  /** Returns a copy of the image at a given rectangle. Tiles are read in
+   *  parallel and copied into the new image. Only the requested region is
+   *  held in memory.
+   */
+    public Image copyRect(int x, int y, int width, int height) throws IOException {
+        final Rectangle rect = getRegion(x, y, width, height);
+        final BufferedImage output = imageType.createBufferedImage(rect.width, rect.height);
+        processTiles(getTiles(rect, 1), 1, new TileProcessor(){
+            public void process(Rectangle r, BufferedImage tile){
+                output.getRaster().setDataElements(r.x-rect.x, r.y-rect.y, tile.getRaster());
+            }
+        });
+        return new Image(output);
+    }
+
+
+  //**************************************************************************
+  //** crop
+  //**************************************************************************
+  /** Used to save a region of the image to a file. If the output format
+   *  supports it (e.g. TIFF), tiles are written to the file as they are read
+   *  so the region is never held in memory. Otherwise, the region is read
+   *  into memory and saved using Image.saveAs().
+   *  @param output Output file. The format is derived from the file
+   *  extension.
+   */
+    public void crop(int x, int y, int width, int height, java.io.File output) throws IOException {
+        final Rectangle rect = getRegion(x, y, width, height);
+
+        String ext = getExtension(output);
+        Iterator<ImageWriter> it = ImageIO.getImageWritersBySuffix(ext);
+        if (!it.hasNext()) throw new IOException("Unsupported output format: " + ext);
+        final ImageWriter writer = it.next();
+
+
+        if (output.exists()) output.delete();
+        output.getParentFile().mkdirs();
+        ImageOutputStream stream = ImageIO.createImageOutputStream(output);
+        try{
+            writer.setOutput(stream);
+
+          //Create an empty image and copy tiles into it as they are read
+            if (writer.canWriteEmpty()){
+                final ImageWriteParam param = writer.getDefaultWriteParam();
+                writer.prepareWriteEmpty(null, imageType, rect.width, rect.height, null, null, param);
+                if (writer.canReplacePixels(0)){
+                    writer.prepareReplacePixels(0, new Rectangle(0, 0, rect.width, rect.height));
+                    processTiles(getTiles(rect, 1), 1, new TileProcessor(){
+                        public void process(Rectangle r, BufferedImage tile) throws IOException {
+                            synchronized(writer){
+                                param.setDestinationOffset(new Point(r.x-rect.x, r.y-rect.y));
+                                writer.replacePixels(tile, param);
+                            }
+                        }
+                    });
+                    writer.endReplacePixels();
+                    writer.endWriteEmpty();
+                    return;
+                }
+                writer.endWriteEmpty();
+
+
+              //The empty image has already been written to the file. Start
+              //over with a new file so the image below doesn't end up with
+              //trailing bytes from the empty image.
+                stream.close();
+                output.delete();
+                stream = ImageIO.createImageOutputStream(output);
+                writer.reset();
+                writer.setOutput(stream);
+            }
+
+
+          //If we're still here, read the region into memory and save it
+            BufferedImage bi = copyRect(rect.x, rect.y, rect.width, rect.height).getBufferedImage();
+            writer.write(bi);
+        }
+        finally{
+            writer.dispose();
+            stream.close();
+        }
+    }
+
+
+  //**************************************************************************
+  //** resize
+  //**************************************************************************
+  /** Returns a resized copy of the image. Tiles are read in parallel using
+   *  subsampling so that the decoded image is roughly twice the requested
+   *  size, and then resized to the requested size using a Lanczos3 filter.
+   *  As a result, memory usage is proportional to the size of the output
+   *  image, not the source image.
+   *  @param maintainRatio If true, will interpret the given width and height
+   *  as maximum desired width and height
+   */
+    public Image resize(int width, int height, boolean maintainRatio) throws IOException {
+        return resize(0, 0, this.width, this.height, width, height, maintainRatio);
+    }
+
+
+  //**************************************************************************
+  //** resize
+  //**************************************************************************
+  /** Returns a resized copy of a region in the image.
+   *  @param maintainRatio If true, will interpret the given width and height
+   *  as maximum desired width and height
+   */
+    public Image resize(int x, int y, int w, int h, int width, int height, boolean maintainRatio) throws IOException {
+        final Rectangle rect = getRegion(x, y, w, h);
+
+        if (maintainRatio){
+            double ratio = Math.min((double)width/rect.width, (double)height/rect.height);
+            width = Math.max(1, (int)Math.round(rect.width*ratio));
+            height = Math.max(1, (int)Math.round(rect.height*ratio));
+        }
+
+
+      //Read tiles using subsampling and copy them into an intermediate image.
+      //Tiles are aligned to the subsampling grid so the intermediate image is
+      //identical to an image read in one pass.
+        final int n = Image.getSubsampling(rect.width, rect.height, width, height);
+        final BufferedImage bi = imageType.createBufferedImage(
+            (rect.width+n-1)/n, (rect.height+n-1)/n
+        );
+        processTiles(getTiles(rect, n), n, new TileProcessor(){
+            public void process(Rectangle r, BufferedImage tile){
+                bi.getRaster().setDataElements((r.x-rect.x)/n, (r.y-rect.y)/n, tile.getRaster());
+            }
+        });
+
+
+        Image image = new Image(bi);
+        if (bi.getWidth()!=width || bi.getHeight()!=height){
+            image.resize(width, height, false);
+        }
+        return image;
+    }
+
+
+  //**************************************************************************
+  //** getRegion
+  //**************************************************************************
+  /** Returns the intersection of a rectangle and the image bounds.
+   */
+    private Rectangle getRegion(int x, int y, int width, int height){
+        Rectangle rect = new Rectangle(0, 0, this.width, this.height).intersection(
+            new Rectangle(x, y, width, height)
+        );
+        if (rect.isEmpty()) throw new IllegalArgumentException("Invalid region");
+        return rect;
+    }
+
+
+  //**************************************************************************
+  //** getTiles
+  //**************************************************************************
+  /** Splits a region into horizontal bands. Each band has roughly
+   *  tileSize*tileSize pixels once it is decoded, so bands read with
+   *  subsampling are taller. The height of each band is a multiple of the
+   *  subsampling factor.
+   */
+    private ArrayList<Rectangle> getTiles(Rectangle rect, int subsampling){
+        long numPixels = (long) tileSize*tileSize*subsampling*subsampling;
+        int rows = (int) Math.max(1, numPixels/rect.width);
+        rows = Math.max(subsampling, (rows/subsampling)*subsampling);
+
+        ArrayList<Rectangle> tiles = new ArrayList<Rectangle>();
+        for (int y=0; y<rect.height; y+=rows){
+            int h = Math.min(rows, rect.height-y);
+            tiles.add(new Rectangle(rect.x, rect.y+y, rect.width, h));
+        }
+        return tiles;
+    }
+
+
+  //**************************************************************************
+  //** processTiles
+  //**************************************************************************
+  /** Used to read tiles in parallel. Each thread uses its own ImageReader.
+   *  The queue is kept short so that only a few tiles are in memory at a
+   *  time. Throws the first error encountered by any of the threads.
+   */
+    private void processTiles(List<Rectangle> tiles, final int subsampling,
+        final TileProcessor processor) throws IOException {
+
+        final Exception[] error = new Exception[1];
+        int numThreads = Math.min(this.numThreads, tiles.size());
+
+        javaxt.utils.ThreadPool pool = new javaxt.utils.ThreadPool(numThreads, numThreads){
+            public void process(Object obj){
+                synchronized(error){
+                    if (error[0]!=null) return;
+                }
+
+                Rectangle rect = (Rectangle) obj;
+                try{
+                    Reader reader = (Reader) get("reader", new javaxt.utils.ThreadPool.Setter(){
+                        public Object getValue() throws Exception {
+                            return new Reader(file);
+                        }
+                    });
+                    processor.process(rect, reader.read(rect, subsampling));
+                }
+                catch(Exception e){
+                    synchronized(error){
+                        if (error[0]==null) error[0] = e;
+                    }
+                }
+            }
+
+            public void exit(){
+                Reader reader = (Reader) get("reader");
+                if (reader!=null) reader.close();
+            }
+        }.start();
+
+        for (Rectangle rect : tiles){
+            pool.add(rect);
+        }
+        pool.done();
+
+        try{
+            pool.join();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+
+        Exception e = error[0];
+        if (e!=null){
+            if (e instanceof IOException) throw (IOException) e;
+            throw new IOException(e);
+        }
+    }
+
+
+  //**************************************************************************
+  //** getExtension
+  //**************************************************************************
+    private static String getExtension(java.io.File file){
+        String name = file.getName();
+        int idx = name.lastIndexOf(".");
+        if (idx<0) return "";
+        return name.substring(idx+1).toLowerCase();
+    }
+
+
+  //**************************************************************************
+  //** Reader Class
+  //**************************************************************************
+  /** Used to read regions from an image file. ImageReaders are not thread
+   *  safe so each thread should use its own Reader.
+   */
+    private static class Reader {
+        private ImageInputStream stream;
+        private ImageReader reader;
+
+        public Reader(java.io.File file) throws IOException {
+            stream = ImageIO.createImageInputStream(file);
+            if (stream==null) throw new IOException("Failed to open " + file);
+            Iterator<ImageReader> it = ImageIO.getImageReaders(stream);
+            if (!it.hasNext()){
+                stream.close();
+                throw new IOException("Unsupported image format: " + file);
+            }
+            reader = it.next();
+            reader.setInput(stream, true, true);
+        }
+
+        public BufferedImage read(Rectangle rect, int subsampling) throws IOException {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(rect);
+            if (subsampling>1) param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            return reader.read(0, param);
+        }
+
+        public void close(){
+            reader.dispose();
+            try{ stream.close(); }
+            catch(IOException e){}
+        }
+    }
+}
@@ -42,6 +42,17 @@ public class JSONArray implements Iterable<JSONValue> {
     }
 
 
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+  /** Used to create a new array from a Reader. Note that the caller is
+   *  responsible for closing the reader.
+   */
+    public JSONArray(java.io.Reader reader) throws JSONException {
+        this(new JSONTokener(reader));
+    }
+
+
   //**************************************************************************
   //** Constructor
   //**************************************************************************
@@ -48,6 +48,19 @@ public class JSONObject extends javaxt.utils.Record {
     }
 
 
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+  /** Construct a JSONObject from a Reader. Characters are parsed as they are
+   *  read so the JSON text does not need to be loaded into a String first.
+   *  Note that the caller is responsible for closing the reader.
+   */
+    public JSONObject(java.io.Reader reader) throws JSONException {
+        super();
+        if (reader!=null) init(new JSONTokener(reader));
+    }
+
+
   //**************************************************************************
   //** Constructor
   //**************************************************************************
@@ -636,7 +649,14 @@ protected static class JSONTokener {
   //** Constructor
   //**************************************************************************
     protected JSONTokener(String s) {
-        java.io.Reader reader = new java.io.StringReader(s);
+        this(new java.io.StringReader(s));
+    }
+
+
+  //**************************************************************************
+  //** Constructor
+  //**************************************************************************
+    protected JSONTokener(java.io.Reader reader) {
         this.reader = reader.markSupported()
                 ? reader
                         : new java.io.BufferedReader(reader);
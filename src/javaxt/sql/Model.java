@@ -871,10 +871,11 @@ public abstract class Model {
   //**************************************************************************
   /** Used to initialize all the Models found in a jar file and associate them
    *  with a database connection pool. This allows queries and other database
-   *  metadata to be cached.
+   *  metadata to be cached. Only classes that extend Model are loaded (see
+   *  Jar.getClasses(Class)).
    */
     public static void init(javaxt.io.Jar jar, ConnectionPool connectionPool) throws SQLException {
-        for (Class c : jar.getClasses()){
+        for (Class c : jar.getClasses(Model.class)){
             if (javaxt.sql.Model.class.isAssignableFrom(c)){
                 init(c, connectionPool);
             }